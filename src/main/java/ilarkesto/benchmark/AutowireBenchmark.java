@@ -0,0 +1,121 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.benchmark;
+
+import ilarkesto.core.scope.In;
+import ilarkesto.di.Autowire;
+import ilarkesto.di.BeanContainer;
+import ilarkesto.di.MultiBeanProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures request scoped autowiring, as done by <code>ReflectionJsonApiFactory</code> for each request, with
+ * cached autowiring plans and with plans recomputed for every bean.
+ */
+public class AutowireBenchmark {
+
+	private MultiBeanProvider beanProvider;
+
+	public static void main(String[] args) throws Exception {
+		new AutowireBenchmark().run(2000, 5000);
+	}
+
+	public AutowireBenchmark() {
+		BeanContainer application = new BeanContainer();
+		for (int i = 0; i < 50; i++) {
+			application.put("applicationBean" + i, "value" + i);
+		}
+		application.put("service", new StringBuilder("service"));
+		application.put("port", "8080");
+
+		BeanContainer session = new BeanContainer();
+		session.put("user", "user");
+		session.put("locale", "de");
+
+		beanProvider = new MultiBeanProvider();
+		beanProvider.addBeanProvider(application);
+		beanProvider.addBeanProvider(session);
+	}
+
+	public void run(long warmupMillis, long measureMillis) throws Exception {
+		List<MicroBenchmark> benchmarks = new ArrayList<MicroBenchmark>();
+		benchmarks.add(new MicroBenchmark("autowire without plan cache") {
+
+			@Override
+			protected Object run() {
+				Autowire.clearPlans();
+				return beanProvider.autowire(new Api());
+			}
+		});
+		benchmarks.add(new MicroBenchmark("autowire") {
+
+			@Override
+			protected Object run() {
+				return beanProvider.autowire(new Api());
+			}
+		});
+		for (MicroBenchmark benchmark : benchmarks) {
+			System.out.println(benchmark.measure(warmupMillis, measureMillis));
+		}
+	}
+
+	public static class ApiBase {
+
+		private CharSequence service;
+
+		@In
+		private String locale;
+
+		public void setService(CharSequence service) {
+			this.service = service;
+		}
+
+		public void setNotABean(String value) {}
+
+		public void setOther(String value) {}
+
+	}
+
+	public static class Api extends ApiBase {
+
+		private String user;
+		private int port;
+
+		@In
+		private String applicationBean7;
+
+		public void setUser(String user) {
+			this.user = user;
+		}
+
+		public void setPort(int port) {
+			this.port = port;
+		}
+
+		public void setTitle(String title) {}
+
+		public String getUser() {
+			return user;
+		}
+
+		public int getPort() {
+			return port;
+		}
+
+	}
+
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.benchmark;
+
+import ilarkesto.io.IO;
+import ilarkesto.json.Json;
+import ilarkesto.json.JsonObject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the former replace based <code>Json.parseString()</code> with the single pass decoder, and
+ * <code>BigDecimal</code> with <code>Double</code> number parsing.
+ * 
+ * <pre>
+ * JsonDecodingBenchmark [file or directory with JSON entity files...]
+ * </pre>
+ * 
+ * Without arguments synthetic entity documents are used.
+ */
+public class JsonDecodingBenchmark {
+
+	private List<String> documents = new ArrayList<String>();
+	private List<String[]> rawStringsByDocument = new ArrayList<String[]>();
+	private List<String[]> numbersByDocument = new ArrayList<String[]>();
+
+	public static void main(String[] args) throws Exception {
+		JsonDecodingBenchmark benchmark = new JsonDecodingBenchmark();
+		for (String arg : args) {
+			benchmark.addFile(new File(arg));
+		}
+		if (benchmark.documents.isEmpty()) benchmark.addSyntheticDocuments(1000);
+		benchmark.run(2000, 5000);
+	}
+
+	public void run(long warmupMillis, long measureMillis) throws Exception {
+		System.out.println(documents.size() + " documents");
+		List<MicroBenchmark> benchmarks = new ArrayList<MicroBenchmark>();
+		benchmarks.add(new StringsBenchmark("legacy parseString", true));
+		benchmarks.add(new StringsBenchmark("parseString", false));
+		benchmarks.add(new NumbersBenchmark("parseNumber BigDecimal", false));
+		benchmarks.add(new NumbersBenchmark("parseNumber double", true));
+		benchmarks.add(new MicroBenchmark("JsonObject.parse") {
+
+			private int index;
+
+			@Override
+			protected Object run() {
+				return JsonObject.parse(documents.get(index++ % documents.size()));
+			}
+		});
+		for (MicroBenchmark benchmark : benchmarks) {
+			System.out.println(benchmark.measure(warmupMillis, measureMillis));
+		}
+	}
+
+	public void addFile(File file) {
+		if (file.isDirectory()) {
+			for (File child : file.listFiles()) {
+				addFile(child);
+			}
+			return;
+		}
+		addDocument(IO.readFile(file, IO.UTF_8));
+	}
+
+	public void addSyntheticDocuments(int count) {
+		for (int i = 0; i < count; i++) {
+			JsonObject json = new JsonObject();
+			json.put("id", "entity-" + i);
+			json.put("@type", "Requirement");
+			json.put("number", i);
+			json.put("label", "Story \"" + i + "\" for the customer");
+			json.put("description", "As a user\nI want to\t\"search\" for things\nso that C:\\path\\to\\file works."
+					+ "\nPrice: 12.50 \u20ac\n");
+			json.put("estimatedWork", 0.5f + i % 13);
+			json.put("modificationTime", 1400000000000L + i);
+			json.addToArray("tags", "tag" + (i % 7));
+			json.addToArray("tags", "M\u00fcller");
+			// other writers escape non ascii characters
+			addDocument(json.toString().replace("\u20ac", "\\u20ac").replace("\u00fc", "\\u00fc"));
+		}
+	}
+
+	private void addDocument(String document) {
+		List<String> strings = new ArrayList<String>();
+		List<String> numbers = new ArrayList<String>();
+		int length = document.length();
+		int i = 0;
+		while (i < length) {
+			char c = document.charAt(i);
+			if (c == '"') {
+				int end = getClosingQuote(document, i + 1);
+				if (end < 0) break;
+				strings.add(document.substring(i + 1, end));
+				i = end + 1;
+				continue;
+			}
+			if (c == '-' || (c >= '0' && c <= '9')) {
+				int end = i + 1;
+				while (end < length && "0123456789.eE+-".indexOf(document.charAt(end)) >= 0) {
+					end++;
+				}
+				numbers.add(document.substring(i, end));
+				i = end;
+				continue;
+			}
+			i++;
+		}
+		documents.add(document);
+		rawStringsByDocument.add(strings.toArray(new String[strings.size()]));
+		numbersByDocument.add(numbers.toArray(new String[numbers.size()]));
+	}
+
+	private static int getClosingQuote(String s, int offset) {
+		int length = s.length();
+		for (int i = offset; i < length; i++) {
+			char c = s.charAt(i);
+			if (c == '\\') {
+				i++;
+				continue;
+			}
+			if (c == '"') return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * <code>Json.parseString()</code> as it was before the single pass decoder.
+	 */
+	static String legacyParseString(String s) {
+		int idx = s.indexOf("\\u");
+		while (idx >= 0) {
+			String code = s.substring(idx + 2, idx + 6);
+			char ch = (char) Integer.parseInt(code, 16);
+			s = s.replace("\\u" + code, String.valueOf(ch));
+			idx = s.indexOf("\\u", idx);
+		}
+		s = s.replace("\\\"", "\"");
+		s = s.replace("\\\\", "\\");
+		s = s.replace("\\/", "/");
+		s = s.replace("\\b", "\b");
+		s = s.replace("\\f", "\f");
+		s = s.replace("\\n", "\n");
+		s = s.replace("\\r", "\r");
+		s = s.replace("\\t", "\t");
+		return s;
+	}
+
+	private class StringsBenchmark extends MicroBenchmark {
+
+		private final boolean legacy;
+		private int index;
+
+		public StringsBenchmark(String name, boolean legacy) {
+			super(name);
+			this.legacy = legacy;
+		}
+
+		@Override
+		protected Object run() {
+			String[] strings = rawStringsByDocument.get(index++ % rawStringsByDocument.size());
+			String last = null;
+			for (String s : strings) {
+				last = legacy ? legacyParseString(s) : Json.parseString(s);
+			}
+			return last;
+		}
+
+	}
+
+	private class NumbersBenchmark extends MicroBenchmark {
+
+		private final boolean asDouble;
+		private int index;
+
+		public NumbersBenchmark(String name, boolean asDouble) {
+			super(name);
+			this.asDouble = asDouble;
+		}
+
+		@Override
+		protected Object run() {
+			boolean previous = Json.isParseDecimalsAsDouble();
+			Json.setParseDecimalsAsDouble(asDouble);
+			try {
+				String[] numbers = numbersByDocument.get(index++ % numbersByDocument.size());
+				Number last = null;
+				for (String s : numbers) {
+					last = Json.parseNumber(s);
+				}
+				return last;
+			} finally {
+				Json.setParseDecimalsAsDouble(previous);
+			}
+		}
+
+	}
+
+}
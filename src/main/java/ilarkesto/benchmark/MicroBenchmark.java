@@ -0,0 +1,118 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.benchmark;
+
+import ilarkesto.io.nio.benchmark.AllocationMeter;
+
+import java.util.Collections;
+
+/**
+ * Minimal harness for micro benchmarks: runs an operation for a warmup period, then measures time and
+ * allocations per operation on the current thread.
+ */
+public abstract class MicroBenchmark {
+
+	private static final int BATCH_SIZE = 100;
+
+	private final String name;
+
+	/**
+	 * Results are written here, so the JIT can not eliminate the benchmarked code.
+	 */
+	private volatile Object blackhole;
+
+	public MicroBenchmark(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Performs one operation and returns its result.
+	 */
+	protected abstract Object run() throws Exception;
+
+	public Result measure(long warmupMillis, long measureMillis) throws Exception {
+		runFor(warmupMillis);
+		AllocationMeter allocationMeter = new AllocationMeter(Collections.singleton(Thread.currentThread()));
+		allocationMeter.start();
+		long start = System.nanoTime();
+		long operations = runFor(measureMillis);
+		long elapsed = System.nanoTime() - start;
+		long allocated = AllocationMeter.isSupported() ? allocationMeter.getAllocatedBytesSinceStart() : -1;
+		return new Result(name, operations, elapsed, allocated);
+	}
+
+	private long runFor(long millis) throws Exception {
+		long end = System.nanoTime() + millis * 1000000;
+		long operations = 0;
+		while (System.nanoTime() < end) {
+			for (int i = 0; i < BATCH_SIZE; i++) {
+				blackhole = run();
+			}
+			operations += BATCH_SIZE;
+		}
+		return operations;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	public static class Result {
+
+		private final String name;
+		private final long operations;
+		private final long elapsedNanos;
+		private final long allocatedBytes;
+
+		public Result(String name, long operations, long elapsedNanos, long allocatedBytes) {
+			this.name = name;
+			this.operations = operations;
+			this.elapsedNanos = elapsedNanos;
+			this.allocatedBytes = allocatedBytes;
+		}
+
+		public double getNanosPerOperation() {
+			return operations == 0 ? 0 : elapsedNanos / (double) operations;
+		}
+
+		public long getOperationsPerSecond() {
+			return elapsedNanos == 0 ? 0 : operations * 1000000000L / elapsedNanos;
+		}
+
+		/**
+		 * @return Allocated bytes per operation or -1 if not measured.
+		 */
+		public long getAllocatedBytesPerOperation() {
+			if (allocatedBytes < 0 || operations == 0) return -1;
+			return allocatedBytes / operations;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(name).append(": ").append(String.format("%.1f", getNanosPerOperation())).append(" ns/op, ");
+			sb.append(getOperationsPerSecond()).append(" ops/s");
+			if (allocatedBytes >= 0) sb.append(", ").append(getAllocatedBytesPerOperation()).append(" bytes/op");
+			return sb.toString();
+		}
+
+	}
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.concurrent;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free unbounded queue for multiple producers and a single consumer. <code>offer()</code> may be called by
+ * any thread, <code>poll()</code> and <code>isEmpty()</code> only by the consumer thread.
+ */
+public class MpscQueue<T> {
+
+	private final AtomicReference<Node<T>> tail;
+	private Node<T> head;
+
+	public MpscQueue() {
+		Node<T> stub = new Node<T>(null);
+		head = stub;
+		tail = new AtomicReference<Node<T>>(stub);
+	}
+
+	public void offer(T value) {
+		if (value == null) throw new IllegalArgumentException("value == null");
+		Node<T> node = new Node<T>(value);
+		Node<T> previous = tail.getAndSet(node);
+		previous.next = node;
+	}
+
+	/**
+	 * @return <code>null</code> if the queue is empty or the next element is not completely offered yet
+	 */
+	public T poll() {
+		Node<T> next = head.next;
+		if (next == null) return null;
+		T value = next.value;
+		next.value = null;
+		head = next;
+		return value;
+	}
+
+	public boolean isEmpty() {
+		return head.next == null;
+	}
+
+	private static final class Node<T> {
+
+		private T value;
+		private volatile Node<T> next;
+
+		private Node(T value) {
+			this.value = value;
+		}
+
+	}
+
+}
@@ -32,6 +32,7 @@ public abstract class ABaseEntity implements Entity, TransferableEntity {
 	private String id;
 	private Long modificationTime;
 	private transient boolean ensuringIntegrity;
+	private transient PropertyChanges propertyChanges;
 
 	public EntityMetadata getMetadata() {
 		return null;
@@ -57,6 +58,7 @@ public abstract class ABaseEntity implements Entity, TransferableEntity {
 
 	public final void fireModified(String field, String value) {
 		ATransaction.get().modified(this, field, value);
+		if (propertyChanges != null) propertyChanges.propertyModified(modificationTime, field);
 		onAfterModified();
 	}
 
@@ -166,7 +168,12 @@ public abstract class ABaseEntity implements Entity, TransferableEntity {
 	}
 
 	public final void updateLastModified() {
+		Long previousTime = modificationTime;
 		modificationTime = System.currentTimeMillis();
+		if (Persistence.trackPropertyChanges) {
+			if (propertyChanges == null) propertyChanges = new PropertyChanges();
+			propertyChanges.timeChanged(previousTime, modificationTime);
+		}
 		onAfterUpdateLastModified();
 	}
 
@@ -177,4 +184,15 @@ public abstract class ABaseEntity implements Entity, TransferableEntity {
 		return modificationTime;
 	}
 
+	/**
+	 * Provides the names of the properties modified after the given modification time, up to the current
+	 * one. Requires <code>Persistence.trackPropertyChanges</code>.
+	 * 
+	 * @return <code>null</code> if not known
+	 */
+	public final Set<String> getPropertiesModifiedSince(Long time) {
+		if (propertyChanges == null) return null;
+		return propertyChanges.getPropertiesModifiedSince(time, modificationTime);
+	}
+
 }
@@ -25,17 +25,43 @@ public abstract class ACachingEntitiesBackend extends AEntitiesBackend {
 
 	protected EntitiesCache<AEntity> cache = new EntitiesCache<AEntity>();
 
+	private final Object updateLock = new Object();
+
+	public ACachingEntitiesBackend() {
+		cache.setIndexReferences(true);
+	}
+
 	protected abstract void onUpdate(Collection<AEntity> entities, Collection<String> entityIds,
 			Map<String, Map<String, String>> modifiedPropertiesByEntityId, Runnable callback);
 
 	@Override
-	public synchronized void update(Collection<AEntity> modified, Collection<String> deletedIds,
+	public void update(Collection<AEntity> modified, Collection<String> deletedIds,
 			Map<String, Map<String, String>> modifiedPropertiesByEntityId, Runnable callback) {
-		onUpdate(modified, deletedIds, modifiedPropertiesByEntityId, callback);
+		synchronized (updateLock) {
+			onUpdate(modified, deletedIds, modifiedPropertiesByEntityId, callback);
+			updateCache(modified, deletedIds);
+			onChangesApplied();
+		}
+	}
+
+	/**
+	 * Called after changes are persisted and applied to the cache. Never called concurrently.
+	 */
+	protected void onChangesApplied() {}
+
+	/**
+	 * Applies the changes to the cache after they were persisted by <code>onUpdate()</code>. Readers are only
+	 * blocked while this runs, not while the changes are persisted.
+	 */
+	protected synchronized void updateCache(Collection<AEntity> modified, Collection<String> deletedIds) {
 		cache.addAll(modified);
 		cache.removeAll(deletedIds);
 	}
 
+	public synchronized void addIndex(EntityFieldIndex<AEntity> index) {
+		cache.addIndex(index);
+	}
+
 	@Override
 	public synchronized AEntity getById(String id) throws EntityDoesNotExistException {
 		return cache.getById(id);
@@ -52,33 +78,33 @@ public abstract class ACachingEntitiesBackend extends AEntitiesBackend {
 	}
 
 	@Override
-	public List<AEntity> getByIdsAsList(Collection<String> ids) throws EntityDoesNotExistException {
+	public synchronized List<AEntity> getByIdsAsList(Collection<String> ids) throws EntityDoesNotExistException {
 		return cache.getByIdsAsList(ids);
 	}
 
 	@Override
-	public <C extends Collection<AEntity>> C getByIds(Collection<String> ids, C resultContainer)
+	public synchronized <C extends Collection<AEntity>> C getByIds(Collection<String> ids, C resultContainer)
 			throws EntityDoesNotExistException {
 		return cache.getByIds(ids, resultContainer);
 	}
 
 	@Override
-	public AEntity findFirst(AEntityQuery query) {
+	public synchronized AEntity findFirst(AEntityQuery query) {
 		return cache.findFirst(query);
 	}
 
 	@Override
-	public Set<AEntity> findAllAsSet(AEntityQuery query) {
+	public synchronized Set<AEntity> findAllAsSet(AEntityQuery query) {
 		return cache.findAllAsSet(query);
 	}
 
 	@Override
-	public <C extends Collection<AEntity>> C find(AEntityQuery<AEntity> query, C resultCollection) {
+	public synchronized <C extends Collection<AEntity>> C find(AEntityQuery<AEntity> query, C resultCollection) {
 		return cache.find(query, resultCollection);
 	}
 
 	@Override
-	public <C extends Collection<AEntity>> C getAll(C resultCollection) {
+	public synchronized <C extends Collection<AEntity>> C getAll(C resultCollection) {
 		return cache.getAll(resultCollection);
 	}
 
@@ -56,6 +56,10 @@ public abstract class AEntityQuery<E extends Entity> implements Predicate<E> {
 		return Utl.getSimpleName(getClass());
 	}
 
+	/**
+	 * The result must only depend on <code>getType()</code>, since <code>EntitiesCache</code> caches the matching
+	 * types per query type.
+	 */
 	public boolean testType(Class typeToTest) {
 		Class<E> queryType = getType();
 		if (queryType == null) return true;
@@ -25,6 +25,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -35,6 +36,8 @@ public abstract class ATransaction<E extends Entity> implements EntitiesProvider
 	protected final Log log = Log.get(getClass());
 
 	private static int transactionNumberCounter = 0;
+	private static long totalIntegrityRounds;
+	private static long totalIntegrityChecks;
 
 	private String name;
 	private boolean autoCommit;
@@ -48,6 +51,14 @@ public abstract class ATransaction<E extends Entity> implements EntitiesProvider
 	private EntitiesCache<E> modified = new EntitiesCache<E>();
 	private Map<String, Map<String, String>> modifiedPropertiesByEntityId = new HashMap<String, Map<String, String>>();
 	private Set<String> deleted = new HashSet<String>();
+	private Map<String, Class> deletedTypesById = new HashMap<String, Class>();
+
+	private LinkedHashSet<String> integrityCheckQueue;
+	private LinkedHashSet<String> deletedIntegrityCheckQueue;
+	private int integrityRounds;
+	private int integrityChecks;
+
+	private LinkedList<ValuesCache.Dependencies> dependencyRecorders;
 
 	public ATransaction(String name, boolean writable, boolean autoCommit, boolean ensureIntegrityOnCommit) {
 		super();
@@ -65,28 +76,75 @@ public abstract class ATransaction<E extends Entity> implements EntitiesProvider
 			checkWritable();
 			if (ensureIntegrityOnCommit) ensureIntegrityUntilUnchanged();
 			getBackend().update(modified.getAllAsList(), deleted, modifiedPropertiesByEntityId, new CommitCallback());
+			invalidateCachedValues(true);
 		} else {
 			new CommitCallback().run();
 		}
 		modified = null;
 		deleted = null;
+		deletedTypesById = null;
 		Persistence.transactionManager.transactionFinished(this);
 	}
 
+	/**
+	 * Invalidates the cached values depending on the changes of this transaction once more. Other threads might
+	 * have cached values computed from the state before the commit, or from the uncommitted changes of a
+	 * transaction which is rolled back, after the changes invalidated them.
+	 */
+	private void invalidateCachedValues(boolean committed) {
+		if (modified == null) return;
+		for (E entity : modified.getAllAsList()) {
+			Persistence.entityModified(entity.getId(), entity.getClass());
+		}
+		for (Map.Entry<String, Class> entry : deletedTypesById.entrySet()) {
+			if (committed) {
+				Persistence.entityDeleted(entry.getKey(), entry.getValue());
+			} else {
+				Persistence.entityModified(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Ensures integrity of all modified entities and of the entities referenced by deleted entities. Entities
+	 * which get modified or deleted while doing this are checked in the next round, until a round adds nothing
+	 * new.
+	 */
 	private void ensureIntegrityUntilUnchanged() {
-		String changeHash = createChangeHash();
-		ensureIntegrity();
-		if (changeHash.equals(createChangeHash())) return;
-		ensureIntegrityUntilUnchanged();
+		integrityCheckQueue = new LinkedHashSet<String>(modified.getAllIds());
+		deletedIntegrityCheckQueue = new LinkedHashSet<String>(deleted);
+		int previousRounds = integrityRounds;
+		int previousChecks = integrityChecks;
+		try {
+			while (!integrityCheckQueue.isEmpty() || !deletedIntegrityCheckQueue.isEmpty()) {
+				integrityRounds++;
+				ensureIntegrity();
+			}
+		} finally {
+			integrityCheckQueue = null;
+			deletedIntegrityCheckQueue = null;
+			addToTotals(integrityRounds - previousRounds, integrityChecks - previousChecks);
+		}
+		if (integrityRounds > 1)
+			log.debug(name, "Integrity ensured in", integrityRounds, "rounds with", integrityChecks, "checks");
 	}
 
 	private void ensureIntegrity() {
+		List<String> ids = new ArrayList<String>(integrityCheckQueue);
+		integrityCheckQueue.clear();
+		List<String> deletedIds = new ArrayList<String>(deletedIntegrityCheckQueue);
+		deletedIntegrityCheckQueue.clear();
+
 		ensuringIntegrity = true;
+		int index = 0;
 		try {
-			for (E entity : modified.getAll(new ArrayList<E>())) {
+			for (; index < ids.size(); index++) {
+				E entity = modified.getIfExists(ids.get(index));
+				if (entity == null) continue;
+				countIntegrityCheck();
 				entity.ensureIntegrity();
 			}
-			for (String id : deleted) {
+			for (String id : deletedIds) {
 				E deletedEntity;
 				try {
 					deletedEntity = getBackend().getById(id);
@@ -100,33 +158,58 @@ public abstract class ATransaction<E extends Entity> implements EntitiesProvider
 
 				for (Entity referencedEntity : referencedEntities) {
 					if (referencedEntity == null) continue;
+					countIntegrityCheck();
 					referencedEntity.ensureIntegrity();
 				}
 			}
 		} catch (EntityDeletedWhileEnsureIntegrity ex) {
-			// redo (changeHash changed)
+			// redo interrupted checks in next round
+			for (; index < ids.size(); index++) {
+				String id = ids.get(index);
+				if (!deleted.contains(id)) integrityCheckQueue.add(id);
+			}
+			deletedIntegrityCheckQueue.addAll(deletedIds);
 		} finally {
 			ensuringIntegrity = false;
 		}
 	}
 
-	private String createChangeHash() {
-		StringBuilder sb = new StringBuilder();
-		for (E entity : modified.getAllAsList()) {
-			sb.append("/").append(entity.getId());
-		}
-		for (String id : deleted) {
-			sb.append("/").append(id);
-		}
-		return sb.toString();
+	private void countIntegrityCheck() {
+		integrityChecks++;
+	}
+
+	/**
+	 * Transactions of different threads ensure integrity concurrently, the totals are added once per transaction.
+	 */
+	private static synchronized void addToTotals(int rounds, int checks) {
+		totalIntegrityRounds += rounds;
+		totalIntegrityChecks += checks;
+	}
+
+	public int getIntegrityRounds() {
+		return integrityRounds;
+	}
+
+	public int getIntegrityChecks() {
+		return integrityChecks;
+	}
+
+	public static synchronized long getTotalIntegrityRounds() {
+		return totalIntegrityRounds;
+	}
+
+	public static synchronized long getTotalIntegrityChecks() {
+		return totalIntegrityChecks;
 	}
 
 	void rollback() {
 		log.info(name, "rollback()", toString());
 		Persistence.transactionManager.transactionFinished(this);
 		// getBackend().onTransactionFinished(this);
+		invalidateCachedValues(false);
 		modified = null;
 		deleted = null;
+		deletedTypesById = null;
 	}
 
 	public void persist(E entity) {
@@ -134,11 +217,13 @@ public abstract class ATransaction<E extends Entity> implements EntitiesProvider
 		checkWritable();
 		if (autoCommit) {
 			getBackend().update(Arrays.asList(entity), null, updatePropertiesMap(null, entity), new CommitCallback());
+			Persistence.entityModified(entity.getId(), entity.getClass());
 			return;
 		}
 		if (deleted.contains(entity))
 			throw new IllegalStateException("Entity already deleted: " + Persistence.getTypeAndId(entity));
-		modified.add(entity);
+		addModified(entity);
+		Persistence.entityModified(entity.getId(), entity.getClass());
 		updatePropertiesMap(modifiedPropertiesByEntityId, entity);
 	}
 
@@ -150,15 +235,22 @@ public abstract class ATransaction<E extends Entity> implements EntitiesProvider
 		if (autoCommit) {
 			getBackend().update(Arrays.asList(entity), null, updatePropertiesMap(null, entity, field, value),
 				new CommitCallback());
+			Persistence.entityModified(entity.getId(), entity.getClass());
 			return;
 		}
-		modified.add(entity);
+		addModified(entity);
 
-		Persistence.clearCaches();
+		Persistence.entityModified(entity.getId(), entity.getClass());
 
 		updatePropertiesMap(modifiedPropertiesByEntityId, entity, field, value);
 	}
 
+	private void addModified(E entity) {
+		if (integrityCheckQueue != null && !modified.containsWithId(entity.getId()))
+			integrityCheckQueue.add(entity.getId());
+		modified.add(entity);
+	}
+
 	private void checkWritable() {
 		if (writable) return;
 		throw new WriteInReadOnlyTransactionException(this);
@@ -181,23 +273,42 @@ public abstract class ATransaction<E extends Entity> implements EntitiesProvider
 		checkWritable();
 		log.info(name, "DELETE", entityId);
 		if (autoCommit) {
+			Class type = getTypeIfExists(entityId);
 			getBackend().update(null, Arrays.asList(entityId), null, new CommitCallback());
+			Persistence.entityDeleted(entityId, type);
 			return;
 		}
 		if (deleted.contains(entityId)) {
 			log.debug(name, "Already deleted:", entityId);
 			return;
 		}
+		Class type = getTypeIfExists(entityId);
 		deleted.add(entityId);
+		deletedTypesById.put(entityId, type);
 		modified.remove(entityId);
+		if (deletedIntegrityCheckQueue != null) {
+			integrityCheckQueue.remove(entityId);
+			deletedIntegrityCheckQueue.add(entityId);
+		}
 
-		Persistence.clearCaches();
+		Persistence.entityDeleted(entityId, type);
 
 		if (ensuringIntegrity) throw new EntityDeletedWhileEnsureIntegrity();
 	}
 
+	private Class getTypeIfExists(String id) {
+		E entity = modified.getIfExists(id);
+		if (entity != null) return entity.getClass();
+		try {
+			return getBackend().getById(id).getClass();
+		} catch (EntityDoesNotExistException ex) {
+			return null;
+		}
+	}
+
 	@Override
 	public boolean containsWithId(String id) {
+		recordRead(id);
 		if (deleted.contains(id)) return false;
 		return modified.containsWithId(id) || getBackend().containsWithId(id);
 	}
@@ -205,13 +316,16 @@ public abstract class ATransaction<E extends Entity> implements EntitiesProvider
 	@Override
 	public E getById(String id) {
 		Args.assertNotNull(id, "id");
+		recordRead(id);
 		if (deleted.contains(id)) throw new EntityDoesNotExistException(id);
-		if (modified.containsWithId(id)) return modified.getById(id);
+		E entity = modified.getIfExists(id);
+		if (entity != null) return entity;
 		return getBackend().getById(id);
 	}
 
 	@Override
 	public <C extends Collection<E>> C getAll(C resultCollection) {
+		recordRead((Class) null);
 
 		if (deleted.isEmpty()) return getBackend().getAll(resultCollection);
 
@@ -239,14 +353,16 @@ public abstract class ATransaction<E extends Entity> implements EntitiesProvider
 
 	@Override
 	public E findFirst(AEntityQuery query) {
+		recordRead(query.getType());
 		E entity = modified.findFirst(query);
-		if (entity == null) entity = getBackend().findFirst(query);
+		if (entity == null) entity = (E) getBackend().findFirst(query);
 		if (entity != null && deleted.contains(entity.getId())) return null;
 		return entity;
 	}
 
 	@Override
 	public <C extends Collection<E>> C find(AEntityQuery<E> query, C resultCollection) {
+		recordRead(query.getType());
 		RuntimeTracker rt = new RuntimeTracker();
 
 		getBackend().find(query, resultCollection);
@@ -266,6 +382,35 @@ public abstract class ATransaction<E extends Entity> implements EntitiesProvider
 		return resultCollection;
 	}
 
+	void startRecordingDependencies(ValuesCache.Dependencies dependencies) {
+		if (dependencyRecorders == null) dependencyRecorders = new LinkedList<ValuesCache.Dependencies>();
+		dependencyRecorders.addFirst(dependencies);
+	}
+
+	void stopRecordingDependencies(ValuesCache.Dependencies dependencies) {
+		if (dependencyRecorders == null || !dependencyRecorders.remove(dependencies)) return;
+		// values computed for an outer value are dependencies of the outer value too
+		if (!dependencyRecorders.isEmpty()) dependencyRecorders.getFirst().addAll(dependencies);
+	}
+
+	void recordDependencies(ValuesCache.Dependencies dependencies) {
+		if (dependencyRecorders == null || dependencyRecorders.isEmpty()) return;
+		dependencyRecorders.getFirst().addAll(dependencies);
+	}
+
+	private void recordRead(String id) {
+		if (dependencyRecorders == null || dependencyRecorders.isEmpty()) return;
+		dependencyRecorders.getFirst().addEntityId(id);
+	}
+
+	/**
+	 * @param type <code>null</code> for all types
+	 */
+	private void recordRead(Class type) {
+		if (dependencyRecorders == null || dependencyRecorders.isEmpty()) return;
+		dependencyRecorders.getFirst().addType(type);
+	}
+
 	public void setIgnoreModificationEvents(boolean disabled) {
 		this.ignoreModificationEvents = disabled;
 	}
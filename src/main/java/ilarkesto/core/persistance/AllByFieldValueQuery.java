@@ -0,0 +1,63 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.persistance;
+
+import ilarkesto.core.base.Str;
+
+/**
+ * Query for all entities of a type with a given property value. Answered by an <code>EntityFieldIndex</code> if
+ * the queried cache has one for the type and property, otherwise by testing every entity.
+ */
+public class AllByFieldValueQuery<E extends Entity> extends AEntityQuery<E> {
+
+	private Class<E> type;
+	private String property;
+	private String value;
+
+	public AllByFieldValueQuery(Class<E> type, String property, String value) {
+		super();
+		this.type = type;
+		this.property = property;
+		this.value = value;
+	}
+
+	/**
+	 * Tests the property value using <code>createPropertiesMap()</code>. Subclasses can override this with a
+	 * direct field comparison.
+	 */
+	@Override
+	public boolean test(E entity) {
+		return EntityFieldIndex.getValues(entity.createPropertiesMap(), property).contains(value);
+	}
+
+	@Override
+	public Class<E> getType() {
+		return type;
+	}
+
+	public String getProperty() {
+		return property;
+	}
+
+	public String getValue() {
+		return value;
+	}
+
+	@Override
+	public String toString() {
+		return Str.getSimpleName(type) + ":by:" + property + "=" + value;
+	}
+
+}
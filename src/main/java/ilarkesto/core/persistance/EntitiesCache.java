@@ -14,6 +14,9 @@
  */
 package ilarkesto.core.persistance;
 
+import ilarkesto.core.persistance.meta.EntityFieldMetadata;
+import ilarkesto.core.persistance.meta.EntityMetadata;
+
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -25,13 +28,20 @@ import java.util.Set;
 
 public class EntitiesCache<E extends Entity> implements EntitiesProvider<E> {
 
+	private Map<String, E> entitiesById = new HashMap<String, E>();
 	private Map<Class, Map<String, E>> entitiesByTypeById = new HashMap<Class, Map<String, E>>();
+	private List<EntityFieldIndex<E>> indexes = new ArrayList<EntityFieldIndex<E>>(0);
+	private boolean indexReferences;
+
+	/**
+	 * Type maps matching a query type (<code>AEntityQuery.getType()</code>), computed on first use. Replaced
+	 * instead of modified, so concurrent readers can fill it. Reset when a new type is added.
+	 */
+	private volatile Map<Class, List<Map<String, E>>> typeMapsByQueryType = new HashMap<Class, List<Map<String, E>>>();
 
 	@Override
 	public <C extends Collection<E>> C getAll(C resultCollection) {
-		for (Map<String, E> entitiesById : entitiesByTypeById.values()) {
-			resultCollection.addAll(entitiesById.values());
-		}
+		resultCollection.addAll(entitiesById.values());
 		return resultCollection;
 	}
 
@@ -46,11 +56,7 @@ public class EntitiesCache<E extends Entity> implements EntitiesProvider<E> {
 	}
 
 	public Set<String> getAllIds() {
-		Set<String> ret = new HashSet<String>();
-		for (Map<String, E> entitiesById : entitiesByTypeById.values()) {
-			ret.addAll(entitiesById.keySet());
-		}
-		return ret;
+		return new HashSet<String>(entitiesById.keySet());
 	}
 
 	public Set<E> findAllAsSet(AEntityQuery query) {
@@ -59,14 +65,20 @@ public class EntitiesCache<E extends Entity> implements EntitiesProvider<E> {
 
 	@Override
 	public <C extends Collection<E>> C find(AEntityQuery<E> query, C resultCollection) {
-		for (Entry<Class, Map<String, E>> entry : entitiesByTypeById.entrySet()) {
-			if (!query.testType(entry.getKey())) continue;
+		EntityFieldIndex<E> index = getIndex(query);
+		if (index != null) {
+			for (E entity : index.get(((AllByFieldValueQuery) query).getValue())) {
+				if (query.test(entity)) resultCollection.add(entity);
+			}
+			return resultCollection;
+		}
 
-			Map<String, E> entitiesById = entry.getValue();
-			if (query.getClass().equals(AllByTypeQuery.class)) {
-				resultCollection.addAll(entitiesById.values());
+		boolean allByType = query.getClass().equals(AllByTypeQuery.class);
+		for (Map<String, E> typeEntitiesById : getTypeMaps(query)) {
+			if (allByType) {
+				resultCollection.addAll(typeEntitiesById.values());
 			} else {
-				for (E entity : entitiesById.values()) {
+				for (E entity : typeEntitiesById.values()) {
 					if (query.test(entity)) resultCollection.add(entity);
 				}
 			}
@@ -77,11 +89,16 @@ public class EntitiesCache<E extends Entity> implements EntitiesProvider<E> {
 
 	@Override
 	public E findFirst(AEntityQuery query) {
-		for (Entry<Class, Map<String, E>> entry : entitiesByTypeById.entrySet()) {
-			if (!query.testType(entry.getKey())) continue;
+		EntityFieldIndex<E> index = getIndex(query);
+		if (index != null) {
+			for (E entity : index.get(((AllByFieldValueQuery) query).getValue())) {
+				if (query.test(entity)) return entity;
+			}
+			return null;
+		}
 
-			Map<String, E> entitiesById = entry.getValue();
-			for (E entity : entitiesById.values()) {
+		for (Map<String, E> typeEntitiesById : getTypeMaps(query)) {
+			for (E entity : typeEntitiesById.values()) {
 				if (query.test(entity)) return entity;
 			}
 		}
@@ -90,13 +107,96 @@ public class EntitiesCache<E extends Entity> implements EntitiesProvider<E> {
 	}
 
 	public void add(E entity) {
+		String id = entity.getId();
+		Class type = entity.getClass();
+		E previous = entitiesById.put(id, entity);
+		if (previous != null && previous.getClass() != type) {
+			removeFromType(previous.getClass(), id);
+			removeFromIndexes(id);
+		}
+
+		Map<String, E> typeEntitiesById = entitiesByTypeById.get(type);
+		if (typeEntitiesById == null) {
+			typeEntitiesById = new HashMap<String, E>();
+			entitiesByTypeById.put(type, typeEntitiesById);
+			typeMapsByQueryType = new HashMap<Class, List<Map<String, E>>>();
+			if (indexReferences) addReferenceIndexes(entity);
+		}
+		typeEntitiesById.put(id, entity);
+
+		Map<String, String> properties = null;
+		for (EntityFieldIndex<E> index : indexes) {
+			if (!index.isIndexing(type)) continue;
+			if (properties == null) properties = entity.createPropertiesMap();
+			index.add(entity, properties);
+		}
+	}
+
+	public void addIndex(EntityFieldIndex<E> index) {
+		for (Entry<Class, Map<String, E>> entry : entitiesByTypeById.entrySet()) {
+			if (!index.isIndexing(entry.getKey())) continue;
+			for (E entity : entry.getValue().values()) {
+				index.add(entity, entity.createPropertiesMap());
+			}
+		}
+		indexes.add(index);
+	}
+
+	/**
+	 * Creates indexes for the reference properties (<code>fooId</code>, <code>fooIds</code>) of each entity type
+	 * when its first entity is added, as declared by its <code>EntityMetadata</code>. Back reference lookups by
+	 * <code>AllByFieldValueQuery</code> on that type are then answered from the index.
+	 */
+	public void setIndexReferences(boolean indexReferences) {
+		this.indexReferences = indexReferences;
+	}
+
+	private void addReferenceIndexes(E entity) {
+		if (!(entity instanceof ABaseEntity)) return;
+		EntityMetadata metadata = ((ABaseEntity) entity).getMetadata();
+		if (metadata == null) return;
 		Class type = entity.getClass();
-		Map<String, E> entitiesById = entitiesByTypeById.get(type);
-		if (entitiesById == null) {
-			entitiesById = new HashMap<String, E>();
-			entitiesByTypeById.put(type, entitiesById);
+		for (EntityFieldMetadata field : metadata.getFields()) {
+			String name = field.getName();
+			if (metadata.getField(name + "Id") == field) {
+				addIndexIfMissing(type, name + "Id");
+			} else if (metadata.getField(name + "Ids") == field) {
+				addIndexIfMissing(type, name + "Ids");
+			}
+		}
+	}
+
+	private void addIndexIfMissing(Class type, String property) {
+		for (EntityFieldIndex<E> index : indexes) {
+			if (index.getType().equals(type) && index.getProperty().equals(property)) return;
+		}
+		addIndex(new EntityFieldIndex<E>(type, property));
+	}
+
+	private List<Map<String, E>> getTypeMaps(AEntityQuery query) {
+		Class queryType = query.getType();
+		Map<Class, List<Map<String, E>>> typeMapsByQueryType = this.typeMapsByQueryType;
+		List<Map<String, E>> typeMaps = typeMapsByQueryType.get(queryType);
+		if (typeMaps != null) return typeMaps;
+
+		typeMaps = new ArrayList<Map<String, E>>();
+		for (Entry<Class, Map<String, E>> entry : entitiesByTypeById.entrySet()) {
+			if (query.testType(entry.getKey())) typeMaps.add(entry.getValue());
+		}
+
+		Map<Class, List<Map<String, E>>> updated = new HashMap<Class, List<Map<String, E>>>(typeMapsByQueryType);
+		updated.put(queryType, typeMaps);
+		this.typeMapsByQueryType = updated;
+		return typeMaps;
+	}
+
+	private EntityFieldIndex<E> getIndex(AEntityQuery query) {
+		if (indexes.isEmpty()) return null;
+		if (!(query instanceof AllByFieldValueQuery)) return null;
+		for (EntityFieldIndex<E> index : indexes) {
+			if (index.isUsableFor((AllByFieldValueQuery) query)) return index;
 		}
-		entitiesById.put(entity.getId(), entity);
+		return null;
 	}
 
 	public void addAll(Collection<E> entities) {
@@ -108,11 +208,24 @@ public class EntitiesCache<E extends Entity> implements EntitiesProvider<E> {
 
 	public E remove(String entityId) {
 		if (entityId == null) return null;
-		for (Map<String, E> entitiesById : entitiesByTypeById.values()) {
-			E removed = entitiesById.remove(entityId);
-			if (removed != null) return removed;
+		E removed = entitiesById.remove(entityId);
+		if (removed != null) {
+			removeFromType(removed.getClass(), entityId);
+			removeFromIndexes(entityId);
 		}
-		return null;
+		return removed;
+	}
+
+	private void removeFromIndexes(String entityId) {
+		for (EntityFieldIndex<E> index : indexes) {
+			index.remove(entityId);
+		}
+	}
+
+	private void removeFromType(Class type, String entityId) {
+		Map<String, E> typeEntitiesById = entitiesByTypeById.get(type);
+		if (typeEntitiesById == null) return;
+		typeEntitiesById.remove(entityId);
 	}
 
 	public void removeAll(Collection<String> ids) {
@@ -124,19 +237,12 @@ public class EntitiesCache<E extends Entity> implements EntitiesProvider<E> {
 
 	@Override
 	public boolean containsWithId(String id) {
-		for (Map<String, E> entitiesById : entitiesByTypeById.values()) {
-			if (entitiesById.containsKey(id)) return true;
-		}
-		return false;
+		return entitiesById.containsKey(id);
 	}
 
 	@Override
 	public E getById(String id) throws EntityDoesNotExistException {
-		E entity = null;
-		for (Map<String, E> entitiesById : entitiesByTypeById.values()) {
-			entity = entitiesById.get(id);
-			if (entity != null) break;
-		}
+		E entity = entitiesById.get(id);
 		if (entity == null) throw new EntityDoesNotExistException(id);
 		return entity;
 	}
@@ -161,18 +267,16 @@ public class EntitiesCache<E extends Entity> implements EntitiesProvider<E> {
 	}
 
 	public int size() {
-		int sum = 0;
-		for (Map<String, E> entitiesById : entitiesByTypeById.values()) {
-			sum += entitiesById.size();
-		}
-		return sum;
+		return entitiesById.size();
 	}
 
 	public boolean isEmpty() {
-		for (Map<String, E> entitiesById : entitiesByTypeById.values()) {
-			if (!entitiesById.isEmpty()) return false;
-		}
-		return true;
+		return entitiesById.isEmpty();
+	}
+
+	public E getIfExists(String id) {
+		if (id == null) return null;
+		return entitiesById.get(id);
 	}
 
 	public final Map<Class, Integer> countEntities() {
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.persistance;
+
+import ilarkesto.core.base.Str;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Secondary index of an <code>EntitiesCache</code>. Maps the values of a property (as provided by
+ * <code>createPropertiesMap()</code>, eg. <code>requirementId</code>) to the entities of a type. Properties ending
+ * with <code>Ids</code> are reference sets, their entities are indexed by every contained id.
+ */
+public class EntityFieldIndex<E extends Entity> {
+
+	private Class type;
+	private String property;
+
+	private Map<String, Map<String, E>> entitiesByIdByValue = new HashMap<String, Map<String, E>>();
+	private Map<String, Collection<String>> valuesByEntityId = new HashMap<String, Collection<String>>();
+
+	public EntityFieldIndex(Class type, String property) {
+		super();
+		this.type = type;
+		this.property = property;
+	}
+
+	public boolean isIndexing(Class entityType) {
+		return AEntityQuery.isInstanceOf(entityType, type);
+	}
+
+	public boolean isUsableFor(AllByFieldValueQuery query) {
+		return type.equals(query.getType()) && property.equals(query.getProperty());
+	}
+
+	void add(E entity, Map<String, String> properties) {
+		String id = entity.getId();
+		remove(id);
+		Collection<String> values = getValues(properties, property);
+		if (values.isEmpty()) return;
+		for (String value : values) {
+			Map<String, E> entitiesById = entitiesByIdByValue.get(value);
+			if (entitiesById == null) {
+				entitiesById = new HashMap<String, E>();
+				entitiesByIdByValue.put(value, entitiesById);
+			}
+			entitiesById.put(id, entity);
+		}
+		valuesByEntityId.put(id, values);
+	}
+
+	void remove(String entityId) {
+		Collection<String> values = valuesByEntityId.remove(entityId);
+		if (values == null) return;
+		for (String value : values) {
+			Map<String, E> entitiesById = entitiesByIdByValue.get(value);
+			if (entitiesById == null) continue;
+			entitiesById.remove(entityId);
+			if (entitiesById.isEmpty()) entitiesByIdByValue.remove(value);
+		}
+	}
+
+	public Collection<E> get(String value) {
+		Map<String, E> entitiesById = entitiesByIdByValue.get(value);
+		if (entitiesById == null) return Collections.emptyList();
+		return entitiesById.values();
+	}
+
+	public Class getType() {
+		return type;
+	}
+
+	public String getProperty() {
+		return property;
+	}
+
+	static Collection<String> getValues(Map<String, String> properties, String property) {
+		String value = properties.get(property);
+		if (value == null) return Collections.emptySet();
+		if (property.endsWith("Ids")) return Persistence.parsePropertyReferenceSet(value);
+		return Collections.singleton(value);
+	}
+
+	@Override
+	public String toString() {
+		return Str.getSimpleName(type) + "." + property;
+	}
+
+}
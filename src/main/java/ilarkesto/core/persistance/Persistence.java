@@ -39,8 +39,23 @@ public class Persistence {
 
 	public static EntitiesBackend backend;
 	public static ATransactionManager transactionManager;
+
+	/**
+	 * Entities remember which properties their last modifications changed, so only those need to be
+	 * transferred to clients.
+	 */
+	public static boolean trackPropertyChanges;
 	public static Map<String, ValuesCache> valuesCachesById = new HashMap<String, ValuesCache>();
 
+	private static Map<String, Set<ValuesCache.Entry>> dependentCacheEntriesByEntityId = new HashMap<String, Set<ValuesCache.Entry>>();
+	private static Map<Class, Set<ValuesCache.Entry>> dependentCacheEntriesByType = new HashMap<Class, Set<ValuesCache.Entry>>();
+	private static volatile long modificationCount;
+	private static final int TRACKED_MODIFICATIONS_COUNT = 256;
+	private static String[] trackedModifiedIds = new String[TRACKED_MODIFICATIONS_COUNT];
+	private static Class[] trackedModifiedTypes = new Class[TRACKED_MODIFICATIONS_COUNT];
+	private static long firstTrackedModificationCount = 1;
+	private static volatile int dependencyRecordingsCount;
+
 	public static void initialize(EntitiesBackend backend, ATransactionManager transactionManager) {
 		Persistence.backend = backend;
 		Persistence.transactionManager = transactionManager;
@@ -74,17 +89,176 @@ public class Persistence {
 		transaction.commit();
 	}
 
-	static ValuesCache getValuesCache(String id) {
+	static synchronized ValuesCache getValuesCache(String id) {
 		ValuesCache cache = valuesCachesById.get(id);
 		if (cache == null) {
-			cache = new ValuesCache();
+			cache = new ValuesCache(id);
 			valuesCachesById.put(id, cache);
 		}
 		return cache;
 	}
 
-	public static void clearCaches() {
+	public static synchronized void clearCaches() {
+		modificationCount++;
+		firstTrackedModificationCount = modificationCount + 1;
 		valuesCachesById.clear();
+		dependentCacheEntriesByEntityId.clear();
+		dependentCacheEntriesByType.clear();
+	}
+
+	/**
+	 * Invalidates the cached values which depend on the given entity or on its type. Values without dependencies
+	 * are invalidated always.
+	 */
+	static synchronized void entityModified(String id, Class type) {
+		modificationCount++;
+		int index = (int) (modificationCount % TRACKED_MODIFICATIONS_COUNT);
+		trackedModifiedIds[index] = id;
+		trackedModifiedTypes[index] = type;
+		invalidate(dependentCacheEntriesByEntityId.remove(id));
+		if (type == null) {
+			List<Set<ValuesCache.Entry>> entriesOfAllTypes = new ArrayList<Set<ValuesCache.Entry>>(
+					dependentCacheEntriesByType.values());
+			dependentCacheEntriesByType.clear();
+			for (Set<ValuesCache.Entry> entries : entriesOfAllTypes) {
+				invalidate(entries);
+			}
+			return;
+		}
+		while (type != null && !type.equals(Object.class)) {
+			invalidate(dependentCacheEntriesByType.remove(type));
+			type = type.getSuperclass();
+		}
+	}
+
+	static synchronized void entityDeleted(String id, Class type) {
+		entityModified(id, type);
+		valuesCachesById.remove(id);
+	}
+
+	private static void invalidate(Set<ValuesCache.Entry> entries) {
+		if (entries == null) return;
+		for (ValuesCache.Entry entry : entries) {
+			remove(entry);
+		}
+	}
+
+	/**
+	 * Removes the entry from its cache and from the dependency index.
+	 */
+	static synchronized void remove(ValuesCache.Entry entry) {
+		entry.cache.removeEntry(entry);
+		unregister(entry);
+	}
+
+	static synchronized int getDependentCacheEntriesCount() {
+		Set<ValuesCache.Entry> entries = new HashSet<ValuesCache.Entry>();
+		for (Set<ValuesCache.Entry> entriesOfEntity : dependentCacheEntriesByEntityId.values()) {
+			entries.addAll(entriesOfEntity);
+		}
+		for (Set<ValuesCache.Entry> entriesOfType : dependentCacheEntriesByType.values()) {
+			entries.addAll(entriesOfType);
+		}
+		return entries.size();
+	}
+
+	static synchronized void put(ValuesCache.Entry entry) {
+		if (entry.dependencies != null && isModifiedSince(entry.dependencies)) return;
+		for (ValuesCache.Entry removed : entry.cache.putEntry(entry)) {
+			unregister(removed);
+		}
+		ValuesCache.Dependencies dependencies = entry.dependencies;
+		if (dependencies == null) return;
+		for (String entityId : dependencies.getEntityIds()) {
+			Set<ValuesCache.Entry> entries = dependentCacheEntriesByEntityId.get(entityId);
+			if (entries == null) {
+				entries = new HashSet<ValuesCache.Entry>();
+				dependentCacheEntriesByEntityId.put(entityId, entries);
+			}
+			entries.add(entry);
+		}
+		for (Class type : dependencies.getTypes()) {
+			Set<ValuesCache.Entry> entries = dependentCacheEntriesByType.get(type);
+			if (entries == null) {
+				entries = new HashSet<ValuesCache.Entry>();
+				dependentCacheEntriesByType.put(type, entries);
+			}
+			entries.add(entry);
+		}
+	}
+
+	private static void unregister(ValuesCache.Entry entry) {
+		ValuesCache.Dependencies dependencies = entry.dependencies;
+		if (dependencies == null) return;
+		for (String entityId : dependencies.getEntityIds()) {
+			Set<ValuesCache.Entry> entries = dependentCacheEntriesByEntityId.get(entityId);
+			if (entries == null) continue;
+			entries.remove(entry);
+			if (entries.isEmpty()) dependentCacheEntriesByEntityId.remove(entityId);
+		}
+		for (Class type : dependencies.getTypes()) {
+			Set<ValuesCache.Entry> entries = dependentCacheEntriesByType.get(type);
+			if (entries == null) continue;
+			entries.remove(entry);
+			if (entries.isEmpty()) dependentCacheEntriesByType.remove(type);
+		}
+	}
+
+	/**
+	 * Whether one of the dependencies was modified since recording started, so the value computed from them may be
+	 * stale already. The last <code>TRACKED_MODIFICATIONS_COUNT</code> modifications are checked, values started
+	 * before are refused.
+	 */
+	private static boolean isModifiedSince(ValuesCache.Dependencies dependencies) {
+		long since = dependencies.modificationCount;
+		if (since == modificationCount) return false;
+		if (since + 1 < firstTrackedModificationCount || modificationCount - since > TRACKED_MODIFICATIONS_COUNT)
+			return true;
+		for (long count = since + 1; count <= modificationCount; count++) {
+			int index = (int) (count % TRACKED_MODIFICATIONS_COUNT);
+			String id = trackedModifiedIds[index];
+			if (id != null && dependencies.getEntityIds().contains(id)) return true;
+			Class type = trackedModifiedTypes[index];
+			if (type == null) {
+				if (!dependencies.getTypes().isEmpty()) return true;
+				continue;
+			}
+			while (type != null && !type.equals(Object.class)) {
+				if (dependencies.getTypes().contains(type)) return true;
+				type = type.getSuperclass();
+			}
+		}
+		return false;
+	}
+
+	static boolean isValid(ValuesCache.Entry entry) {
+		if (entry.dependencies != null) return true;
+		return entry.modificationCount == modificationCount;
+	}
+
+	static long getModificationCount() {
+		return modificationCount;
+	}
+
+	static void startRecordingDependencies(ValuesCache.Dependencies dependencies) {
+		if (transactionManager == null) return;
+		synchronized (Persistence.class) {
+			dependencyRecordingsCount++;
+		}
+		ATransaction.get().startRecordingDependencies(dependencies);
+	}
+
+	static void stopRecordingDependencies(ValuesCache.Dependencies dependencies) {
+		if (transactionManager == null) return;
+		synchronized (Persistence.class) {
+			dependencyRecordingsCount--;
+		}
+		ATransaction.get().stopRecordingDependencies(dependencies);
+	}
+
+	static void recordDependencies(ValuesCache.Dependencies dependencies) {
+		if (dependencyRecordingsCount == 0 || transactionManager == null) return;
+		ATransaction.get().recordDependencies(dependencies);
 	}
 
 	public static int parsePropertyint(String value) {
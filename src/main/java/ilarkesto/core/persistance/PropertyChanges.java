@@ -0,0 +1,83 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.persistance;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+
+/**
+ * Remembers which properties were modified by the last modifications of an entity. Each modification is
+ * linked to the modification time it replaced, so the properties modified since a given time can be
+ * determined as long as the chain is complete.
+ */
+class PropertyChanges {
+
+	static final int MAX_CHANGES = 8;
+
+	private LinkedList<Change> changes = new LinkedList<Change>();
+
+	synchronized void timeChanged(Long previousTime, Long time) {
+		if (time == null) return;
+		if (!changes.isEmpty() && time.equals(changes.getLast().time)) return;
+		changes.add(new Change(previousTime, time));
+		if (changes.size() > MAX_CHANGES) changes.removeFirst();
+	}
+
+	synchronized void propertyModified(Long time, String property) {
+		if (time == null) return;
+		Change change = changes.isEmpty() ? null : changes.getLast();
+		if (change == null || !time.equals(change.time)) {
+			change = new Change(null, time);
+			changes.add(change);
+			if (changes.size() > MAX_CHANGES) changes.removeFirst();
+		}
+		change.properties.add(property);
+	}
+
+	/**
+	 * @return <code>null</code> if the modified properties are not known
+	 */
+	synchronized Set<String> getPropertiesModifiedSince(Long since, Long until) {
+		if (since == null || until == null) return null;
+		Set<String> ret = new HashSet<String>();
+		Long time = until;
+		for (int i = changes.size() - 1; i >= 0; i--) {
+			Change change = changes.get(i);
+			if (!time.equals(change.time)) continue;
+			if (change.properties.isEmpty()) return null;
+			ret.addAll(change.properties);
+			if (change.previousTime == null) return null;
+			if (change.previousTime.equals(since)) return ret;
+			time = change.previousTime;
+		}
+		return null;
+	}
+
+	private static class Change {
+
+		private Long previousTime;
+		private Long time;
+		private Set<String> properties = new HashSet<String>();
+
+		public Change(Long previousTime, Long time) {
+			super();
+			this.previousTime = previousTime;
+			this.time = time;
+		}
+
+	}
+
+}
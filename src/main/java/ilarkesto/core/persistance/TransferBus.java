@@ -14,19 +14,53 @@
  */
 package ilarkesto.core.persistance;
 
+import ilarkesto.core.persistance.ValuesCache.Dependencies;
+
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
 
+/**
+ * Collects entities and their passengers. All entities added to one bus share the set of visited entities, so
+ * overlapping passenger graphs are walked once. Optionally the direct passengers of entities are cached in their
+ * <code>ValuesCache</code> until an entity read while collecting them gets modified.
+ */
 public class TransferBus {
 
+	private static final String PASSENGERS_CACHE_KEY = "TransferBus.passengers";
+
+	private static boolean defaultCachePassengers;
+
+	private boolean cachePassengers;
 	private Set<Entity> entities = new HashSet<Entity>();
+	private List<Entity> collecting;
+
+	public TransferBus() {
+		this(defaultCachePassengers);
+	}
+
+	public TransferBus(boolean cachePassengers) {
+		super();
+		this.cachePassengers = cachePassengers;
+	}
 
 	public void add(Entity entity) {
 		if (entity == null) return;
-		boolean added = entities.add(entity);
-		if (added) {
-			entity.collectPassengers(this);
+		if (collecting != null) {
+			collecting.add(entity);
+			return;
+		}
+		if (!entities.add(entity)) return;
+
+		LinkedList<Entity> queue = new LinkedList<Entity>();
+		queue.add(entity);
+		while (!queue.isEmpty()) {
+			for (Entity passenger : getPassengers(queue.removeFirst())) {
+				if (passenger != null && entities.add(passenger)) queue.add(passenger);
+			}
 		}
 	}
 
@@ -46,8 +80,43 @@ public class TransferBus {
 		}
 	}
 
+	private List<Entity> getPassengers(Entity entity) {
+		if (!cachePassengers) return collectPassengers(entity);
+
+		ValuesCache cache = Persistence.getValuesCache(entity.getId());
+		List<Entity> passengers = (List<Entity>) cache.get(PASSENGERS_CACHE_KEY);
+		if (passengers != null) return passengers;
+
+		Dependencies dependencies = cache.startRecording();
+		try {
+			passengers = collectPassengers(entity);
+		} finally {
+			cache.stopRecording(dependencies);
+		}
+		return cache.put(passengers, dependencies, PASSENGERS_CACHE_KEY);
+	}
+
+	private List<Entity> collectPassengers(Entity entity) {
+		List<Entity> passengers = new ArrayList<Entity>();
+		collecting = passengers;
+		try {
+			entity.collectPassengers(this);
+		} finally {
+			collecting = null;
+		}
+		return passengers;
+	}
+
 	public Set<Entity> getEntities() {
 		return entities;
 	}
 
+	/**
+	 * Caches passengers in new buses by default. Only use it when <code>collectPassengers()</code> reads the
+	 * passengers through the current transaction, otherwise modifications are not detected.
+	 */
+	public static void setDefaultCachePassengers(boolean cachePassengers) {
+		defaultCachePassengers = cachePassengers;
+	}
+
 }
@@ -14,35 +14,368 @@
  */
 package ilarkesto.core.persistance;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
 
+/**
+ * Cache for values derived from an entity. Values put with <code>Dependencies</code> are only invalidated when
+ * one of the entities or types they depend on is modified. All other values are invalidated on every
+ * modification. The cache is bounded by <code>maxSize</code>, evicting by <code>Eviction</code> policy, and values
+ * expire after <code>timeToLive</code> milliseconds if set.
+ */
 public class ValuesCache {
 
-	private Map<String, Object> valuesByKey = new HashMap<String, Object>();
+	public static enum Eviction {
+		LRU, LFU
+	}
+
+	private static final int LFU_SAMPLE_SIZE = 16;
+
+	private static int defaultMaxSize = 1000;
+	private static Eviction defaultEviction = Eviction.LRU;
+	private static long defaultTimeToLive;
+
+	private static volatile long totalHits;
+	private static volatile long totalMisses;
+	private static volatile long totalEvictions;
+
+	private final String ownerId;
+	private final LinkedHashMap<Key, Entry> entriesByKey = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+	private int maxSize = defaultMaxSize;
+	private Eviction eviction = defaultEviction;
+	private long timeToLive = defaultTimeToLive;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	public ValuesCache(String ownerId) {
+		super();
+		this.ownerId = ownerId;
+	}
 
 	public Object get(String name, Object... keyParts) {
-		String key = createKey(name, keyParts);
-		return valuesByKey.get(key);
+		Entry entry = getEntry(new Key(name, keyParts));
+		if (entry == null) return null;
+		if (entry.expired) {
+			// unregistering needs the lock of Persistence, which is always acquired before the lock of the cache
+			Persistence.remove(entry);
+			return null;
+		}
+		if (entry.dependencies != null) Persistence.recordDependencies(entry.dependencies);
+		return entry.value;
+	}
+
+	private synchronized Entry getEntry(Key key) {
+		Entry entry = entriesByKey.get(key);
+		if (entry != null && !Persistence.isValid(entry)) {
+			entriesByKey.remove(key);
+			entry = null;
+		} else if (entry != null && timeToLive > 0 && System.currentTimeMillis() - entry.time > timeToLive) {
+			entriesByKey.remove(key);
+			entry.expired = true;
+			countEviction();
+			misses++;
+			totalMisses++;
+			return entry;
+		}
+		if (entry == null) {
+			misses++;
+			totalMisses++;
+			return null;
+		}
+		entry.hits++;
+		hits++;
+		totalHits++;
+		return entry;
 	}
 
 	public <T> T put(T value, String name, Object... keyParts) {
-		String key = createKey(name, keyParts);
-		valuesByKey.put(key, value);
+		return put(value, null, name, keyParts);
+	}
+
+	/**
+	 * Puts a value which stays valid until one of the recorded dependencies is modified.
+	 */
+	public <T> T put(T value, Dependencies dependencies, String name, Object... keyParts) {
+		Persistence.put(new Entry(this, new Key(name, keyParts), value, dependencies));
 		return value;
 	}
 
-	private String createKey(String name, Object... keyParts) {
-		StringBuilder sb = new StringBuilder();
-		sb.append(name);
-		for (Object keyPart : keyParts) {
-			if (keyPart instanceof AEntity) {
-				sb.append(((AEntity) keyPart).getId());
-			} else {
-				sb.append(keyPart);
+	/**
+	 * Starts recording the entities and types which are read by the current transaction, while computing a value.
+	 * Must be followed by <code>stopRecording()</code>. The value is not cached if one of the dependencies is
+	 * modified before it is put.
+	 */
+	public Dependencies startRecording() {
+		Dependencies dependencies = new Dependencies();
+		dependencies.modificationCount = Persistence.getModificationCount();
+		if (ownerId != null) dependencies.addEntityId(ownerId);
+		Persistence.startRecordingDependencies(dependencies);
+		return dependencies;
+	}
+
+	public void stopRecording(Dependencies dependencies) {
+		Persistence.stopRecordingDependencies(dependencies);
+	}
+
+	/**
+	 * @return entries which were replaced or evicted
+	 */
+	synchronized List<Entry> putEntry(Entry entry) {
+		List<Entry> removed = null;
+		Entry replaced = entriesByKey.put(entry.key, entry);
+		if (replaced != null) {
+			removed = new ArrayList<Entry>(1);
+			removed.add(replaced);
+		}
+		if (maxSize > 0) {
+			while (entriesByKey.size() > maxSize) {
+				Entry evicted = removeEldest(entry);
+				countEviction();
+				if (removed == null) removed = new ArrayList<Entry>(1);
+				removed.add(evicted);
+			}
+		}
+		if (removed == null) return Collections.emptyList();
+		return removed;
+	}
+
+	/**
+	 * LFU is approximated by evicting the least frequently used of the <code>LFU_SAMPLE_SIZE</code> least recently
+	 * used entries, so eviction does not scan the whole cache while the lock of <code>Persistence</code> is held.
+	 */
+	private Entry removeEldest(Entry newEntry) {
+		Iterator<Entry> iterator = entriesByKey.values().iterator();
+		if (eviction == Eviction.LFU) {
+			Entry leastFrequent = null;
+			int sampled = 0;
+			while (iterator.hasNext() && sampled < LFU_SAMPLE_SIZE) {
+				Entry entry = iterator.next();
+				// the new entry had no chance to be used yet
+				if (entry == newEntry) continue;
+				sampled++;
+				if (leastFrequent == null || entry.hits < leastFrequent.hits) leastFrequent = entry;
+			}
+			entriesByKey.remove(leastFrequent.key);
+			return leastFrequent;
+		}
+		Entry eldest = iterator.next();
+		iterator.remove();
+		return eldest;
+	}
+
+	private void countEviction() {
+		evictions++;
+		totalEvictions++;
+	}
+
+	synchronized void removeEntry(Entry entry) {
+		if (entriesByKey.get(entry.key) == entry) entriesByKey.remove(entry.key);
+	}
+
+	public synchronized int size() {
+		return entriesByKey.size();
+	}
+
+	public synchronized void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public synchronized void setEviction(Eviction eviction) {
+		this.eviction = eviction;
+	}
+
+	/**
+	 * @param timeToLive milliseconds, <code>0</code> for no expiration
+	 */
+	public synchronized void setTimeToLive(long timeToLive) {
+		this.timeToLive = timeToLive;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public String getOwnerId() {
+		return ownerId;
+	}
+
+	/**
+	 * @param maxSize <code>0</code> for unbounded caches
+	 */
+	public static void setDefaultMaxSize(int maxSize) {
+		defaultMaxSize = maxSize;
+	}
+
+	public static void setDefaultEviction(Eviction eviction) {
+		defaultEviction = eviction;
+	}
+
+	public static void setDefaultTimeToLive(long timeToLive) {
+		defaultTimeToLive = timeToLive;
+	}
+
+	/**
+	 * Totals over all caches. Not synchronized, so they are approximations under concurrent access.
+	 */
+	public static long getTotalHits() {
+		return totalHits;
+	}
+
+	public static long getTotalMisses() {
+		return totalMisses;
+	}
+
+	public static long getTotalEvictions() {
+		return totalEvictions;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return ownerId + ": " + entriesByKey.size() + " values, " + hits + " hits, " + misses + " misses, "
+				+ evictions + " evictions";
+	}
+
+	/**
+	 * Composite key of a value name and its key parts. Entities are represented by their ids.
+	 */
+	static final class Key {
+
+		private final String name;
+		private final Object[] parts;
+		private final int hashCode;
+
+		Key(String name, Object[] parts) {
+			super();
+			this.name = name;
+			this.parts = toIds(parts);
+			this.hashCode = 31 * name.hashCode() + Arrays.hashCode(this.parts);
+		}
+
+		private static Object[] toIds(Object[] parts) {
+			Object[] ret = parts;
+			for (int i = 0; i < parts.length; i++) {
+				if (!(parts[i] instanceof AEntity)) continue;
+				if (ret == parts) {
+					ret = new Object[parts.length];
+					for (int j = 0; j < parts.length; j++) {
+						ret[j] = parts[j];
+					}
+				}
+				ret[i] = ((AEntity) parts[i]).getId();
+			}
+			return ret;
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this) return true;
+			if (!(obj instanceof Key)) return false;
+			Key other = (Key) obj;
+			return hashCode == other.hashCode && name.equals(other.name) && Arrays.equals(parts, other.parts);
+		}
+
+		@Override
+		public String toString() {
+			if (parts.length == 0) return name;
+			return name + Arrays.toString(parts);
+		}
+
+	}
+
+	static class Entry {
+
+		final ValuesCache cache;
+		final Key key;
+		final Object value;
+		final Dependencies dependencies;
+		final long modificationCount;
+		final long time;
+		int hits;
+		boolean expired;
+
+		Entry(ValuesCache cache, Key key, Object value, Dependencies dependencies) {
+			super();
+			this.cache = cache;
+			this.key = key;
+			this.value = value;
+			this.dependencies = dependencies == null || dependencies.isAllEntities() ? null : dependencies;
+			this.modificationCount = Persistence.getModificationCount();
+			this.time = System.currentTimeMillis();
+		}
+
+	}
+
+	/**
+	 * The entity ids and types a cached value was computed from.
+	 */
+	public static class Dependencies {
+
+		private Set<String> entityIds = new HashSet<String>();
+		private Set<Class> types = new HashSet<Class>();
+		private boolean allEntities;
+		long modificationCount;
+
+		public void addEntityId(String entityId) {
+			entityIds.add(entityId);
+		}
+
+		/**
+		 * @param type <code>null</code> for all types
+		 */
+		public void addType(Class type) {
+			if (type == null) {
+				allEntities = true;
+				return;
 			}
+			types.add(type);
+		}
+
+		public void addAll(Dependencies dependencies) {
+			entityIds.addAll(dependencies.entityIds);
+			types.addAll(dependencies.types);
+			if (dependencies.allEntities) allEntities = true;
+		}
+
+		public Set<String> getEntityIds() {
+			return entityIds;
+		}
+
+		public Set<Class> getTypes() {
+			return types;
+		}
+
+		public boolean isAllEntities() {
+			return allEntities;
 		}
-		return sb.toString();
+
+		@Override
+		public String toString() {
+			if (allEntities) return "*";
+			return entityIds + " " + types;
+		}
+
 	}
 
 }
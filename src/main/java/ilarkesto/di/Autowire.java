@@ -25,9 +25,12 @@ import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Utility class for autowiering
@@ -77,54 +80,137 @@ public class Autowire {
 	 * @param objectStringMapper optional
 	 * @return the given <code>bean</code>
 	 */
-	public static <T> T autowire(T bean, final BeanProvider beanProvider, final ObjectStringMapper objectStringMapper) {
+	public static <T> T autowire(T bean, BeanProvider beanProvider, ObjectStringMapper objectStringMapper) {
+		Plan plan = getPlan(bean.getClass());
+		if (plan.isEmpty()) return bean;
+		Set<String> availableBeanNames = beanProvider.beanNames();
+
+		for (SetterInjection injection : plan.setters) {
+			if (availableBeanNames.contains(injection.name)) {
+				Object value = beanProvider.getBean(injection.name);
+				injection.inject(bean, value, objectStringMapper);
+			} else if ("beanProvider".equals(injection.name)) {
+				injection.inject(bean, beanProvider, objectStringMapper);
+			}
+		}
+
+		for (FieldInjection injection : plan.fields) {
+			if (!availableBeanNames.contains(injection.name)) continue;
+			injection.inject(bean, beanProvider.getBean(injection.name), objectStringMapper);
+		}
+
+		return bean;
+	}
 
-		final Set<String> availableBeanNames = beanProvider.beanNames();
-		Class beanClass = bean.getClass();
+	// --- plans ---
 
-		List<Method> setters = Reflect.getSetters(beanClass);
-		for (Method setter : setters) {
-			String propertyName = Reflect.getPropertyNameFromSetter(setter);
-			if (setter != null) {
+	private static final Map<Class, Plan> plansByClass = new ConcurrentHashMap<Class, Plan>();
+
+	private static Plan getPlan(Class beanClass) {
+		Plan plan = plansByClass.get(beanClass);
+		if (plan == null) {
+			plan = new Plan(beanClass);
+			plansByClass.put(beanClass, plan);
+		}
+		return plan;
+	}
+
+	/**
+	 * Forgets the reflection data collected for autowiring beans.
+	 */
+	public static void clearPlans() {
+		plansByClass.clear();
+	}
+
+	/**
+	 * Setters and <code>@In</code> fields of a bean class, resolved once per class.
+	 */
+	private static class Plan {
+
+		private final SetterInjection[] setters;
+		private final FieldInjection[] fields;
+
+		public Plan(Class beanClass) {
+			List<SetterInjection> setters = new ArrayList<SetterInjection>();
+			for (Method setter : Reflect.getSetters(beanClass)) {
 				if (setter.getAnnotation(AutowireHostile.class) != null) continue;
-				if (availableBeanNames.contains(propertyName)) {
-					Object value = beanProvider.getBean(propertyName);
-					invokeSetter(bean, setter, value, objectStringMapper);
-				} else if ("beanProvider".equals(propertyName)) {
-					invokeSetter(bean, setter, beanProvider, objectStringMapper);
+				setters.add(new SetterInjection(setter));
+			}
+			this.setters = setters.toArray(new SetterInjection[setters.size()]);
+
+			final List<FieldInjection> fields = new ArrayList<FieldInjection>();
+			// TODO create beanless annotation processor in Reflect.java
+			Beans.processAnnotations(null, beanClass, new Beans.FieldAnnotationHandler() {
+
+				@Override
+				public void handle(Annotation annotation, Field field, Object object) {
+					if (!(annotation instanceof In)) return;
+					field.setAccessible(true);
+					fields.add(new FieldInjection(field));
 				}
+			});
+			this.fields = fields.toArray(new FieldInjection[fields.size()]);
+		}
+
+		public boolean isEmpty() {
+			return setters.length == 0 && fields.length == 0;
+		}
+
+	}
+
+	private static class SetterInjection {
+
+		private final Method setter;
+		private final String name;
+		private final Class paramType;
+		private final ITransformer transformer;
+
+		public SetterInjection(Method setter) {
+			this.setter = setter;
+			this.name = Reflect.getPropertyNameFromSetter(setter);
+			this.paramType = setter.getParameterTypes()[0];
+			this.transformer = getPrimitiveTypeTransformer(paramType);
+		}
+
+		public void inject(Object bean, Object value, ObjectStringMapper objectStringMapper) {
+			try {
+				if (value != null && !paramType.isAssignableFrom(value.getClass()))
+					value = convert(paramType, transformer, value, objectStringMapper);
+				setter.invoke(bean, value);
+			} catch (Throwable ex) {
+				throw createSetterException(bean, setter, value, ex);
 			}
 		}
 
-		// TODO create beanless annotation processor in Reflect.java
-		Beans.processAnnotations(bean, new Beans.FieldAnnotationHandler() {
+	}
 
-			@Override
-			public void handle(Annotation annotation, Field field, Object object) {
-				if (!(annotation instanceof In)) return;
-				String name = field.getName();
-				if (!availableBeanNames.contains(name)) return;
-				field.setAccessible(true);
-				Object value = beanProvider.getBean(name);
-				Class paramType = field.getType();
-				try {
-					if (objectStringMapper != null && value instanceof String
-							&& objectStringMapper.isTypeSupported(paramType)) {
-						value = objectStringMapper.stringToObject((String) value, paramType);
-					} else {
-						value = convertType(paramType, value);
-					}
-					field.set(object, value);
-				} catch (Exception ex) {
-					String valueStr = value == null ? "<" + value + ">" : value.getClass().getSimpleName() + ": <"
-							+ value + ">";
-					throw new RuntimeException("Setting field " + object.getClass().getSimpleName() + "." + name
-							+ " to " + valueStr + " failed.", ex);
-				}
+	private static class FieldInjection {
+
+		private final Field field;
+		private final String name;
+		private final Class type;
+		private final ITransformer transformer;
+
+		public FieldInjection(Field field) {
+			this.field = field;
+			this.name = field.getName();
+			this.type = field.getType();
+			this.transformer = getPrimitiveTypeTransformer(type);
+		}
+
+		public void inject(Object bean, Object value, ObjectStringMapper objectStringMapper) {
+			try {
+				if (value == null || !type.isAssignableFrom(value.getClass()))
+					value = convert(type, transformer, value, objectStringMapper);
+				field.set(bean, value);
+			} catch (Exception ex) {
+				String valueStr = value == null ? "<" + value + ">" : value.getClass().getSimpleName() + ": <" + value
+						+ ">";
+				throw new RuntimeException("Setting field " + bean.getClass().getSimpleName() + "." + name + " to "
+						+ valueStr + " failed.", ex);
 			}
-		});
+		}
 
-		return bean;
 	}
 
 	// --- helper ---
@@ -133,13 +219,32 @@ public class Autowire {
 		try {
 			method.invoke(bean, createWriteMethodArguments(method, value, objectStringMapper));
 		} catch (Throwable ex) {
-			String valueType = value == null ? "<null>" : value.getClass().getName();
-			throw new RuntimeException("Invoking setter '" + method.getDeclaringClass().getSimpleName() + "."
-					+ method.getName() + "' on '" + bean + "' with '" + value + "' of type " + valueType + " failed.",
-					ex);
+			throw createSetterException(bean, method, value, ex);
 		}
 	}
 
+	private static RuntimeException createSetterException(Object bean, Method method, Object value, Throwable ex) {
+		String valueType = value == null ? "<null>" : value.getClass().getName();
+		return new RuntimeException("Invoking setter '" + method.getDeclaringClass().getSimpleName() + "."
+				+ method.getName() + "' on '" + bean + "' with '" + value + "' of type " + valueType + " failed.", ex);
+	}
+
+	/**
+	 * @param transformer pre-resolved transformer for primitive types, which have no converting constructor
+	 */
+	private static Object convert(Class paramType, ITransformer transformer, Object value,
+			ObjectStringMapper objectStringMapper) throws InstantiationException, IllegalAccessException,
+			InvocationTargetException {
+		if (objectStringMapper != null && value instanceof String && objectStringMapper.isTypeSupported(paramType))
+			return objectStringMapper.stringToObject((String) value, paramType);
+		if (transformer != null && value != null) return transformer.transform(value);
+		return convertType(paramType, value);
+	}
+
+	private static ITransformer getPrimitiveTypeTransformer(Class type) {
+		return type.isPrimitive() ? getTypeTransformer(type) : null;
+	}
+
 	private static Object[] createWriteMethodArguments(Method method, Object value,
 			ObjectStringMapper objectStringMapper) throws IllegalAccessException, ClassCastException {
 		try {
@@ -147,14 +252,8 @@ public class Autowire {
 				Class[] types = method.getParameterTypes();
 				if (types != null && types.length > 0) {
 					Class paramType = types[0];
-					if (!paramType.isAssignableFrom(value.getClass())) {
-						if (objectStringMapper != null && value instanceof String
-								&& objectStringMapper.isTypeSupported(paramType)) {
-							value = objectStringMapper.stringToObject((String) value, paramType);
-						} else {
-							value = convertType(paramType, value);
-						}
-					}
+					if (!paramType.isAssignableFrom(value.getClass()))
+						value = convert(paramType, null, value, objectStringMapper);
 				}
 			}
 			Object[] answer = { value };
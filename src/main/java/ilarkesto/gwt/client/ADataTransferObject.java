@@ -87,11 +87,20 @@ public abstract class ADataTransferObject implements Serializable, IsSerializabl
 		return entities.containsKey(entityId);
 	}
 
+	/**
+	 * Adds the properties of an entity. The data may contain only modified properties, so it is merged with
+	 * data already added for the same entity.
+	 */
 	public synchronized final void addEntity(Map<String, String> data) {
 		String id = data.get("id");
 		if (deletedEntities != null && deletedEntities.contains(id)) return;
 		if (entities == null) entities = new HashMap<String, Map<String, String>>();
-		entities.put(id, data);
+		Map<String, String> existing = entities.get(id);
+		if (existing == null) {
+			entities.put(id, data);
+		} else {
+			existing.putAll(data);
+		}
 	}
 
 	public synchronized final Collection<Map<String, String>> getEntities() {
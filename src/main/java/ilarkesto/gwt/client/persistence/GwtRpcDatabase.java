@@ -53,9 +53,9 @@ public class GwtRpcDatabase extends ACachingEntitiesBackend {
 				} catch (EntityDoesNotExistException ex) {
 					String type = data.get("@type");
 					entity = factory.createEntity(type, id);
-					cache.add(entity);
 				}
 				entity.updateProperties(data);
+				cache.add(entity);
 				entities.add(entity);
 			}
 		} finally {
@@ -20,6 +20,8 @@ import ilarkesto.base.Utl;
 import ilarkesto.core.base.RuntimeTracker;
 import ilarkesto.core.base.Str;
 import ilarkesto.core.logging.Log;
+import ilarkesto.core.persistance.ABaseEntity;
+import ilarkesto.core.persistance.ATransaction;
 import ilarkesto.core.persistance.Entity;
 import ilarkesto.core.persistance.Persistence;
 import ilarkesto.core.persistance.TransferBus;
@@ -37,6 +39,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 public abstract class AGwtConversation<S extends AWebSession> implements ClientDataTransporter,
@@ -51,6 +54,7 @@ public abstract class AGwtConversation<S extends AWebSession> implements ClientD
 	private ADataTransferObject nextData;
 	private Object nextDataLock = new Object();
 	private Map<Entity, Long> remoteEntityModificationTimes = Collections.synchronizedMap(new HashMap<Entity, Long>());
+	private GwtConversationBroadcaster broadcaster;
 
 	private S session;
 	private int number;
@@ -83,11 +87,17 @@ public abstract class AGwtConversation<S extends AWebSession> implements ClientD
 	}
 
 	public final void clearRemoteEntities() {
+		if (broadcaster != null) {
+			for (Entity entity : getRemoteEntities()) {
+				broadcaster.untracking(this, entity.getId());
+			}
+		}
 		remoteEntityModificationTimes.clear();
 	}
 
 	public final void clearRemoteEntity(Entity entity) {
 		remoteEntityModificationTimes.remove(entity);
+		if (broadcaster != null) broadcaster.untracking(this, entity.getId());
 	}
 
 	public final void clearRemoteEntitiesByType(Class<? extends Entity> type) {
@@ -96,10 +106,20 @@ public abstract class AGwtConversation<S extends AWebSession> implements ClientD
 			if (entity.getClass().equals(type)) toRemove.add(entity);
 		}
 		for (Entity entity : toRemove) {
-			remoteEntityModificationTimes.remove(entity);
+			clearRemoteEntity(entity);
 		}
 	}
 
+	final List<Entity> getRemoteEntities() {
+		synchronized (remoteEntityModificationTimes) {
+			return new ArrayList<Entity>(remoteEntityModificationTimes.keySet());
+		}
+	}
+
+	final void setBroadcaster(GwtConversationBroadcaster broadcaster) {
+		this.broadcaster = broadcaster;
+	}
+
 	protected boolean isEntityVisible(Entity entity) {
 		return true;
 	}
@@ -114,7 +134,7 @@ public abstract class AGwtConversation<S extends AWebSession> implements ClientD
 	public void sendToClient(Entity entity) {
 		if (entity == null) return;
 		RuntimeTracker rt = new RuntimeTracker();
-		sendToClientInternal(entity);
+		sendToClientInternal(Collections.singletonList(entity));
 		if (rt.getRuntime() > 1000) {
 			log.warn("sendToClient(Entity) took", rt.getRuntimeFormated(), "->", entity.getClass().getSimpleName(),
 				entity.getId(), entity.toString());
@@ -124,36 +144,37 @@ public abstract class AGwtConversation<S extends AWebSession> implements ClientD
 	@Override
 	public final void sendToClient(Collection<? extends Entity> entities) {
 		if (entities == null) return;
-		transferBusWarningPosted = false;
 		RuntimeTracker rt = new RuntimeTracker();
-		for (Entity entity : entities) {
-			sendToClientInternal(entity);
-		}
+		sendToClientInternal(entities);
 		if (rt.getRuntime() > 3000) {
 			log.warn("sendToClient(Collection) took", rt.getRuntimeFormated(), "->", entities.size(), entities);
 		}
 	}
 
-	boolean transferBusWarningPosted;
-
-	private void sendToClientInternal(Entity entity) {
-		if (entity == null) return;
+	/**
+	 * Collects the passengers of all entities with one <code>TransferBus</code>, so shared passengers are
+	 * collected only once.
+	 */
+	private void sendToClientInternal(Collection<? extends Entity> entities) {
+		ATransaction transaction = Persistence.transactionManager.getCurrentTransaction();
+		TransferBus transferBus = new TransferBus();
+		RuntimeTracker rt = new RuntimeTracker();
+		for (Entity entity : entities) {
+			if (entity == null) continue;
 
-		if (!Persistence.transactionManager.getCurrentTransaction().containsWithId(entity.getId())) {
-			getNextData().addDeletedEntity(entity.getId());
-			return;
-		}
+			if (!transaction.containsWithId(entity.getId())) {
+				getNextData().addDeletedEntity(entity.getId());
+				continue;
+			}
 
-		if (!isEntityVisible(entity))
-			throw new PermissionDeniedException(entity + " is not visible in " + getSession());
+			if (!isEntityVisible(entity))
+				throw new PermissionDeniedException(entity + " is not visible in " + getSession());
 
-		TransferBus transferBus = new TransferBus();
-		RuntimeTracker rt = new RuntimeTracker();
-		transferBus.add(entity);
-		if (!transferBusWarningPosted && rt.getRuntime() > 200) {
-			log.warn("Collecting passengers took", rt.getRuntimeFormated(), "->", toString(entity), "->",
-				transferBus.getEntities());
-			transferBusWarningPosted = true;
+			transferBus.add(entity);
+		}
+		if (rt.getRuntime() > 200) {
+			log.warn("Collecting passengers took", rt.getRuntimeFormated(), "->", entities.size(), "entities ->",
+				transferBus.getEntities().size(), "passengers");
 		}
 
 		for (Entity e : transferBus.getEntities()) {
@@ -161,11 +182,26 @@ public abstract class AGwtConversation<S extends AWebSession> implements ClientD
 		}
 	}
 
+	/**
+	 * Called by the dispatcher thread of the <code>GwtConversationBroadcaster</code>.
+	 */
+	final void receiveBroadcast(Entity entity, Collection<GwtConversationBroadcaster.EntityData> passengers) {
+		if (!isEntityVisible(entity)) {
+			if (log.isDebugEnabled()) log.debug("Skipping broadcast of invisible", toString(entity), "for", this);
+			return;
+		}
+		for (GwtConversationBroadcaster.EntityData data : passengers) {
+			addToNextData(data.entity, data.modificationTime, new HashMap<String, String>(data.properties));
+		}
+	}
+
 	public final void sendToClientIfTracking(Collection<? extends Entity> entities) {
 		if (entities == null) return;
+		List<Entity> tracked = new ArrayList<Entity>(entities.size());
 		for (Entity entity : entities) {
-			sendToClientIfTracking(entity);
+			if (entity != null && isAvailableOnClient(entity)) tracked.add(entity);
 		}
+		if (!tracked.isEmpty()) sendToClient(tracked);
 	}
 
 	@Override
@@ -185,8 +221,11 @@ public abstract class AGwtConversation<S extends AWebSession> implements ClientD
 	}
 
 	private void addToNextData(Entity entity) {
+		addToNextData(entity, entity.getModificationTime(), null);
+	}
+
+	private void addToNextData(Entity entity, Long timeLocal, Map<String, String> propertiesMap) {
 		Long timeRemote = remoteEntityModificationTimes.get(entity);
-		Long timeLocal = entity.getModificationTime();
 
 		ADataTransferObject nd = getNextData();
 		if (nd.containsDeletedEntity(entity.getId())) return;
@@ -198,12 +237,48 @@ public abstract class AGwtConversation<S extends AWebSession> implements ClientD
 			return;
 		}
 
-		Map<String, String> propertiesMap = entity.createPropertiesMap();
+		if (propertiesMap == null) propertiesMap = entity.createPropertiesMap();
+		Set<String> modifiedProperties = getPropertiesModifiedSince(entity, timeRemote, propertiesMap);
 		filterEntityProperties(entity, propertiesMap);
+		if (modifiedProperties != null) propertiesMap = createDelta(propertiesMap, modifiedProperties);
 
 		nd.addEntity(propertiesMap);
-		remoteEntityModificationTimes.put(entity, timeLocal);
-		if (log.isDebugEnabled()) log.debug("Sending", toString(entity), "to", this);
+		if (remoteEntityModificationTimes.put(entity, timeLocal) == null && broadcaster != null)
+			broadcaster.tracking(this, entity.getId());
+		if (log.isDebugEnabled())
+			log.debug("Sending", toString(entity), "to", this, modifiedProperties == null ? "" : modifiedProperties);
+	}
+
+	/**
+	 * @return <code>null</code> if all properties need to be transferred
+	 */
+	private Set<String> getPropertiesModifiedSince(Entity entity, Long timeRemote, Map<String, String> propertiesMap) {
+		if (timeRemote == null || !isDeltaTransferEnabled()) return null;
+		if (!(entity instanceof ABaseEntity)) return null;
+		Set<String> properties = ((ABaseEntity) entity).getPropertiesModifiedSince(timeRemote);
+		if (properties == null) return null;
+		// modifications of nested objects are not reported by their property name
+		if (!propertiesMap.keySet().containsAll(properties)) return null;
+		return properties;
+	}
+
+	private static Map<String, String> createDelta(Map<String, String> propertiesMap, Set<String> modifiedProperties) {
+		Map<String, String> delta = new HashMap<String, String>();
+		delta.put("@type", propertiesMap.get("@type"));
+		delta.put("id", propertiesMap.get("id"));
+		delta.put("modificationTime", propertiesMap.get("modificationTime"));
+		for (String property : modifiedProperties) {
+			if (propertiesMap.containsKey(property)) delta.put(property, propertiesMap.get(property));
+		}
+		return delta;
+	}
+
+	/**
+	 * Transfer only the properties modified since the client received an entity, when known. Entities new to
+	 * the client are always transferred completely.
+	 */
+	protected boolean isDeltaTransferEnabled() {
+		return Persistence.trackPropertyChanges;
 	}
 
 	private String toString(Entity entity) {
@@ -213,6 +288,7 @@ public abstract class AGwtConversation<S extends AWebSession> implements ClientD
 
 	public final ADataTransferObject popNextData() {
 		if (nextData == null) return null;
+		if (broadcaster != null) broadcaster.awaitDispatched(this);
 		synchronized (nextDataLock) {
 			ADataTransferObject ret = nextData;
 			nextData = createDataTransferObject();
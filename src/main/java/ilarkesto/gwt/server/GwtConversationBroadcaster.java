@@ -0,0 +1,301 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.gwt.server;
+
+import ilarkesto.concurrent.DeamonThreadFactory;
+import ilarkesto.core.base.RuntimeTracker;
+import ilarkesto.core.logging.Log;
+import ilarkesto.core.persistance.ATransaction;
+import ilarkesto.core.persistance.Entity;
+import ilarkesto.core.persistance.Persistence;
+import ilarkesto.core.persistance.TransferBus;
+import ilarkesto.persistence.AThreadlocalTransactionManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Sends entity changes to all GWT conversations. Passengers and properties maps are computed once on the
+ * calling thread and shared by all conversations, the conversations are updated by a dispatcher thread.
+ * Conversations report the entities they track, so changes reach only the conversations interested in them.
+ */
+public class GwtConversationBroadcaster {
+
+	private static final Log log = Log.get(GwtConversationBroadcaster.class);
+
+	private static final long MAX_AWAIT_MILLIS = 10000;
+
+	private Set<AGwtConversation> conversations = new CopyOnWriteArraySet<AGwtConversation>();
+	private Map<String, Set<AGwtConversation>> trackingConversationsByEntityId = new HashMap<String, Set<AGwtConversation>>();
+
+	private ExecutorService dispatcher;
+	private Object dispatchLock = new Object();
+	private Map<AGwtConversation, Integer> pendingCountsByConversation = new HashMap<AGwtConversation, Integer>();
+
+	public void register(AGwtConversation conversation) {
+		conversation.setBroadcaster(this);
+		conversations.add(conversation);
+	}
+
+	public void unregister(AGwtConversation<?> conversation) {
+		conversations.remove(conversation);
+		for (Entity entity : conversation.getRemoteEntities()) {
+			untracking(conversation, entity.getId());
+		}
+	}
+
+	void tracking(AGwtConversation conversation, String entityId) {
+		synchronized (trackingConversationsByEntityId) {
+			Set<AGwtConversation> tracking = trackingConversationsByEntityId.get(entityId);
+			if (tracking == null) {
+				tracking = new HashSet<AGwtConversation>(4);
+				trackingConversationsByEntityId.put(entityId, tracking);
+			}
+			tracking.add(conversation);
+		}
+	}
+
+	void untracking(AGwtConversation conversation, String entityId) {
+		synchronized (trackingConversationsByEntityId) {
+			Set<AGwtConversation> tracking = trackingConversationsByEntityId.get(entityId);
+			if (tracking == null) return;
+			tracking.remove(conversation);
+			if (tracking.isEmpty()) trackingConversationsByEntityId.remove(entityId);
+		}
+	}
+
+	public Collection<AGwtConversation> getTrackingConversations(String entityId) {
+		synchronized (trackingConversationsByEntityId) {
+			Set<AGwtConversation> tracking = trackingConversationsByEntityId.get(entityId);
+			if (tracking == null) return Collections.emptyList();
+			return new ArrayList<AGwtConversation>(tracking);
+		}
+	}
+
+	public Set<AGwtConversation> getConversations() {
+		return Collections.unmodifiableSet(conversations);
+	}
+
+	public void sendToAll(Collection<? extends Entity> entities) {
+		broadcast(entities, false);
+	}
+
+	public void sendToAllIfTracking(Collection<? extends Entity> entities) {
+		broadcast(entities, true);
+	}
+
+	public void deleteFromAll(Collection<String> entityIds) {
+		if (entityIds == null || entityIds.isEmpty()) return;
+		final List<String> ids = new ArrayList<String>(entityIds);
+		final Collection<AGwtConversation> targets = new ArrayList<AGwtConversation>(conversations);
+		synchronized (trackingConversationsByEntityId) {
+			for (String id : ids) {
+				trackingConversationsByEntityId.remove(id);
+			}
+		}
+		dispatch(targets, new Runnable() {
+
+			@Override
+			public void run() {
+				for (AGwtConversation conversation : targets) {
+					for (String id : ids) {
+						conversation.deleteFromClient(id);
+					}
+				}
+			}
+		});
+	}
+
+	private void broadcast(Collection<? extends Entity> entities, boolean onlyTracking) {
+		if (entities == null || entities.isEmpty()) return;
+		RuntimeTracker rt = new RuntimeTracker();
+		ATransaction transaction = Persistence.transactionManager.getCurrentTransaction();
+		Map<Entity, EntityData> datas = new HashMap<Entity, EntityData>();
+		final List<Broadcast> broadcasts = new ArrayList<Broadcast>(entities.size());
+		Collection<AGwtConversation> allConversations = onlyTracking ? null : new ArrayList<AGwtConversation>(
+				conversations);
+		Set<AGwtConversation> allTargets = new HashSet<AGwtConversation>();
+		for (Entity entity : entities) {
+			if (entity == null) continue;
+			Collection<AGwtConversation> targets = onlyTracking ? getTrackingConversations(entity.getId())
+					: allConversations;
+			if (targets.isEmpty()) continue;
+			allTargets.addAll(targets);
+
+			if (!transaction.containsWithId(entity.getId())) {
+				broadcasts.add(new Broadcast(entity, null, targets));
+				continue;
+			}
+
+			TransferBus transferBus = new TransferBus();
+			transferBus.add(entity);
+			List<EntityData> passengers = new ArrayList<EntityData>(transferBus.getEntities().size());
+			for (Entity passenger : transferBus.getEntities()) {
+				EntityData data = datas.get(passenger);
+				if (data == null) {
+					data = new EntityData(passenger);
+					datas.put(passenger, data);
+				}
+				passengers.add(data);
+			}
+			broadcasts.add(new Broadcast(entity, passengers, targets));
+		}
+		if (broadcasts.isEmpty()) return;
+		if (rt.getRuntime() > 1000) log.warn("Preparing broadcast took", rt.getRuntimeFormated(), "->", entities);
+
+		dispatch(allTargets, new Runnable() {
+
+			@Override
+			public void run() {
+				for (Broadcast broadcast : broadcasts) {
+					broadcast.run();
+				}
+			}
+		});
+	}
+
+	private void dispatch(final Collection<AGwtConversation> targets, final Runnable runnable) {
+		synchronized (dispatchLock) {
+			for (AGwtConversation conversation : targets) {
+				Integer count = pendingCountsByConversation.get(conversation);
+				pendingCountsByConversation.put(conversation, count == null ? 1 : count + 1);
+			}
+			if (dispatcher == null) dispatcher = Executors.newSingleThreadExecutor(new DeamonThreadFactory());
+			dispatcher.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						runInTransaction(runnable);
+					} catch (Throwable ex) {
+						log.error("Broadcast failed:", ex);
+					} finally {
+						synchronized (dispatchLock) {
+							for (AGwtConversation conversation : targets) {
+								int count = pendingCountsByConversation.get(conversation);
+								if (count > 1) {
+									pendingCountsByConversation.put(conversation, count - 1);
+								} else {
+									pendingCountsByConversation.remove(conversation);
+								}
+							}
+							dispatchLock.notifyAll();
+						}
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Conversations check visibility and filter properties while receiving, which reads entities. Without an
+	 * explicit transaction the dispatcher thread would implicitly bind a read-only transaction which is never
+	 * finished. Singleton transaction managers share their transaction with all threads, it must not be
+	 * committed here.
+	 */
+	private static void runInTransaction(Runnable runnable) {
+		if (!(Persistence.transactionManager instanceof AThreadlocalTransactionManager)) {
+			runnable.run();
+			return;
+		}
+		Persistence.runInTransaction(GwtConversationBroadcaster.class.getSimpleName(), runnable);
+	}
+
+	/**
+	 * Waits until the broadcasts to the given conversation have reached it. Broadcasts to other conversations are
+	 * not waited for.
+	 */
+	public void awaitDispatched(AGwtConversation conversation) {
+		synchronized (dispatchLock) {
+			long deadline = System.currentTimeMillis() + MAX_AWAIT_MILLIS;
+			while (pendingCountsByConversation.containsKey(conversation)) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					log.warn("Waiting for broadcasts to", conversation, "timed out:",
+						pendingCountsByConversation.get(conversation), "pending");
+					return;
+				}
+				try {
+					dispatchLock.wait(remaining);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	public void shutdown() {
+		synchronized (dispatchLock) {
+			if (dispatcher == null) return;
+			dispatcher.shutdown();
+			dispatcher = null;
+		}
+	}
+
+	static class EntityData {
+
+		final Entity entity;
+		final Long modificationTime;
+		final Map<String, String> properties;
+
+		EntityData(Entity entity) {
+			super();
+			this.entity = entity;
+			this.modificationTime = entity.getModificationTime();
+			this.properties = entity.createPropertiesMap();
+		}
+
+	}
+
+	private static class Broadcast {
+
+		private Entity entity;
+		private List<EntityData> passengers;
+		private Collection<AGwtConversation> targets;
+
+		public Broadcast(Entity entity, List<EntityData> passengers, Collection<AGwtConversation> targets) {
+			super();
+			this.entity = entity;
+			this.passengers = passengers;
+			this.targets = targets;
+		}
+
+		public void run() {
+			for (AGwtConversation conversation : targets) {
+				try {
+					if (passengers == null) {
+						conversation.deleteFromClient(entity.getId());
+					} else {
+						conversation.receiveBroadcast(entity, passengers);
+					}
+				} catch (Throwable ex) {
+					log.error("Sending", entity, "to", conversation, "failed:", ex);
+				}
+			}
+		}
+
+	}
+
+}
@@ -305,6 +305,13 @@ public abstract class IO {
 		} catch (IOException ex) {}
 	}
 
+	public static void closeQuiet(RandomAccessFile file) {
+		if (file == null) return;
+		try {
+			file.close();
+		} catch (IOException ex) {}
+	}
+
 	public static void closeQuiet(Socket socket) {
 		if (socket == null) return;
 		try {
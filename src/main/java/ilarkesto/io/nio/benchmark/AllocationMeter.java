@@ -0,0 +1,66 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io.nio.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collection;
+
+/**
+ * Measures bytes allocated by a set of threads. Requires a JVM which supports
+ * <code>com.sun.management.ThreadMXBean</code>, otherwise nothing is measured.
+ */
+public class AllocationMeter {
+
+	private final long[] threadIds;
+	private long startBytes;
+
+	public AllocationMeter(Collection<Thread> threads) {
+		threadIds = new long[threads.size()];
+		int i = 0;
+		for (Thread thread : threads) {
+			threadIds[i++] = thread.getId();
+		}
+	}
+
+	public static boolean isSupported() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		return bean instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported();
+	}
+
+	public void start() {
+		startBytes = getAllocatedBytes();
+	}
+
+	/**
+	 * @return Bytes allocated since <code>start()</code>.
+	 */
+	public long getAllocatedBytesSinceStart() {
+		return getAllocatedBytes() - startBytes;
+	}
+
+	private long getAllocatedBytes() {
+		if (!isSupported()) return 0;
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long sum = 0;
+		for (long id : threadIds) {
+			long bytes = bean.getThreadAllocatedBytes(id);
+			if (bytes > 0) sum += bytes;
+		}
+		return sum;
+	}
+
+}
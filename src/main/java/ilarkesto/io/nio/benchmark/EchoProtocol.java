@@ -12,23 +12,38 @@
  * You should have received a copy of the GNU General Public License along with this program. If not, see
  * <http://www.gnu.org/licenses/>.
  */
-package ilarkesto.io.nio.tcpserver;
+package ilarkesto.io.nio.benchmark;
 
-import java.nio.channels.SocketChannel;
+import java.nio.ByteBuffer;
 
-public class ChangeRequest {
+/**
+ * Sends a fixed payload and expects the same number of bytes back.
+ */
+public class EchoProtocol implements LoadGenerator.Protocol {
+
+	private final int payloadSize;
+
+	public EchoProtocol(int payloadSize) {
+		this.payloadSize = payloadSize;
+	}
 
-	public static final int REGISTER = 1;
-	public static final int CHANGEOPS = 2;
+	@Override
+	public byte[] createRequest() {
+		byte[] request = new byte[payloadSize];
+		for (int i = 0; i < payloadSize; i++) {
+			request[i] = (byte) ('a' + i % 26);
+		}
+		return request;
+	}
 
-	public SocketChannel socket;
-	public int type;
-	public int ops;
+	@Override
+	public int getResponseLength(ByteBuffer buffer) {
+		return buffer.remaining() >= payloadSize ? payloadSize : -1;
+	}
 
-	public ChangeRequest(SocketChannel socket, int type, int ops) {
-		this.socket = socket;
-		this.type = type;
-		this.ops = ops;
+	@Override
+	public String toString() {
+		return "echo " + payloadSize + " bytes";
 	}
 
 }
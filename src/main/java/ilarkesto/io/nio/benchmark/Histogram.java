@@ -0,0 +1,100 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io.nio.benchmark;
+
+/**
+ * Latency histogram with about 1% precision. Values are recorded in microseconds. Not thread safe, use one per
+ * thread and merge them.
+ */
+public class Histogram {
+
+	private static final int LINEAR_BUCKETS = 1024;
+	private static final int SUB_BUCKET_BITS = 7;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private long[] counts = new long[LINEAR_BUCKETS + (64 - 10) * SUB_BUCKETS];
+	private long count;
+	private long sum;
+	private long max;
+
+	public void recordNanos(long nanos) {
+		record(nanos / 1000);
+	}
+
+	public void record(long micros) {
+		if (micros < 0) micros = 0;
+		counts[getIndex(micros)]++;
+		count++;
+		sum += micros;
+		if (micros > max) max = micros;
+	}
+
+	private static int getIndex(long value) {
+		if (value < LINEAR_BUCKETS) return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return LINEAR_BUCKETS + (exponent - 10) * SUB_BUCKETS + subBucket;
+	}
+
+	private static long getValue(int index) {
+		if (index < LINEAR_BUCKETS) return index;
+		int exponent = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 10;
+		int subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+		return (1L << exponent) + ((long) subBucket << (exponent - SUB_BUCKET_BITS));
+	}
+
+	public void merge(Histogram other) {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] += other.counts[i];
+		}
+		count += other.count;
+		sum += other.sum;
+		if (other.max > max) max = other.max;
+	}
+
+	/**
+	 * @param percentile 0 to 100
+	 */
+	public long getPercentile(double percentile) {
+		if (count == 0) return 0;
+		long limit = (long) Math.ceil(count * percentile / 100);
+		if (limit < 1) limit = 1;
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= limit) return Math.min(getValue(i), max);
+		}
+		return max;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getMean() {
+		return count == 0 ? 0 : sum / count;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return "p50: " + getPercentile(50) + " us, p99: " + getPercentile(99) + " us, p99.9: "
+				+ getPercentile(99.9) + " us, max: " + max + " us, mean: " + getMean() + " us";
+	}
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io.nio.benchmark;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sends keep-alive GET requests and parses just enough of the response to find its end. Responses must have a
+ * <code>Content-Length</code> header.
+ */
+public class HttpProtocol implements LoadGenerator.Protocol {
+
+	private static final byte[] CONTENT_LENGTH = "content-length:".getBytes();
+
+	private final String host;
+	private final String uri;
+
+	public HttpProtocol(String host, String uri) {
+		this.host = host;
+		this.uri = uri;
+	}
+
+	@Override
+	public byte[] createRequest() {
+		return ("GET " + uri + " HTTP/1.1\r\nHost: " + host + "\r\nUser-Agent: " + LoadGenerator.class.getSimpleName()
+				+ "\r\nAccept: */*\r\n\r\n").getBytes();
+	}
+
+	@Override
+	public int getResponseLength(ByteBuffer buffer) {
+		int start = buffer.position();
+		int limit = buffer.limit();
+		int contentLength = 0;
+		int lineStart = start;
+		for (int i = start; i < limit; i++) {
+			if (buffer.get(i) != '\n') continue;
+			int lineLength = i - lineStart;
+			if (lineLength <= 1) {
+				int length = i + 1 - start + contentLength;
+				return buffer.remaining() >= length ? length : -1;
+			}
+			if (startsWithIgnoreCase(buffer, lineStart, CONTENT_LENGTH)) {
+				contentLength = parseNumber(buffer, lineStart + CONTENT_LENGTH.length, i);
+			}
+			lineStart = i + 1;
+		}
+		return -1;
+	}
+
+	private static boolean startsWithIgnoreCase(ByteBuffer buffer, int offset, byte[] prefix) {
+		if (buffer.limit() - offset < prefix.length) return false;
+		for (int i = 0; i < prefix.length; i++) {
+			int b = buffer.get(offset + i);
+			if (b >= 'A' && b <= 'Z') b += 'a' - 'A';
+			if (b != prefix[i]) return false;
+		}
+		return true;
+	}
+
+	private static int parseNumber(ByteBuffer buffer, int from, int to) {
+		int value = 0;
+		for (int i = from; i < to; i++) {
+			byte b = buffer.get(i);
+			if (b >= '0' && b <= '9') value = value * 10 + b - '0';
+		}
+		return value;
+	}
+
+	@Override
+	public String toString() {
+		return "http GET " + uri;
+	}
+
+}
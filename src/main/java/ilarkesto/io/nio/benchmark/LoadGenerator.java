@@ -0,0 +1,321 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io.nio.benchmark;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Closed loop load generator. Drives a number of concurrent connections from a few client threads, each
+ * connection sending its next request as soon as a response arrives. With a pipeline depth greater than one
+ * several requests are kept in flight per connection.
+ */
+public class LoadGenerator {
+
+	private final String host;
+	private final int port;
+	private final Protocol protocol;
+
+	private int connectionCount = 100;
+	private int threadCount = 2;
+	private int pipelineDepth = 1;
+	private long warmupMillis = 2000;
+	private long durationMillis = 10000;
+	private AllocationMeter allocationMeter;
+
+	private volatile boolean measuring;
+	private volatile boolean stopRequested;
+
+	public LoadGenerator(String host, int port, Protocol protocol) {
+		this.host = host;
+		this.port = port;
+		this.protocol = protocol;
+	}
+
+	public Result run() throws IOException, InterruptedException {
+		measuring = false;
+		stopRequested = false;
+
+		List<ClientThread> threads = new ArrayList<ClientThread>(threadCount);
+		for (int i = 0; i < threadCount; i++) {
+			int connections = connectionCount / threadCount + (i < connectionCount % threadCount ? 1 : 0);
+			if (connections == 0) continue;
+			ClientThread thread = new ClientThread(i, connections);
+			thread.connect();
+			threads.add(thread);
+		}
+		for (ClientThread thread : threads) {
+			thread.start();
+		}
+
+		Thread.sleep(warmupMillis);
+		if (allocationMeter != null) allocationMeter.start();
+		measuring = true;
+		long start = System.nanoTime();
+		Thread.sleep(durationMillis);
+		measuring = false;
+		long elapsed = System.nanoTime() - start;
+		stopRequested = true;
+
+		Result result = new Result(elapsed);
+		if (allocationMeter != null) result.allocatedBytes = allocationMeter.getAllocatedBytesSinceStart();
+		for (ClientThread thread : threads) {
+			thread.join();
+			if (thread.error != null) throw new IOException("Client thread failed: " + thread.getName(), thread.error);
+			result.histogram.merge(thread.histogram);
+			result.errors += thread.errors;
+		}
+		return result;
+	}
+
+	/**
+	 * Measures allocations during the measured period, typically of the server threads.
+	 */
+	public LoadGenerator setAllocationMeter(AllocationMeter allocationMeter) {
+		this.allocationMeter = allocationMeter;
+		return this;
+	}
+
+	public LoadGenerator setConnectionCount(int connectionCount) {
+		this.connectionCount = connectionCount;
+		return this;
+	}
+
+	public LoadGenerator setThreadCount(int threadCount) {
+		this.threadCount = threadCount;
+		return this;
+	}
+
+	public LoadGenerator setPipelineDepth(int pipelineDepth) {
+		this.pipelineDepth = pipelineDepth;
+		return this;
+	}
+
+	public LoadGenerator setWarmupMillis(long warmupMillis) {
+		this.warmupMillis = warmupMillis;
+		return this;
+	}
+
+	public LoadGenerator setDurationMillis(long durationMillis) {
+		this.durationMillis = durationMillis;
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		return protocol + " -> " + host + ":" + port + " (" + connectionCount + " connections, " + threadCount
+				+ " threads, pipeline depth " + pipelineDepth + ")";
+	}
+
+	/**
+	 * Creates requests and detects the end of responses.
+	 */
+	public static interface Protocol {
+
+		byte[] createRequest();
+
+		/**
+		 * @return Length of the complete response at the position of the buffer or -1 if more data is needed.
+		 */
+		int getResponseLength(ByteBuffer buffer);
+
+	}
+
+	public static class Result {
+
+		private final long elapsedNanos;
+		private final Histogram histogram = new Histogram();
+		private long errors;
+		private long allocatedBytes = -1;
+
+		private Result(long elapsedNanos) {
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		public long getRequests() {
+			return histogram.getCount();
+		}
+
+		public double getRequestsPerSecond() {
+			return histogram.getCount() * 1000000000d / elapsedNanos;
+		}
+
+		public Histogram getHistogram() {
+			return histogram;
+		}
+
+		public long getErrors() {
+			return errors;
+		}
+
+		public long getElapsedNanos() {
+			return elapsedNanos;
+		}
+
+		/**
+		 * @return Bytes allocated during the measured period or -1 if not measured.
+		 */
+		public long getAllocatedBytes() {
+			return allocatedBytes;
+		}
+
+		/**
+		 * @return Megabytes allocated per second or -1 if not measured.
+		 */
+		public double getAllocationRate() {
+			if (allocatedBytes < 0) return -1;
+			return allocatedBytes * 1000d / elapsedNanos;
+		}
+
+		public long getAllocatedBytesPerRequest() {
+			if (allocatedBytes < 0 || histogram.getCount() == 0) return -1;
+			return allocatedBytes / histogram.getCount();
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append((long) getRequestsPerSecond()).append(" req/s, ").append(histogram);
+			if (allocatedBytes >= 0) {
+				sb.append(", allocations: ").append((long) getAllocationRate()).append(" MB/s, ")
+						.append(getAllocatedBytesPerRequest()).append(" bytes/request");
+			}
+			if (errors > 0) sb.append(", errors: ").append(errors);
+			return sb.toString();
+		}
+
+	}
+
+	private class ClientThread extends Thread {
+
+		private final int connectionCount;
+		private final Histogram histogram = new Histogram();
+		private final byte[] request = protocol.createRequest();
+		private Selector selector;
+		private long errors;
+		private Exception error;
+
+		public ClientThread(int index, int connectionCount) {
+			super(LoadGenerator.class.getSimpleName() + "-" + index);
+			this.connectionCount = connectionCount;
+			setDaemon(true);
+		}
+
+		void connect() throws IOException {
+			selector = Selector.open();
+			for (int i = 0; i < connectionCount; i++) {
+				SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+				channel.socket().setTcpNoDelay(true);
+				channel.configureBlocking(false);
+				channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				for (SelectionKey key : selector.keys()) {
+					Connection connection = (Connection) key.attachment();
+					for (int i = 0; i < pipelineDepth; i++) {
+						connection.send();
+					}
+				}
+				while (!stopRequested) {
+					if (selector.select(100) == 0) continue;
+					Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+					while (iterator.hasNext()) {
+						SelectionKey key = iterator.next();
+						iterator.remove();
+						Connection connection = (Connection) key.attachment();
+						if (key.isValid() && key.isReadable()) connection.read(key);
+					}
+				}
+			} catch (Exception ex) {
+				error = ex;
+			} finally {
+				for (SelectionKey key : selector.keys()) {
+					try {
+						key.channel().close();
+					} catch (IOException ex) {
+						// nop
+					}
+				}
+				try {
+					selector.close();
+				} catch (IOException ex) {
+					// nop
+				}
+			}
+		}
+
+		private class Connection {
+
+			private final SocketChannel channel;
+			private final ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+			private final ByteBuffer out = ByteBuffer.allocate(request.length);
+			private final long[] sendTimes = new long[pipelineDepth];
+			private int sendTimesHead;
+			private int sendTimesTail;
+
+			public Connection(SocketChannel channel) {
+				this.channel = channel;
+			}
+
+			void send() throws IOException {
+				sendTimes[sendTimesTail] = System.nanoTime();
+				sendTimesTail = (sendTimesTail + 1) % sendTimes.length;
+				out.clear();
+				out.put(request);
+				out.flip();
+				// requests are small, spinning on a full socket buffer is acceptable for a load generator
+				while (out.hasRemaining()) {
+					channel.write(out);
+				}
+			}
+
+			void read(SelectionKey key) throws IOException {
+				int count = channel.read(in);
+				if (count < 0) {
+					errors++;
+					key.cancel();
+					channel.close();
+					return;
+				}
+				in.flip();
+				while (true) {
+					int length = protocol.getResponseLength(in);
+					if (length < 0) break;
+					in.position(in.position() + length);
+					long latency = System.nanoTime() - sendTimes[sendTimesHead];
+					sendTimesHead = (sendTimesHead + 1) % sendTimes.length;
+					if (measuring) histogram.recordNanos(latency);
+					if (!stopRequested) send();
+				}
+				in.compact();
+				if (!in.hasRemaining()) throw new IOException("Response exceeds " + in.capacity() + " bytes");
+			}
+
+		}
+
+	}
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io.nio.benchmark;
+
+import ilarkesto.concurrent.TaskManager;
+import ilarkesto.core.logging.Log;
+import ilarkesto.di.Context;
+import ilarkesto.io.nio.httpserver.HttpRequest;
+import ilarkesto.io.nio.httpserver.HttpRequestHandler;
+import ilarkesto.io.nio.httpserver.HttpServer;
+import ilarkesto.io.nio.httpserver.HttpStatusCode;
+import ilarkesto.io.nio.tcpserver.EchoDataHandler;
+import ilarkesto.io.nio.tcpserver.TcpServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+/**
+ * Runs the embedded <code>TcpServer</code> and <code>HttpServer</code> on loopback and drives them with a
+ * <code>LoadGenerator</code> in the same JVM. Reports requests per second, latency percentiles and the
+ * allocation rate of the server threads.
+ * 
+ * <pre>
+ * ServerBenchmark [connections] [seconds] [selectors] [workers] [clientThreads]
+ * </pre>
+ * 
+ * The pipelined run on a single connection stresses request parsing and response encoding rather than the
+ * selector.
+ */
+public class ServerBenchmark {
+
+	private static final String HOST = "127.0.0.1";
+
+	private int connectionCount = 100;
+	private int seconds = 10;
+	private int selectorCount = 2;
+	private int workerCount = Runtime.getRuntime().availableProcessors();
+	private int clientThreadCount = 2;
+
+	private TaskManager taskManager = new TaskManager();
+
+	public static void main(String[] args) throws Exception {
+		ServerBenchmark benchmark = new ServerBenchmark();
+		if (args.length > 0) benchmark.connectionCount = Integer.parseInt(args[0]);
+		if (args.length > 1) benchmark.seconds = Integer.parseInt(args[1]);
+		if (args.length > 2) benchmark.selectorCount = Integer.parseInt(args[2]);
+		if (args.length > 3) benchmark.workerCount = Integer.parseInt(args[3]);
+		if (args.length > 4) benchmark.clientThreadCount = Integer.parseInt(args[4]);
+
+		Log.setDebugEnabled(false);
+		try {
+			Context.getRootContext();
+		} catch (RuntimeException ex) {
+			Context.createRootContext(ServerBenchmark.class.getSimpleName());
+		}
+
+		benchmark.runEcho(64);
+		benchmark.runEcho(4096);
+		benchmark.runHttp();
+		benchmark.taskManager.shutdown(1000);
+	}
+
+	public void runEcho(int payloadSize) throws IOException, InterruptedException {
+		TcpServer server = new TcpServer(getFreePort(), new EchoDataHandler(), selectorCount, workerCount);
+		server.start(taskManager);
+		try {
+			waitForServer(server);
+			run(server, new LoadGenerator(HOST, server.getPort(), new EchoProtocol(payloadSize)), 1);
+		} finally {
+			server.stop();
+		}
+	}
+
+	public void runHttp() throws IOException, InterruptedException {
+		HttpServer server = new HttpServer(getFreePort(), ServerBenchmark.class.getSimpleName(), selectorCount,
+				workerCount);
+		server.addHandler("/hello", new HttpRequestHandler() {
+
+			@Override
+			public boolean onHttpRequest(HttpRequest request) {
+				request.sendText(HttpStatusCode.OK, "Hello World");
+				return true;
+			}
+		});
+		server.start(taskManager);
+		try {
+			TcpServer tcpServer = server.getTcpServer();
+			waitForServer(tcpServer);
+			HttpProtocol protocol = new HttpProtocol(HOST, "/hello");
+			run(tcpServer, new LoadGenerator(HOST, tcpServer.getPort(), protocol), 1);
+			run(tcpServer, new LoadGenerator(HOST, tcpServer.getPort(), protocol), 16);
+		} finally {
+			server.stop();
+		}
+	}
+
+	private void run(TcpServer server, LoadGenerator generator, int pipelineDepth) throws IOException,
+			InterruptedException {
+		if (pipelineDepth > 1) {
+			generator.setConnectionCount(1).setThreadCount(1);
+		} else {
+			generator.setConnectionCount(connectionCount).setThreadCount(clientThreadCount);
+		}
+		generator.setPipelineDepth(pipelineDepth).setDurationMillis(seconds * 1000L)
+				.setWarmupMillis(Math.min(5000, seconds * 1000L / 2));
+
+		if (AllocationMeter.isSupported()) generator.setAllocationMeter(new AllocationMeter(server.getThreads()));
+
+		System.out.println(generator);
+		System.out.println("  server: " + server.getSelectorCount() + " selectors, " + server.getWorkerCount()
+				+ " workers");
+		System.out.println("  " + generator.run());
+		System.out.println("  " + server.getStatistics());
+	}
+
+	private static void waitForServer(TcpServer server) throws InterruptedException {
+		long timeout = System.currentTimeMillis() + 5000;
+		while (server.getThreads().size() < server.getSelectorCount() + server.getWorkerCount()) {
+			if (System.currentTimeMillis() > timeout) throw new IllegalStateException("Server not started: " + server);
+			Thread.sleep(10);
+		}
+		Thread.sleep(100);
+	}
+
+	private static int getFreePort() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+
+}
@@ -19,19 +19,40 @@ import ilarkesto.io.nio.tcpserver.DataHandler;
 import ilarkesto.io.nio.tcpserver.ServerDataEvent;
 import ilarkesto.io.nio.tcpserver.TcpConnection;
 
+import java.nio.ByteBuffer;
+
+/**
+ * Parses the requests of one connection incrementally from the received bytes. Multiple requests in one packet
+ * (pipelining) and requests spread over many packets are supported, as are request bodies with
+ * <code>Content-Length</code> or chunked <code>Transfer-Encoding</code>.
+ */
 public class HttpDataHandler implements DataHandler {
 
 	private static Log log = Log.get(HttpDataHandler.class);
 
-	private static final String CRLF = "\r\n";
+	private static final int MAX_LINE_LENGTH = 8192;
+	private static final int MAX_HEADER_LINES = 100;
 
-	private HttpServer server;
+	private static final byte[] CONTINUE_RESPONSE = (HttpRequest.PROTOCOL_VERSION + " 100 Continue\r\n\r\n")
+			.getBytes(HttpRequest.ISO_8859_1);
+
+	private static enum State {
+		START_LINE, HEADER, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_DATA_END, TRAILER, CLOSED
+	}
 
-	private ServerDataEvent event;
+	private HttpServer server;
+	private TcpConnection connection;
 
+	private State state = State.START_LINE;
 	private HttpRequest request;
-	private boolean startLineDone;
-	private boolean headerDone;
+	private int headerLines;
+
+	private byte[] line = new byte[256];
+	private int lineLength;
+
+	private byte[] body;
+	private int bodyLength;
+	private long remaining;
 
 	public HttpDataHandler(HttpServer server) {
 		super();
@@ -40,86 +61,138 @@ public class HttpDataHandler implements DataHandler {
 
 	@Override
 	public void onDataReceived(ServerDataEvent event) {
-		this.event = event;
-
-		if (request == null) {
-			request = new HttpRequest(event.getConnection());
-			request.setResponseHeaderServer(server.getName());
-		}
-
+		if (state == State.CLOSED) return;
+		connection = event.getConnection();
 		try {
-			processEvent(event);
+			processData(connection, event.getBuffer());
 		} catch (Throwable ex) {
-			log.error("Processing request failed:", request.getUri() == null ? event.getConnection() : request, ex);
-			request.sendEmptyResponse(HttpStatusCode.INTERNAL_SERVER_ERROR, null);
+			log.error("Processing request failed:", request == null ? event.getConnection() : request, ex);
+			fail(HttpStatusCode.INTERNAL_SERVER_ERROR, null);
 		}
 	}
 
-	private void processEvent(ServerDataEvent event) {
-		byte[] data = event.getData();
-
-		if (headerDone) {
-			onBodyData(data);
-			return;
+	private void processData(TcpConnection connection, ByteBuffer data) {
+		while (data.hasRemaining() && state != State.CLOSED) {
+			switch (state) {
+				case BODY:
+				case CHUNK_DATA:
+					int count = (int) Math.min(remaining, data.remaining());
+					appendBody(data, count);
+					remaining -= count;
+					if (remaining > 0) break;
+					if (state == State.BODY) {
+						onRequestComplete();
+					} else {
+						state = State.CHUNK_DATA_END;
+					}
+					break;
+				default:
+					if (!readLine(data)) return;
+					onLineReceived(connection);
+			}
 		}
+	}
 
-		String s = new String(data);
-
-		int from = 0;
-		int idx = s.indexOf(CRLF);
-		while (idx >= 0) {
-			String line = s.substring(from, idx);
-			onLineReceived(line);
-			if (headerDone) {
-				int len = data.length - idx;
-				byte[] remainingData = new byte[len];
-				System.arraycopy(data, idx, remainingData, 0, len);
-				onBodyData(remainingData);
-				return;
+	/**
+	 * @return <code>true</code> if a complete line is in <code>line</code>
+	 */
+	private boolean readLine(ByteBuffer data) {
+		while (data.hasRemaining()) {
+			byte b = data.get();
+			if (b == '\n') {
+				if (lineLength > 0 && line[lineLength - 1] == '\r') lineLength--;
+				return true;
 			}
-			from = idx + 2;
-			idx = s.indexOf(CRLF, from);
+			if (lineLength == line.length) {
+				if (lineLength >= MAX_LINE_LENGTH) {
+					fail(HttpStatusCode.REQUEST_HEADER_FIELDS_TOO_LARGE, "Line too long");
+					return false;
+				}
+				byte[] newLine = new byte[line.length * 2];
+				System.arraycopy(line, 0, newLine, 0, lineLength);
+				line = newLine;
+			}
+			line[lineLength++] = b;
 		}
+		return false;
 	}
 
-	private void onBodyData(byte[] data) {}
+	private void onLineReceived(TcpConnection connection) {
+		String s = new String(line, 0, lineLength, HttpRequest.ISO_8859_1);
+		lineLength = 0;
+		switch (state) {
+			case START_LINE:
+				// empty lines before the start line are ignored
+				if (s.length() == 0) return;
+				request = new HttpRequest(connection);
+				request.setResponseHeaderServer(server.getName());
+				parseStartLine(s);
+				return;
+			case HEADER:
+				if (s.length() == 0) {
+					onHeaderDone(connection);
+					return;
+				}
+				if (++headerLines > MAX_HEADER_LINES) {
+					fail(HttpStatusCode.REQUEST_HEADER_FIELDS_TOO_LARGE, "Too many header lines");
+					return;
+				}
+				parseHeaderLine(s);
+				return;
+			case CHUNK_SIZE:
+				parseChunkSize(s);
+				return;
+			case CHUNK_DATA_END:
+				if (s.length() > 0) {
+					fail(HttpStatusCode.BAD_REQUEST, "Invalid chunk end");
+					return;
+				}
+				state = State.CHUNK_SIZE;
+				return;
+			case TRAILER:
+				if (s.length() == 0) onRequestComplete();
+				return;
+			default:
+				throw new IllegalStateException(state.name());
+		}
+	}
 
-	private void onLineReceived(String line) {
-		if (!startLineDone) {
-			parseStartLine(line);
+	private void parseStartLine(String line) {
+		int methodIdx = line.indexOf(' ');
+		if (methodIdx <= 0) {
+			fail(HttpStatusCode.BAD_REQUEST, "Invalid start line: " + line);
 			return;
 		}
-
-		if (line.length() == 0) {
-			headerDone = true;
-			onHeaderDone();
+		String methodName = line.substring(0, methodIdx);
+		HttpMethod method;
+		try {
+			method = HttpMethod.valueOf(methodName);
+		} catch (IllegalArgumentException ex) {
+			fail(HttpStatusCode.NOT_IMPLEMENTED, "Unknown method: " + methodName);
 			return;
 		}
+		request.setMethod(method);
 
-		parseHeaderLine(line);
-	}
+		int versionIdx = line.indexOf(' ', methodIdx + 1);
+		String uri = versionIdx > 0 ? line.substring(methodIdx + 1, versionIdx) : line.substring(methodIdx + 1);
+		String version = versionIdx > 0 ? line.substring(versionIdx + 1) : "HTTP/1.0";
+		if (uri.length() == 0 || !version.startsWith("HTTP/1.")) {
+			fail(HttpStatusCode.BAD_REQUEST, "Invalid start line: " + line);
+			return;
+		}
 
-	private void onHeaderDone() {
-		if (!checkHeaders()) return;
-		server.onHttpRequest(request);
-	}
+		request.setUri(uri);
+		request.setVersion(version);
+		state = State.HEADER;
+		headerLines = 0;
 
-	private boolean checkHeaders() {
-		if (request.getHeaderContentLenght() != null) {
-			request.sendEmptyResponse(HttpStatusCode.NOT_IMPLEMENTED, "Content-Length");
-			return false;
-		}
-		if (request.getHeaderTransferEncoding() != null) {
-			request.sendEmptyResponse(HttpStatusCode.NOT_IMPLEMENTED, "Transfer-Encoding");
-			return false;
-		}
-		return true;
+		log.debug(request);
 	}
 
 	private void parseHeaderLine(String line) {
-		int idx = line.indexOf(":");
+		int idx = line.indexOf(':');
 		if (idx <= 0) {
-			request.sendEmptyResponse(HttpStatusCode.BAD_REQUEST, "Invalid header line: " + line);
+			fail(HttpStatusCode.BAD_REQUEST, "Invalid header line: " + line);
 			return;
 		}
 		String name = line.substring(0, idx);
@@ -127,44 +200,130 @@ public class HttpDataHandler implements DataHandler {
 		request.setHeader(name, value);
 	}
 
-	private void parseStartLine(String line) {
-		if (startLineDone) throw new IllegalStateException("Start line already parsed");
-		startLineDone = true;
-		for (HttpMethod m : HttpMethod.values()) {
-			if (line.startsWith(m.name())) {
-				request.setMethod(m);
-				break;
+	private void onHeaderDone(TcpConnection connection) {
+		request.initKeepAlive();
+
+		String transferEncoding = request.getHeaderTransferEncoding();
+		if (transferEncoding != null && !"identity".equalsIgnoreCase(transferEncoding)) {
+			if (!transferEncoding.toLowerCase().endsWith("chunked")) {
+				fail(HttpStatusCode.NOT_IMPLEMENTED, "Transfer-Encoding: " + transferEncoding);
+				return;
 			}
-		}
-		if (request.getMethod() == null) {
-			int idx = line.indexOf(' ');
-			String methodName = idx > 0 ? line.substring(0, idx) : line;
-			request.sendEmptyResponse(HttpStatusCode.BAD_REQUEST, "Unknown method: " + methodName);
+			sendContinueIfExpected(connection);
+			state = State.CHUNK_SIZE;
 			return;
 		}
 
-		int pathIdx = request.getMethod().name().length() + 1;
-		if (pathIdx >= line.length()) {
-			request.sendEmptyResponse(HttpStatusCode.BAD_REQUEST, "Invalid start line: " + line);
+		Long contentLength;
+		try {
+			contentLength = request.getHeaderContentLength();
+		} catch (NumberFormatException ex) {
+			fail(HttpStatusCode.BAD_REQUEST, "Invalid Content-Length");
 			return;
 		}
+		if (contentLength == null || contentLength.longValue() == 0) {
+			onRequestComplete();
+			return;
+		}
+		if (contentLength.longValue() < 0 || contentLength.longValue() > server.getMaxRequestBodySize()) {
+			fail(HttpStatusCode.REQUEST_ENTITY_TOO_LARGE, null);
+			return;
+		}
+		body = new byte[contentLength.intValue()];
+		remaining = contentLength.longValue();
+		sendContinueIfExpected(connection);
+		state = State.BODY;
+	}
 
-		int versionIdx = line.indexOf(' ', pathIdx);
-		if (versionIdx > 0 && versionIdx + 1 >= line.length()) {
-			request.sendEmptyResponse(HttpStatusCode.BAD_REQUEST, "Invalid start line: " + line);
+	private void sendContinueIfExpected(TcpConnection connection) {
+		String expect = request.getHeader("Expect");
+		if (expect != null && expect.equalsIgnoreCase("100-continue")) connection.sendData(CONTINUE_RESPONSE);
+	}
+
+	private void parseChunkSize(String line) {
+		int idx = line.indexOf(';');
+		String hex = (idx < 0 ? line : line.substring(0, idx)).trim();
+		long size;
+		try {
+			size = Long.parseLong(hex, 16);
+		} catch (NumberFormatException ex) {
+			fail(HttpStatusCode.BAD_REQUEST, "Invalid chunk size: " + hex);
+			return;
+		}
+		if (size == 0) {
+			state = State.TRAILER;
 			return;
 		}
+		if (size < 0 || bodyLength + size > server.getMaxRequestBodySize()) {
+			fail(HttpStatusCode.REQUEST_ENTITY_TOO_LARGE, null);
+			return;
+		}
+		remaining = size;
+		state = State.CHUNK_DATA;
+	}
 
-		String uri = versionIdx > 0 ? line.substring(pathIdx, versionIdx) : line.substring(pathIdx);
-		String version = versionIdx > 0 ? line.substring(versionIdx + 1) : null;
+	private void appendBody(ByteBuffer data, int count) {
+		if (body == null) body = new byte[Math.max(count, 1024)];
+		if (bodyLength + count > body.length) {
+			byte[] newBody = new byte[Math.max(bodyLength + count, body.length * 2)];
+			System.arraycopy(body, 0, newBody, 0, bodyLength);
+			body = newBody;
+		}
+		data.get(body, bodyLength, count);
+		bodyLength += count;
+	}
 
-		request.setUri(uri);
-		request.setVersion(version);
+	private void onRequestComplete() {
+		HttpRequest completedRequest = request;
+		if (body != null) {
+			if (body.length != bodyLength) {
+				byte[] b = new byte[bodyLength];
+				System.arraycopy(body, 0, b, 0, bodyLength);
+				body = b;
+			}
+			completedRequest.setBody(body);
+		}
+		request = null;
+		body = null;
+		bodyLength = 0;
+		state = State.START_LINE;
 
-		log.debug(request);
+		try {
+			server.onHttpRequest(completedRequest);
+		} catch (Throwable ex) {
+			log.error("Processing request failed:", completedRequest, ex);
+			request = completedRequest;
+			fail(HttpStatusCode.INTERNAL_SERVER_ERROR, null);
+			return;
+		}
+
+		if (!completedRequest.isResponseFinished()) {
+			if (completedRequest.isResponseHeadersSent()) {
+				completedRequest.finishResponse();
+			} else {
+				log.error("Request not answered:", completedRequest);
+				completedRequest.setKeepAlive(false);
+				completedRequest.sendEmptyResponse(HttpStatusCode.INTERNAL_SERVER_ERROR);
+			}
+		}
+		if (!completedRequest.isKeepAlive()) state = State.CLOSED;
+	}
+
+	private void fail(HttpStatusCode code, String message) {
+		state = State.CLOSED;
+		if (connection.isClosed()) return;
+		if (request == null) request = new HttpRequest(connection);
+		if (request.isResponseHeadersSent()) {
+			connection.close();
+			return;
+		}
+		request.setKeepAlive(false);
+		request.sendEmptyResponse(code, message);
 	}
 
 	@Override
-	public void onConnectionClosed(TcpConnection connection) {}
+	public void onConnectionClosed(TcpConnection connection) {
+		state = State.CLOSED;
+	}
 
 }
@@ -18,25 +18,50 @@ import ilarkesto.core.base.Str;
 import ilarkesto.core.logging.Log;
 import ilarkesto.io.nio.tcpserver.TcpConnection;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
+/**
+ * A request and its response. Responses have to be sent synchronously while the request is processed, so
+ * pipelined requests on the same connection are answered in order.
+ */
 public class HttpRequest<S> {
 
 	static String SERVER = "Ilarkesto/1.1";
 	static final String PROTOCOL_VERSION = "HTTP/1.1";
 
+	static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+
 	private static Log log = Log.get(HttpRequest.class);
 
+	private HttpServer<S> server;
 	private HttpMethod method;
 	private String uri;
 	private String version;
 	private TcpConnection connection;
 	private Map<String, String> headers = new HashMap<String, String>();
+	private byte[] body;
+	private Map<String, String> parameters;
+	private Map<String, String> cookies;
+	private boolean keepAlive = true;
 
 	private String responseStatusLine;
-	private Map<String, String> responseHeaders = new HashMap<String, String>();
+	private Map<String, String> responseHeaders = new LinkedHashMap<String, String>();
+	private List<String> responseCookies;
 	private boolean responseHeadersSent;
+	private boolean responseFinished;
+	private boolean responseBodyOmitted;
 
 	private HttpSession<S> session;
 
@@ -45,11 +70,24 @@ public class HttpRequest<S> {
 		this.connection = connection;
 	}
 
+	void setServer(HttpServer<S> server) {
+		this.server = server;
+	}
+
 	void setSession(HttpSession<S> session) {
 		this.session = session;
 	}
 
+	/**
+	 * Returns the session of the request, creating a new one if the request has none. Must be called before
+	 * sending the response headers when creating a session.
+	 */
 	public HttpSession<S> getSession() {
+		if (session == null && server != null) session = server.createSession(this);
+		return session;
+	}
+
+	public HttpSession<S> getSessionIfExists() {
 		return session;
 	}
 
@@ -63,6 +101,12 @@ public class HttpRequest<S> {
 		return Integer.parseInt(value);
 	}
 
+	public Long getHeaderAsLong(String name) {
+		String value = getHeader(name);
+		if (value == null) return null;
+		return Long.parseLong(value.trim());
+	}
+
 	void setMethod(HttpMethod method) {
 		this.method = method;
 	}
@@ -76,19 +120,120 @@ public class HttpRequest<S> {
 	}
 
 	void setHeader(String name, String value) {
-		headers.put(formatHeaderName(name), value);
+		name = formatHeaderName(name);
+		String existing = headers.get(name);
+		headers.put(name, existing == null ? value : existing + ", " + value);
+	}
+
+	void setBody(byte[] body) {
+		this.body = body;
+	}
+
+	void setKeepAlive(boolean keepAlive) {
+		this.keepAlive = keepAlive;
+	}
+
+	/**
+	 * Connections are kept alive for HTTP/1.1 requests unless the client requests closing, and for HTTP/1.0
+	 * requests only on request.
+	 */
+	void initKeepAlive() {
+		String connectionHeader = getHeader("Connection");
+		if ("HTTP/1.1".equals(version)) {
+			keepAlive = connectionHeader == null || !connectionHeader.toLowerCase().contains("close");
+		} else {
+			keepAlive = connectionHeader != null && connectionHeader.toLowerCase().contains("keep-alive");
+		}
+	}
+
+	public boolean isKeepAlive() {
+		return keepAlive;
 	}
 
 	private String formatHeaderName(String name) {
 		return name.toLowerCase();
 	}
 
+	public byte[] getBody() {
+		return body;
+	}
+
+	public String getBodyAsString() {
+		if (body == null) return null;
+		return new String(body, UTF_8);
+	}
+
+	public String getPath() {
+		int idx = uri.indexOf('?');
+		return idx < 0 ? uri : uri.substring(0, idx);
+	}
+
+	public String getQuery() {
+		int idx = uri.indexOf('?');
+		return idx < 0 ? null : uri.substring(idx + 1);
+	}
+
+	/**
+	 * Parameter from the query string or from an <code>application/x-www-form-urlencoded</code> body.
+	 */
+	public String getParameter(String name) {
+		if (parameters == null) {
+			parameters = new HashMap<String, String>();
+			parseParameters(getQuery());
+			String contentType = getHeader("Content-Type");
+			if (body != null && contentType != null
+					&& contentType.toLowerCase().startsWith("application/x-www-form-urlencoded"))
+				parseParameters(getBodyAsString());
+		}
+		return parameters.get(name);
+	}
+
+	private void parseParameters(String s) {
+		if (s == null) return;
+		for (String pair : s.split("&")) {
+			if (pair.length() == 0) continue;
+			int idx = pair.indexOf('=');
+			String name = idx < 0 ? pair : pair.substring(0, idx);
+			String value = idx < 0 ? "" : pair.substring(idx + 1);
+			parameters.put(decode(name), decode(value));
+		}
+	}
+
+	static String decode(String s) {
+		try {
+			return URLDecoder.decode(s, "UTF-8");
+		} catch (UnsupportedEncodingException ex) {
+			throw new RuntimeException(ex);
+		} catch (IllegalArgumentException ex) {
+			return s;
+		}
+	}
+
+	public String getCookie(String name) {
+		if (cookies == null) {
+			cookies = new HashMap<String, String>();
+			String header = getHeader("Cookie");
+			if (header != null) {
+				for (String cookie : header.split("[;,]")) {
+					int idx = cookie.indexOf('=');
+					if (idx <= 0) continue;
+					cookies.put(cookie.substring(0, idx).trim(), cookie.substring(idx + 1).trim());
+				}
+			}
+		}
+		return cookies.get(name);
+	}
+
 	public void setResponseHeader(String name, String value) {
 		responseHeaders.put(formatHeaderName(name), value);
 	}
 
-	private void closeConnection() {
-		connection.close();
+	/**
+	 * @param cookie name, value and attributes as in a <code>Set-Cookie</code> header
+	 */
+	public void addResponseCookie(String cookie) {
+		if (responseCookies == null) responseCookies = new ArrayList<String>(1);
+		responseCookies.add(cookie);
 	}
 
 	public void setResponseStatus(HttpStatusCode code, String message) {
@@ -103,8 +248,40 @@ public class HttpRequest<S> {
 
 	public void sendEmptyResponse(HttpStatusCode code, String statusMessage) {
 		setResponseStatus(code, statusMessage);
+		setResponseHeader("Content-Length", "0");
+		sendResponseHeaders();
+		finishResponse();
+	}
+
+	public void sendResponse(HttpStatusCode code, String contentType, byte[] content) {
+		setResponseStatus(code, null);
+		if (contentType != null) setResponseHeader("Content-Type", contentType);
+		setResponseHeader("Content-Length", String.valueOf(content.length));
+		sendResponseHeaders();
+		sendResponseData(content);
+		finishResponse();
+	}
+
+	public void sendText(HttpStatusCode code, String text) {
+		sendResponse(code, "text/plain; charset=UTF-8", text.getBytes(UTF_8));
+	}
+
+	/**
+	 * Sends the file without copying it through the heap.
+	 */
+	public void sendFile(File file, String contentType) throws IOException {
+		FileChannel channel = new FileInputStream(file).getChannel();
+		long size = channel.size();
+		setResponseStatus(HttpStatusCode.OK, null);
+		if (contentType != null) setResponseHeader("Content-Type", contentType);
+		setResponseHeader("Content-Length", String.valueOf(size));
 		sendResponseHeaders();
-		closeConnection();
+		if (responseBodyOmitted) {
+			channel.close();
+		} else {
+			connection.sendFile(channel, 0, size);
+		}
+		finishResponse();
 	}
 
 	public void sendResponseHeaders() {
@@ -115,18 +292,29 @@ public class HttpRequest<S> {
 			setResponseStatus(HttpStatusCode.INTERNAL_SERVER_ERROR, null);
 			log.error("sendHeaders() responseStatusLine==null");
 		}
-		sendLine(responseStatusLine);
 		completeResponseHeaders();
+		StringBuilder sb = new StringBuilder(256);
+		sb.append(responseStatusLine).append("\r\n");
 		for (Map.Entry<String, String> header : responseHeaders.entrySet()) {
-			sendLine(header.getKey() + ": " + header.getValue());
+			sb.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
 		}
-		sendLine("");
+		if (responseCookies != null) {
+			for (String cookie : responseCookies) {
+				sb.append("set-cookie: ").append(cookie).append("\r\n");
+			}
+		}
+		sb.append("\r\n");
+		connection.sendData(sb.toString().getBytes(ISO_8859_1));
 		responseHeadersSent = true;
+		responseBodyOmitted = method == HttpMethod.HEAD;
 		log.debug(responseStatusLine);
 	}
 
 	private void completeResponseHeaders() {
 		completeResponseHeader("Server", SERVER);
+		// without a length the end of the response is signaled by closing the connection
+		if (!responseHeaders.containsKey("content-length")) keepAlive = false;
+		if (!keepAlive) setResponseHeader("Connection", "close");
 	}
 
 	private void completeResponseHeader(String name, String defaultValue) {
@@ -134,8 +322,31 @@ public class HttpRequest<S> {
 		if (!responseHeaders.containsKey(name)) responseHeaders.put(name, defaultValue);
 	}
 
-	private void sendLine(String line) {
-		connection.sendLineCrLf(line);
+	/**
+	 * Sends a part of the response body, after the response headers.
+	 */
+	public void sendResponseData(byte[] data) {
+		if (!responseHeadersSent) throw new IllegalStateException("Response headers not sent yet: " + toString());
+		if (responseBodyOmitted) return;
+		connection.sendData(data);
+	}
+
+	/**
+	 * Completes the response and closes the connection, if it is not kept alive.
+	 */
+	public void finishResponse() {
+		if (responseFinished) return;
+		if (!responseHeadersSent) sendResponseHeaders();
+		responseFinished = true;
+		if (!keepAlive) connection.close();
+	}
+
+	public boolean isResponseHeadersSent() {
+		return responseHeadersSent;
+	}
+
+	public boolean isResponseFinished() {
+		return responseFinished;
 	}
 
 	public HttpMethod getMethod() {
@@ -150,10 +361,14 @@ public class HttpRequest<S> {
 		return version;
 	}
 
+	public TcpConnection getConnection() {
+		return connection;
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
-		sb.append(method.name());
+		sb.append(method == null ? null : method.name());
 		sb.append(" ");
 		sb.append(uri);
 		sb.append(" ");
@@ -171,8 +386,16 @@ public class HttpRequest<S> {
 		return getHeader("Transfer-Encoding");
 	}
 
+	public Long getHeaderContentLength() {
+		return getHeaderAsLong("Content-Length");
+	}
+
+	/**
+	 * @deprecated use <code>getHeaderContentLength()</code>
+	 */
+	@Deprecated
 	public Integer getHeaderContentLenght() {
-		return getHeaderAsInteger("Content-Lenght");
+		return getHeaderAsInteger("Content-Length");
 	}
 
 	// --- response header fields ---
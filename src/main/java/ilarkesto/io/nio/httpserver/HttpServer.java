@@ -15,53 +15,199 @@
 package ilarkesto.io.nio.httpserver;
 
 import ilarkesto.concurrent.TaskManager;
+import ilarkesto.core.logging.Log;
+import ilarkesto.core.time.Tm;
 import ilarkesto.io.nio.tcpserver.DataHandler;
 import ilarkesto.io.nio.tcpserver.PerConnectionDataHandler;
 import ilarkesto.io.nio.tcpserver.PerConnectionDataHandler.HandlerFacotry;
 import ilarkesto.io.nio.tcpserver.TcpConnection;
 import ilarkesto.io.nio.tcpserver.TcpServer;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+/**
+ * HTTP/1.1 server. Requests are dispatched to the handlers registered for their exact path, then to the handlers
+ * registered for a path prefix (longest first), then to the general handlers.
+ */
 public class HttpServer<S> {
 
+	private static Log log = Log.get(HttpServer.class);
+
 	private TcpServer server;
 	private String name;
 
-	private Set<HttpSession<S>> sessions = new HashSet<HttpSession<S>>();
+	private Map<String, List<Route>> routesByPath = new ConcurrentHashMap<String, List<Route>>();
+	private volatile List<Route> prefixRoutes = Collections.emptyList();
+	private List<HttpRequestHandler> handlers = new CopyOnWriteArrayList<HttpRequestHandler>();
+
+	private Map<String, HttpSession<S>> sessionsById = new ConcurrentHashMap<String, HttpSession<S>>();
+	private String sessionCookieName = "ilarkesto-session";
+	private long sessionTimeout = 30 * Tm.MINUTE;
+	private volatile long lastExpiredSessionsRemoval = Tm.getCurrentTimeMillis();
+
+	private int maxRequestBodySize = 10 * 1024 * 1024;
 
 	public HttpServer(int port, String serverName) {
+		this(port, serverName, 1, 1);
+	}
+
+	public HttpServer(int port, String serverName, int selectorCount, int workerCount) {
 		this.name = serverName;
-		server = new TcpServer(port, new PerConnectionDataHandler(new LocalHandlerFactory()));
+		server = new TcpServer(port, new PerConnectionDataHandler(new LocalHandlerFactory()), selectorCount,
+				workerCount);
 	}
 
-	void onHttpRequest(HttpRequest request) {
-		updateSession(request);
-		request.sendEmptyResponse(HttpStatusCode.NOT_FOUND);
+	/**
+	 * @param path exact path or prefix ending with <code>*</code>
+	 */
+	public void addHandler(String path, HttpRequestHandler handler) {
+		addHandler(null, path, handler);
 	}
 
-	private void updateSession(HttpRequest request) {
-		HttpSession<S> session = getSession("todo");
-		if (session == null) {
-			session = new HttpSession<S>();
-			// TODO create session bean
+	/**
+	 * @param method <code>null</code> for all methods
+	 * @param path exact path or prefix ending with <code>*</code>
+	 */
+	public synchronized void addHandler(HttpMethod method, String path, HttpRequestHandler handler) {
+		if (path.endsWith("*")) {
+			List<Route> routes = new ArrayList<Route>(prefixRoutes);
+			routes.add(new Route(method, path.substring(0, path.length() - 1), handler));
+			Collections.sort(routes, new Comparator<Route>() {
+
+				@Override
+				public int compare(Route a, Route b) {
+					return b.path.length() - a.path.length();
+				}
+			});
+			prefixRoutes = routes;
+			return;
 		}
-		request.setSession(session);
-		session.touch();
+		List<Route> routes = routesByPath.get(path);
+		if (routes == null) {
+			routes = new CopyOnWriteArrayList<Route>();
+			routesByPath.put(path, routes);
+		}
+		routes.add(new Route(method, path, handler));
+	}
+
+	/**
+	 * Adds a handler for all requests which are not handled by a route.
+	 */
+	public void addHandler(HttpRequestHandler handler) {
+		handlers.add(handler);
+	}
+
+	void onHttpRequest(HttpRequest<S> request) {
+		request.setServer(this);
+		request.setSession(getSession(request.getCookie(sessionCookieName)));
+
+		String path = request.getPath();
+		boolean pathMatched = false;
+
+		List<Route> routes = routesByPath.get(path);
+		if (routes != null) {
+			for (Route route : routes) {
+				if (!route.isMethodMatching(request.getMethod())) {
+					pathMatched = true;
+					continue;
+				}
+				if (route.handler.onHttpRequest(request)) return;
+			}
+		}
+
+		for (Route route : prefixRoutes) {
+			if (!path.startsWith(route.path)) continue;
+			if (!route.isMethodMatching(request.getMethod())) {
+				pathMatched = true;
+				continue;
+			}
+			if (route.handler.onHttpRequest(request)) return;
+		}
+
+		for (HttpRequestHandler handler : handlers) {
+			if (handler.onHttpRequest(request)) return;
+		}
+
+		request.sendEmptyResponse(pathMatched ? HttpStatusCode.METHOD_NOT_ALLOWED : HttpStatusCode.NOT_FOUND);
 	}
 
 	private HttpSession<S> getSession(String id) {
-		for (HttpSession<S> session : sessions) {
-			if (session.getId().equals(id)) return session;
+		long now = Tm.getCurrentTimeMillis();
+		if (now - lastExpiredSessionsRemoval > Tm.MINUTE) {
+			lastExpiredSessionsRemoval = now;
+			removeExpiredSessions();
 		}
+
+		if (id == null) return null;
+		HttpSession<S> session = sessionsById.get(id);
+		if (session == null) return null;
+		if (session.isExpired(sessionTimeout)) {
+			sessionsById.remove(id);
+			return null;
+		}
+		session.touch();
+		return session;
+	}
+
+	HttpSession<S> createSession(HttpRequest<S> request) {
+		HttpSession<S> session = new HttpSession<S>();
+		session.setBean(createSessionBean(session));
+		sessionsById.put(session.getId(), session);
+		request.addResponseCookie(sessionCookieName + "=" + session.getId() + "; Path=/; HttpOnly");
+		log.debug("Session created:", session);
+		return session;
+	}
+
+	protected S createSessionBean(HttpSession<S> session) {
 		return null;
 	}
 
+	public void removeExpiredSessions() {
+		Iterator<HttpSession<S>> iterator = sessionsById.values().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().isExpired(sessionTimeout)) iterator.remove();
+		}
+	}
+
+	public int getSessionCount() {
+		return sessionsById.size();
+	}
+
+	public void setSessionTimeout(long sessionTimeout) {
+		this.sessionTimeout = sessionTimeout;
+	}
+
+	public void setSessionCookieName(String sessionCookieName) {
+		this.sessionCookieName = sessionCookieName;
+	}
+
+	public void setMaxRequestBodySize(int maxRequestBodySize) {
+		this.maxRequestBodySize = maxRequestBodySize;
+	}
+
+	public int getMaxRequestBodySize() {
+		return maxRequestBodySize;
+	}
+
 	public void start(TaskManager taskManager) {
 		server.start(taskManager);
 	}
 
+	public void stop() {
+		server.stop();
+	}
+
+	public TcpServer getTcpServer() {
+		return server;
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -79,4 +225,23 @@ public class HttpServer<S> {
 		}
 	}
 
+	private static class Route {
+
+		private HttpMethod method;
+		private String path;
+		private HttpRequestHandler handler;
+
+		public Route(HttpMethod method, String path, HttpRequestHandler handler) {
+			super();
+			this.method = method;
+			this.path = path;
+			this.handler = handler;
+		}
+
+		private boolean isMethodMatching(HttpMethod requestMethod) {
+			return method == null || method == requestMethod;
+		}
+
+	}
+
 }
@@ -22,7 +22,7 @@ public class HttpSession<S> {
 
 	private String id = UUID.randomUUID().toString();
 	private long startTime = Tm.getCurrentTimeMillis();
-	private long lastAccessTime = Tm.getCurrentTimeMillis();
+	private volatile long lastAccessTime = Tm.getCurrentTimeMillis();
 
 	private S bean;
 
@@ -50,4 +50,13 @@ public class HttpSession<S> {
 		return Tm.getCurrentTimeMillis() - lastAccessTime;
 	}
 
+	public boolean isExpired(long timeout) {
+		return getIdleTime() > timeout;
+	}
+
+	@Override
+	public String toString() {
+		return id;
+	}
+
 }
@@ -15,8 +15,12 @@
 package ilarkesto.io.nio.httpserver;
 
 public enum HttpStatusCode {
-	BAD_REQUEST(400, "Bad Request"), NOT_FOUND(404, "Not Found"), INTERNAL_SERVER_ERROR(500, "Internal Server Error"), NOT_IMPLEMENTED(
-			501, "Not Implemented");
+	OK(200, "OK"), NO_CONTENT(204, "No Content"), MOVED_PERMANENTLY(301, "Moved Permanently"), FOUND(302, "Found"), NOT_MODIFIED(
+			304, "Not Modified"), BAD_REQUEST(400, "Bad Request"), FORBIDDEN(403, "Forbidden"), NOT_FOUND(404,
+			"Not Found"), METHOD_NOT_ALLOWED(405, "Method Not Allowed"), LENGTH_REQUIRED(411, "Length Required"), REQUEST_ENTITY_TOO_LARGE(
+			413, "Request Entity Too Large"), REQUEST_HEADER_FIELDS_TOO_LARGE(431, "Request Header Fields Too Large"), INTERNAL_SERVER_ERROR(
+			500, "Internal Server Error"), NOT_IMPLEMENTED(501, "Not Implemented"), HTTP_VERSION_NOT_SUPPORTED(505,
+			"HTTP Version Not Supported");
 
 	private int code;
 	private String text;
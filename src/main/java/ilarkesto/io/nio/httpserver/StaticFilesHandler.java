@@ -0,0 +1,90 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io.nio.httpserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URLConnection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Serves the files of a directory. Register it for a path prefix, like <code>/static/*</code>.
+ */
+public class StaticFilesHandler implements HttpRequestHandler {
+
+	private static final Map<String, String> CONTENT_TYPES_BY_EXTENSION = new HashMap<String, String>();
+
+	static {
+		CONTENT_TYPES_BY_EXTENSION.put("html", "text/html; charset=UTF-8");
+		CONTENT_TYPES_BY_EXTENSION.put("htm", "text/html; charset=UTF-8");
+		CONTENT_TYPES_BY_EXTENSION.put("css", "text/css; charset=UTF-8");
+		CONTENT_TYPES_BY_EXTENSION.put("js", "application/javascript; charset=UTF-8");
+		CONTENT_TYPES_BY_EXTENSION.put("json", "application/json; charset=UTF-8");
+		CONTENT_TYPES_BY_EXTENSION.put("txt", "text/plain; charset=UTF-8");
+		CONTENT_TYPES_BY_EXTENSION.put("svg", "image/svg+xml");
+		CONTENT_TYPES_BY_EXTENSION.put("png", "image/png");
+		CONTENT_TYPES_BY_EXTENSION.put("jpg", "image/jpeg");
+		CONTENT_TYPES_BY_EXTENSION.put("jpeg", "image/jpeg");
+		CONTENT_TYPES_BY_EXTENSION.put("gif", "image/gif");
+		CONTENT_TYPES_BY_EXTENSION.put("ico", "image/x-icon");
+	}
+
+	private File directory;
+	private String pathPrefix;
+
+	/**
+	 * @param pathPrefix the part of the request path which is not part of the file path
+	 */
+	public StaticFilesHandler(File directory, String pathPrefix) {
+		super();
+		this.directory = directory;
+		this.pathPrefix = pathPrefix;
+	}
+
+	@Override
+	public boolean onHttpRequest(HttpRequest request) {
+		if (request.getMethod() != HttpMethod.GET && request.getMethod() != HttpMethod.HEAD) return false;
+		String path = request.getPath();
+		if (!path.startsWith(pathPrefix)) return false;
+		path = HttpRequest.decode(path.substring(pathPrefix.length()));
+		if (path.contains("..") || path.contains("\\")) {
+			request.sendEmptyResponse(HttpStatusCode.FORBIDDEN);
+			return true;
+		}
+
+		File file = new File(directory, path);
+		if (file.isDirectory()) file = new File(file, "index.html");
+		if (!file.isFile()) return false;
+
+		try {
+			request.sendFile(file, getContentType(file.getName()));
+		} catch (IOException ex) {
+			throw new RuntimeException("Sending file failed: " + file.getAbsolutePath(), ex);
+		}
+		return true;
+	}
+
+	protected String getContentType(String filename) {
+		int idx = filename.lastIndexOf('.');
+		if (idx >= 0) {
+			String contentType = CONTENT_TYPES_BY_EXTENSION.get(filename.substring(idx + 1).toLowerCase());
+			if (contentType != null) return contentType;
+		}
+		String contentType = URLConnection.guessContentTypeFromName(filename);
+		return contentType == null ? "application/octet-stream" : contentType;
+	}
+
+}
@@ -18,7 +18,7 @@ public class EchoDataHandler implements DataHandler {
 
 	@Override
 	public void onDataReceived(ServerDataEvent event) {
-		event.getConnection().sendData(event.getData());
+		event.getConnection().sendData(event.getBuffer());
 	}
 
 	@Override
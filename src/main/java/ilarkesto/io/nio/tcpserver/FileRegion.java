@@ -0,0 +1,55 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io.nio.tcpserver;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Part of a file which is written to a connection with <code>FileChannel.transferTo()</code>, without copying it
+ * through the heap.
+ */
+class FileRegion {
+
+	private FileChannel channel;
+	private long position;
+	private long end;
+
+	FileRegion(FileChannel channel, long position, long count) {
+		this.channel = channel;
+		this.position = position;
+		this.end = position + count;
+	}
+
+	long transferTo(WritableByteChannel target) throws IOException {
+		long transferred = channel.transferTo(position, end - position, target);
+		position += transferred;
+		return transferred;
+	}
+
+	boolean isComplete() {
+		return position >= end;
+	}
+
+	void close() {
+		try {
+			channel.close();
+		} catch (IOException ex) {
+			// nop
+		}
+	}
+
+}
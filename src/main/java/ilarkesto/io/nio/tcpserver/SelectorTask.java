@@ -21,62 +21,73 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
+/**
+ * Runs a selector for a part of the connections of a <code>TcpServer</code>. The acceptor also accepts new
+ * connections and hands them to the selectors of the server.
+ */
 public class SelectorTask extends ALoopTask {
 
 	private Log log = Log.get(getClass());
 
-	private WorkerTask worker;
+	private TcpServer tcpServer;
+	private TcpServerStatistics statistics;
+	private ByteBufferPool bufferPool;
 	private int port;
+	private boolean acceptor;
 
 	private InetAddress hostAddress;
 	private ServerSocketChannel serverChannel;
 	private Selector selector;
 
-	private ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+	private ByteBuffer readBuffer;
 
-	private List changeRequests = new LinkedList();
-	private List<TcpConnection> connections = new LinkedList<TcpConnection>();
+	private ConcurrentLinkedQueue<TcpConnection> writeRequests = new ConcurrentLinkedQueue<TcpConnection>();
+	private ConcurrentLinkedQueue<TcpConnection> registrations = new ConcurrentLinkedQueue<TcpConnection>();
 
-	public SelectorTask(int port, WorkerTask worker) {
+	SelectorTask(TcpServer tcpServer, int port, boolean acceptor) {
+		this.tcpServer = tcpServer;
+		this.statistics = tcpServer.getStatistics();
+		this.bufferPool = tcpServer.getBufferPool();
 		this.port = port;
-		this.worker = worker;
+		this.acceptor = acceptor;
+		try {
+			selector = SelectorProvider.provider().openSelector();
+		} catch (IOException ex) {
+			throw new RuntimeException("Initializing selector failed.", ex);
+		}
 	}
 
 	@Override
 	protected void beforeLoop() throws InterruptedException {
+		if (!acceptor) return;
 		try {
-			selector = initSelector();
+			initServerChannel();
 		} catch (IOException ex) {
-			throw new RuntimeException("Initializing selector failed.", ex);
+			throw new RuntimeException("Initializing server channel failed.", ex);
 		}
 		log.info("TCP server started on port", port);
 	}
 
 	@Override
 	protected void iteration() throws InterruptedException {
-		synchronized (this.changeRequests) {
-			Iterator changes = this.changeRequests.iterator();
-			while (changes.hasNext()) {
-				ChangeRequest change = (ChangeRequest) changes.next();
-				switch (change.type) {
-					case ChangeRequest.CHANGEOPS:
-						SelectionKey key = change.socket.keyFor(this.selector);
-						if (key.isValid()) {
-							key.interestOps(change.ops);
-						}
-				}
-			}
-			this.changeRequests.clear();
+		TcpConnection registration;
+		while ((registration = registrations.poll()) != null) {
+			registerInternal(registration);
+		}
+
+		TcpConnection writeRequest;
+		while ((writeRequest = writeRequests.poll()) != null) {
+			writeRequest.writeRequested.set(false);
+			SelectionKey key = writeRequest.key;
+			if (key != null && key.isValid()) key.interestOps(SelectionKey.OP_WRITE);
 		}
 
 		try {
@@ -116,56 +127,115 @@ public class SelectorTask extends ALoopTask {
 		}
 	}
 
+	@Override
+	protected boolean isRunInTransactionEnabled() {
+		return false;
+	}
+
 	@Override
 	protected void onError(Throwable ex) throws Throwable {
 		throw ex;
 	}
 
-	void sendChangeRequestForWrite(SocketChannel socket) {
-		synchronized (changeRequests) {
-			changeRequests.add(new ChangeRequest(socket, ChangeRequest.CHANGEOPS, SelectionKey.OP_WRITE));
-		}
+	void requestWrite(TcpConnection connection) {
+		writeRequests.add(connection);
+		selector.wakeup();
 	}
 
 	void wakeupSelector() {
 		selector.wakeup();
 	}
 
+	@Override
+	public void abort() {
+		super.abort();
+		selector.wakeup();
+	}
+
 	private void write(SelectionKey key) throws IOException {
-		SocketChannel socketChannel = (SocketChannel) key.channel();
-		TcpConnection connection = getConnectionByChannel(socketChannel);
-		// Write until there's not more data ...
-		while (!connection.pendingData.isEmpty()) {
-			ByteBuffer data = connection.pendingData.peek();
-			if (data == TcpConnection.CLOSE_CONNECTION) {
-				log.debug("Closing client connection:", connection);
-				closeConnectionInternal(connection);
-				return;
+		TcpConnection connection = (TcpConnection) key.attachment();
+		ByteBuffer[] buffers = connection.gatheredBuffers;
+
+		// gather queued buffers and write them with one call, until the socket's buffer fills up
+		while (true) {
+			if (connection.gatheredBuffersCount == 0 && connection.fileRegion != null) {
+				try {
+					statistics.bytesWritten.addAndGet(connection.fileRegion.transferTo(connection.socketChannel));
+				} catch (IOException ex) {
+					log.debug("Writing file to client failed:", connection);
+					closeConnection(key);
+					return;
+				}
+				if (!connection.fileRegion.isComplete()) return;
+				connection.fileRegion.close();
+				connection.fileRegion = null;
 			}
-			socketChannel.write(data);
-			if (data.remaining() > 0) {
-				// ... or the socket's buffer fills up
+
+			while (connection.gatheredBuffersCount < buffers.length && !connection.closeAfterWrite
+					&& connection.fileRegion == null) {
+				Object data = connection.pendingData.poll();
+				if (data == null) break;
+				if (data == TcpConnection.CLOSE_CONNECTION) {
+					connection.closeAfterWrite = true;
+					break;
+				}
+				if (data instanceof FileRegion) {
+					connection.fileRegion = (FileRegion) data;
+					break;
+				}
+				buffers[connection.gatheredBuffersCount++] = (ByteBuffer) data;
+			}
+			int count = connection.gatheredBuffersCount;
+			if (count == 0) {
+				if (connection.fileRegion != null) continue;
 				break;
 			}
-			connection.pendingData.remove(data);
+
+			long written;
+			try {
+				written = connection.socketChannel.write(buffers, 0, count);
+			} catch (IOException ex) {
+				log.debug("Writing to client failed:", connection);
+				closeConnection(key);
+				return;
+			}
+			statistics.bytesWritten.addAndGet(written);
+
+			int completed = 0;
+			while (completed < count && !buffers[completed].hasRemaining()) {
+				bufferPool.release(buffers[completed]);
+				completed++;
+			}
+			if (completed > 0) {
+				System.arraycopy(buffers, completed, buffers, 0, count - completed);
+				for (int i = count - completed; i < count; i++) {
+					buffers[i] = null;
+				}
+				connection.gatheredBuffersCount = count - completed;
+			}
+			if (completed < count) return;
 		}
-		if (connection.pendingData.isEmpty()) {
-			// We wrote away all data, so we're no longer interested
-			// in writing on this socket. Switch back to waiting for
-			// data.
-			key.interestOps(SelectionKey.OP_READ);
+
+		if (connection.closeAfterWrite) {
+			log.debug("Closing client connection:", connection);
+			closeConnection(key);
+			return;
 		}
+
+		// We wrote away all data, so we're no longer interested in writing on this socket. Switch back to waiting
+		// for data.
+		key.interestOps(SelectionKey.OP_READ);
+		if (!connection.pendingData.isEmpty()) key.interestOps(SelectionKey.OP_WRITE);
 	}
 
 	private void read(SelectionKey key) throws IOException {
-		SocketChannel socketChannel = (SocketChannel) key.channel();
-		TcpConnection connection = getConnectionByChannel(socketChannel);
+		TcpConnection connection = (TcpConnection) key.attachment();
 
-		this.readBuffer.clear();
+		if (readBuffer == null) readBuffer = bufferPool.acquire();
 
 		int numRead;
 		try {
-			numRead = socketChannel.read(this.readBuffer);
+			numRead = connection.socketChannel.read(readBuffer);
 		} catch (IOException e) {
 			log.debug("Client forcibly closed connection:", connection);
 			closeConnection(key);
@@ -177,62 +247,88 @@ public class SelectorTask extends ALoopTask {
 			closeConnection(key);
 			return;
 		}
+		if (numRead == 0) return;
 
-		worker.processData(connection, readBuffer.array(), numRead);
-	}
-
-	private TcpConnection getConnectionByKey(SelectionKey key) {
-		return getConnectionByChannel(key.channel());
-	}
-
-	private TcpConnection getConnectionByChannel(SelectableChannel channel) {
-		synchronized (connections) {
-			for (TcpConnection connection : connections) {
-				if (connection.socketChannel == channel) return connection;
-			}
-		}
-		throw new IllegalStateException("No TcpConnection found for channel " + channel);
+		statistics.bytesRead.addAndGet(numRead);
+		readBuffer.flip();
+		// the worker releases the buffer to the pool after processing
+		connection.worker.processData(connection, readBuffer);
+		readBuffer = null;
 	}
 
 	private void closeConnection(SelectionKey key) {
 		key.cancel();
-		closeConnectionInternal(getConnectionByKey(key));
-	}
-
-	private void closeConnectionInternal(TcpConnection connection) {
-		synchronized (connections) {
-			connections.remove(connection);
-		}
+		TcpConnection connection = (TcpConnection) key.attachment();
+		connection.closed = true;
 		try {
 			connection.socketChannel.close();
 		} catch (IOException ex) {
 			// nop
 		}
-		worker.processData(connection, null, -1);
+		for (int i = 0; i < connection.gatheredBuffersCount; i++) {
+			bufferPool.release(connection.gatheredBuffers[i]);
+			connection.gatheredBuffers[i] = null;
+		}
+		connection.gatheredBuffersCount = 0;
+		if (connection.fileRegion != null) {
+			connection.fileRegion.close();
+			connection.fileRegion = null;
+		}
+		Object data;
+		while ((data = connection.pendingData.poll()) != null) {
+			if (data instanceof FileRegion) {
+				((FileRegion) data).close();
+			} else {
+				bufferPool.release((ByteBuffer) data);
+			}
+		}
+		statistics.closedConnections.incrementAndGet();
+		connection.worker.processData(connection, null, -1);
 	}
 
 	private void accept(SelectionKey key) throws IOException {
 		ServerSocketChannel serverSocketChannel = (ServerSocketChannel) key.channel();
 		SocketChannel socketChannel = serverSocketChannel.accept();
-		TcpConnection tcpConnection = new TcpConnection(this, socketChannel);
-		synchronized (connections) {
-			connections.add(tcpConnection);
-		}
+		if (socketChannel == null) return;
+		socketChannel.configureBlocking(false);
 
+		SelectorTask selectorTask = tcpServer.nextSelectorTask();
+		TcpConnection tcpConnection = new TcpConnection(selectorTask, tcpServer.nextWorkerTask(), bufferPool,
+				socketChannel);
+		statistics.acceptedConnections.incrementAndGet();
 		log.debug("Client connected:", tcpConnection);
 
-		socketChannel.configureBlocking(false);
-		socketChannel.register(this.selector, SelectionKey.OP_READ);
+		if (selectorTask == this) {
+			registerInternal(tcpConnection);
+		} else {
+			selectorTask.registrations.add(tcpConnection);
+			selectorTask.wakeupSelector();
+		}
+	}
+
+	private void registerInternal(TcpConnection connection) {
+		try {
+			connection.key = connection.socketChannel.register(this.selector, SelectionKey.OP_READ, connection);
+		} catch (IOException ex) {
+			log.debug("Registering connection failed:", connection, ex);
+			try {
+				connection.socketChannel.close();
+			} catch (IOException ex1) {
+				// nop
+			}
+			statistics.closedConnections.incrementAndGet();
+			connection.worker.processData(connection, null, -1);
+			return;
+		}
+		if (!connection.pendingData.isEmpty()) connection.key.interestOps(SelectionKey.OP_WRITE);
 	}
 
-	private Selector initSelector() throws IOException {
-		Selector socketSelector = SelectorProvider.provider().openSelector();
+	private void initServerChannel() throws IOException {
 		serverChannel = ServerSocketChannel.open();
 		serverChannel.configureBlocking(false);
 		InetSocketAddress isa = new InetSocketAddress(hostAddress, port);
 		serverChannel.socket().bind(isa);
-		serverChannel.register(socketSelector, SelectionKey.OP_ACCEPT);
-		return socketSelector;
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
 	}
 
 	public int getPort() {
@@ -14,22 +14,57 @@
  */
 package ilarkesto.io.nio.tcpserver;
 
+import java.nio.ByteBuffer;
+
 public class ServerDataEvent {
 
 	private TcpConnection connection;
 	private byte[] data;
+	private ByteBuffer buffer;
+	final long time = System.nanoTime();
 
 	public ServerDataEvent(TcpConnection connection, byte[] data) {
 		this.connection = connection;
 		this.data = data;
 	}
 
+	ServerDataEvent(TcpConnection connection, ByteBuffer buffer) {
+		this.connection = connection;
+		this.buffer = buffer;
+	}
+
 	public TcpConnection getConnection() {
 		return connection;
 	}
 
+	/**
+	 * Copies the received data on first call, if it was received into a pooled buffer.
+	 */
 	public byte[] getData() {
+		if (data == null && buffer != null) {
+			data = new byte[buffer.remaining()];
+			buffer.duplicate().get(data);
+		}
 		return data;
 	}
 
+	/**
+	 * The received data without copying. Only valid while the event is processed, since the buffer is reused
+	 * afterwards.
+	 */
+	public ByteBuffer getBuffer() {
+		if (buffer == null && data != null) buffer = ByteBuffer.wrap(data);
+		return buffer;
+	}
+
+	boolean isConnectionClosed() {
+		return data == null && buffer == null;
+	}
+
+	ByteBuffer releaseBuffer() {
+		ByteBuffer ret = buffer;
+		buffer = null;
+		return ret;
+	}
+
 }
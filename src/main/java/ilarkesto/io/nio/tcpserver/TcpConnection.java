@@ -16,24 +16,41 @@ package ilarkesto.io.nio.tcpserver;
 
 import java.net.Socket;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class TcpConnection {
 
 	static final ByteBuffer CLOSE_CONNECTION = ByteBuffer.wrap(new byte[0]);
+	static final int MAX_GATHERED_BUFFERS = 16;
 
 	SelectorTask server;
+	WorkerTask worker;
+	ByteBufferPool bufferPool;
 	SocketChannel socketChannel;
+	SelectionKey key;
 	String remoteHost;
 	int remotePort;
 	int localPort;
 
-	ConcurrentLinkedQueue<ByteBuffer> pendingData = new ConcurrentLinkedQueue<ByteBuffer>();
+	// ByteBuffers and FileRegions
+	ConcurrentLinkedQueue<Object> pendingData = new ConcurrentLinkedQueue<Object>();
+	AtomicBoolean writeRequested = new AtomicBoolean();
 	boolean closed;
 
-	TcpConnection(SelectorTask server, SocketChannel socketChannel) {
+	// used by the selector thread only
+	ByteBuffer[] gatheredBuffers = new ByteBuffer[MAX_GATHERED_BUFFERS];
+	int gatheredBuffersCount;
+	FileRegion fileRegion;
+	boolean closeAfterWrite;
+
+	TcpConnection(SelectorTask server, WorkerTask worker, ByteBufferPool bufferPool, SocketChannel socketChannel) {
 		this.server = server;
+		this.worker = worker;
+		this.bufferPool = bufferPool;
 		this.socketChannel = socketChannel;
 		Socket socket = getSocket();
 		remoteHost = socket.getInetAddress().getHostAddress();
@@ -43,9 +60,54 @@ public class TcpConnection {
 
 	public void sendData(byte[] data) {
 		if (closed) throw new IllegalStateException("Connection already closed: " + toString());
-		server.sendChangeRequestForWrite(socketChannel);
-		pendingData.add(data == null ? CLOSE_CONNECTION : ByteBuffer.wrap(data));
-		server.wakeupSelector();
+		if (data == null) {
+			pendingData.add(CLOSE_CONNECTION);
+		} else {
+			int offset = 0;
+			while (offset < data.length) {
+				ByteBuffer buffer = bufferPool.acquire();
+				int length = Math.min(buffer.remaining(), data.length - offset);
+				buffer.put(data, offset, length);
+				buffer.flip();
+				pendingData.add(buffer);
+				offset += length;
+			}
+		}
+		requestWrite();
+	}
+
+	/**
+	 * Sends the remaining bytes of the given buffer. The buffer is not retained.
+	 */
+	public void sendData(ByteBuffer data) {
+		if (closed) throw new IllegalStateException("Connection already closed: " + toString());
+		while (data.hasRemaining()) {
+			ByteBuffer buffer = bufferPool.acquire();
+			if (data.remaining() <= buffer.remaining()) {
+				buffer.put(data);
+			} else {
+				ByteBuffer slice = data.duplicate();
+				slice.limit(slice.position() + buffer.remaining());
+				buffer.put(slice);
+				data.position(slice.position());
+			}
+			buffer.flip();
+			pendingData.add(buffer);
+		}
+		requestWrite();
+	}
+
+	/**
+	 * Sends a part of a file. The channel is closed after it is sent or the connection is closed.
+	 */
+	public void sendFile(FileChannel channel, long position, long count) {
+		if (closed) throw new IllegalStateException("Connection already closed: " + toString());
+		pendingData.add(new FileRegion(channel, position, count));
+		requestWrite();
+	}
+
+	private void requestWrite() {
+		if (writeRequested.compareAndSet(false, true)) server.requestWrite(this);
 	}
 
 	public void sendString(String s) {
@@ -58,10 +120,14 @@ public class TcpConnection {
 	}
 
 	public void close() {
-		sendData(null);
+		sendData((byte[]) null);
 		closed = true;
 	}
 
+	public boolean isClosed() {
+		return closed;
+	}
+
 	Socket getSocket() {
 		return socketChannel.socket();
 	}
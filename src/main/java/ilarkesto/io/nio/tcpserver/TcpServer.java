@@ -16,34 +16,114 @@ package ilarkesto.io.nio.tcpserver;
 
 import ilarkesto.concurrent.TaskManager;
 
+import java.util.ArrayList;
+import java.util.List;
+
 // http://rox-xmlrpc.sourceforge.net/niotut/
+/**
+ * Non-blocking TCP server with a configurable number of selector and worker threads. Each connection is
+ * assigned to one selector and one worker, so its events are handled in order.
+ */
 public class TcpServer {
 
-	private SelectorTask selectorTask;
-	private WorkerTask workerTask;
+	private SelectorTask[] selectorTasks;
+	private WorkerTask[] workerTasks;
+	private TcpServerStatistics statistics = new TcpServerStatistics();
+	private ByteBufferPool bufferPool = new ByteBufferPool(8192, 1024);
+
+	private int nextSelectorTaskIndex;
+	private int nextWorkerTaskIndex;
 
 	public TcpServer(int port, DataHandler dataHandler) {
-		workerTask = new WorkerTask(dataHandler);
-		selectorTask = new SelectorTask(port, workerTask);
+		this(port, dataHandler, 1, 1);
+	}
+
+	public TcpServer(int port, DataHandler dataHandler, int selectorCount, int workerCount) {
+		if (selectorCount < 1) throw new IllegalArgumentException("selectorCount < 1");
+		if (workerCount < 1) throw new IllegalArgumentException("workerCount < 1");
+		workerTasks = new WorkerTask[workerCount];
+		for (int i = 0; i < workerCount; i++) {
+			workerTasks[i] = new WorkerTask(dataHandler, statistics, bufferPool);
+		}
+		selectorTasks = new SelectorTask[selectorCount];
+		for (int i = 0; i < selectorCount; i++) {
+			selectorTasks[i] = new SelectorTask(this, port, i == 0);
+		}
 	}
 
 	public void start(TaskManager taskManager) {
-		taskManager.start(workerTask);
-		taskManager.start(selectorTask);
+		for (WorkerTask workerTask : workerTasks) {
+			taskManager.start(workerTask);
+		}
+		for (SelectorTask selectorTask : selectorTasks) {
+			taskManager.start(selectorTask);
+		}
 	}
 
 	public void stop() {
-		selectorTask.abort();
-		workerTask.abort();
+		for (SelectorTask selectorTask : selectorTasks) {
+			selectorTask.abort();
+		}
+		for (WorkerTask workerTask : workerTasks) {
+			workerTask.abort();
+		}
+	}
+
+	/**
+	 * Called by the accepting selector thread only.
+	 */
+	SelectorTask nextSelectorTask() {
+		SelectorTask selectorTask = selectorTasks[nextSelectorTaskIndex];
+		nextSelectorTaskIndex = (nextSelectorTaskIndex + 1) % selectorTasks.length;
+		return selectorTask;
+	}
+
+	/**
+	 * Called by the accepting selector thread only.
+	 */
+	WorkerTask nextWorkerTask() {
+		WorkerTask workerTask = workerTasks[nextWorkerTaskIndex];
+		nextWorkerTaskIndex = (nextWorkerTaskIndex + 1) % workerTasks.length;
+		return workerTask;
+	}
+
+	/**
+	 * Threads currently running the selector and worker tasks.
+	 */
+	public List<Thread> getThreads() {
+		List<Thread> ret = new ArrayList<Thread>(selectorTasks.length + workerTasks.length);
+		for (SelectorTask selectorTask : selectorTasks) {
+			if (selectorTask.isRunning()) ret.add(selectorTask.getThread());
+		}
+		for (WorkerTask workerTask : workerTasks) {
+			if (workerTask.isRunning()) ret.add(workerTask.getThread());
+		}
+		return ret;
+	}
+
+	public TcpServerStatistics getStatistics() {
+		return statistics;
+	}
+
+	public ByteBufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	public int getSelectorCount() {
+		return selectorTasks.length;
+	}
+
+	public int getWorkerCount() {
+		return workerTasks.length;
 	}
 
 	public int getPort() {
-		return selectorTask.getPort();
+		return selectorTasks[0].getPort();
 	}
 
 	@Override
 	public String toString() {
-		return getClass().getSimpleName() + ":" + selectorTask.getPort();
+		return getClass().getSimpleName() + ":" + getPort();
 	}
 
 }
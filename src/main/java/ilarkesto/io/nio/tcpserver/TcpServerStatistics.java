@@ -0,0 +1,92 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io.nio.tcpserver;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput and latency counters of a <code>TcpServer</code>. Latency is the time an event waits in a worker
+ * queue, processing time the time the <code>DataHandler</code> needs for it.
+ */
+public class TcpServerStatistics {
+
+	final AtomicLong acceptedConnections = new AtomicLong();
+	final AtomicLong closedConnections = new AtomicLong();
+	final AtomicLong bytesRead = new AtomicLong();
+	final AtomicLong bytesWritten = new AtomicLong();
+	final AtomicLong processedEvents = new AtomicLong();
+	final AtomicLong latencyNanos = new AtomicLong();
+	final AtomicLong maxLatencyNanos = new AtomicLong();
+	final AtomicLong processingNanos = new AtomicLong();
+
+	void onEventProcessed(long latency, long processing) {
+		processedEvents.incrementAndGet();
+		latencyNanos.addAndGet(latency);
+		processingNanos.addAndGet(processing);
+		while (true) {
+			long max = maxLatencyNanos.get();
+			if (latency <= max || maxLatencyNanos.compareAndSet(max, latency)) break;
+		}
+	}
+
+	public long getAcceptedConnections() {
+		return acceptedConnections.get();
+	}
+
+	public long getClosedConnections() {
+		return closedConnections.get();
+	}
+
+	public long getOpenConnections() {
+		return acceptedConnections.get() - closedConnections.get();
+	}
+
+	public long getBytesRead() {
+		return bytesRead.get();
+	}
+
+	public long getBytesWritten() {
+		return bytesWritten.get();
+	}
+
+	public long getProcessedEvents() {
+		return processedEvents.get();
+	}
+
+	public long getAverageLatencyMicros() {
+		long events = processedEvents.get();
+		if (events == 0) return 0;
+		return latencyNanos.get() / events / 1000;
+	}
+
+	public long getMaxLatencyMicros() {
+		return maxLatencyNanos.get() / 1000;
+	}
+
+	public long getAverageProcessingMicros() {
+		long events = processedEvents.get();
+		if (events == 0) return 0;
+		return processingNanos.get() / events / 1000;
+	}
+
+	@Override
+	public String toString() {
+		return "connections: " + getOpenConnections() + "/" + getAcceptedConnections() + ", read: " + getBytesRead()
+				+ " bytes, written: " + getBytesWritten() + " bytes, events: " + getProcessedEvents()
+				+ ", latency: " + getAverageLatencyMicros() + " us (max " + getMaxLatencyMicros()
+				+ " us), processing: " + getAverageProcessingMicros() + " us";
+	}
+
+}
@@ -15,19 +15,33 @@
 package ilarkesto.io.nio.tcpserver;
 
 import ilarkesto.concurrent.ALoopTask;
+import ilarkesto.concurrent.MpscQueue;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Processes the events of the connections assigned to it in the order they were received. Selector threads
+ * enqueue events lock-free, the worker parks while its queue is empty.
+ */
 public class WorkerTask extends ALoopTask {
 
 	private DataHandler handler;
+	private TcpServerStatistics statistics;
+	private ByteBufferPool bufferPool;
 
-	private List<ServerDataEvent> queue = new LinkedList<ServerDataEvent>();
+	private MpscQueue<ServerDataEvent> queue = new MpscQueue<ServerDataEvent>();
+	private volatile boolean waiting;
 
 	public WorkerTask(DataHandler handler) {
+		this(handler, new TcpServerStatistics(), null);
+	}
+
+	WorkerTask(DataHandler handler, TcpServerStatistics statistics, ByteBufferPool bufferPool) {
 		super();
 		this.handler = handler;
+		this.statistics = statistics;
+		this.bufferPool = bufferPool;
 	}
 
 	public void processData(TcpConnection connection, byte[] data, int count) {
@@ -38,28 +52,69 @@ public class WorkerTask extends ALoopTask {
 			dataCopy = new byte[count];
 			System.arraycopy(data, 0, dataCopy, 0, count);
 		}
-		synchronized (queue) {
-			queue.add(new ServerDataEvent(connection, dataCopy));
-			queue.notify();
-		}
+		enqueue(new ServerDataEvent(connection, dataCopy));
+	}
+
+	/**
+	 * Processes the received data without copying. The buffer is released to the pool after processing.
+	 */
+	void processData(TcpConnection connection, ByteBuffer buffer) {
+		enqueue(new ServerDataEvent(connection, buffer));
+	}
+
+	private void enqueue(ServerDataEvent dataEvent) {
+		queue.offer(dataEvent);
+		if (waiting) LockSupport.unpark(getThread());
 	}
 
 	@Override
 	protected void iteration() throws InterruptedException {
-		ServerDataEvent dataEvent;
+		ServerDataEvent dataEvent = queue.poll();
 
-		synchronized (queue) {
-			while (queue.isEmpty()) {
-				queue.wait();
-			}
-			dataEvent = queue.remove(0);
+		if (dataEvent == null) {
+			waiting = true;
+			if (queue.isEmpty() && !isAbortRequested()) LockSupport.park(this);
+			waiting = false;
+			return;
 		}
 
-		if (dataEvent.getData() == null) {
-			handler.onConnectionClosed(dataEvent.getConnection());
-		} else {
-			handler.onDataReceived(dataEvent);
+		while (dataEvent != null) {
+			process(dataEvent);
+			if (isAbortRequested()) return;
+			dataEvent = queue.poll();
 		}
 	}
 
+	private void process(ServerDataEvent dataEvent) {
+		long start = System.nanoTime();
+		try {
+			if (dataEvent.isConnectionClosed()) {
+				handler.onConnectionClosed(dataEvent.getConnection());
+			} else {
+				handler.onDataReceived(dataEvent);
+			}
+		} finally {
+			ByteBuffer buffer = dataEvent.releaseBuffer();
+			if (buffer != null && bufferPool != null) bufferPool.release(buffer);
+			statistics.onEventProcessed(start - dataEvent.time, System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	protected boolean isRunInTransactionEnabled() {
+		return false;
+	}
+
+	@Override
+	protected void sleep() {
+		// parking in iteration() when idle
+	}
+
+	@Override
+	public void abort() {
+		super.abort();
+		Thread thread = getThread();
+		if (thread != null) LockSupport.unpark(thread);
+	}
+
 }
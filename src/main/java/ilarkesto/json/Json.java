@@ -1,5 +1,6 @@
 package ilarkesto.json;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.math.BigDecimal;
@@ -11,20 +12,28 @@ import java.util.Map;
 public class Json {
 
 	public static void printValue(Object value, PrintWriter out, int indentation) {
+		JsonWriter writer = new JsonWriter(out);
+		try {
+			writeValue(value, writer, indentation);
+			writer.flush();
+		} catch (IOException ex) {
+			throw new RuntimeException("Writing JSON failed", ex);
+		}
+	}
+
+	public static void writeValue(Object value, JsonWriter out, int indentation) throws IOException {
 		if (value == null) {
-			out.print("null");
+			out.writeNull();
 			return;
 		}
 
 		if (value instanceof String) {
-			out.print('"');
-			out.print(escapeString((String) value));
-			out.print('"');
+			out.writeString((String) value);
 			return;
 		}
 
 		if (value instanceof Iterable) {
-			out.print('[');
+			out.write('[');
 			if (indentation >= 0) indentation++;
 			boolean indentArray = indentation > 0 && !isShort((Iterable) value);
 			Iterable list = (Iterable) value;
@@ -33,41 +42,45 @@ public class Json {
 				if (first) {
 					first = false;
 				} else {
-					out.print(',');
+					out.write(',');
 				}
 				if (indentArray) {
-					out.print('\n');
-					indent(out, indentation);
+					out.write('\n');
+					out.writeIndentation('\t', indentation);
 				}
-				printValue(element, out, indentation);
+				writeValue(element, out, indentation);
 			}
 			if (indentArray) {
-				out.print('\n');
+				out.write('\n');
 			}
 			if (indentation >= 0) indentation--;
-			indent(out, indentation);
-			out.print(']');
+			out.writeIndentation('\t', indentation);
+			out.write(']');
 			return;
 		}
 
 		if (value instanceof JsonObject) {
-			((JsonObject) value).print(out, indentation);
+			((JsonObject) value).write(out, indentation);
 			return;
 		}
 
 		if (value instanceof JsonWrapper) {
-			((JsonWrapper) value).getJson().print(out, indentation);
+			((JsonWrapper) value).getJson().write(out, indentation);
 			return;
 		}
 
-		out.print(value);
+		out.write(value.toString());
 	}
 
 	public static String valueToString(Object value, int indentation) {
 		StringWriter stringWriter = new StringWriter();
-		PrintWriter out = new PrintWriter(stringWriter);
-		printValue(value, out, indentation);
-		out.flush();
+		JsonWriter out = new JsonWriter(stringWriter);
+		try {
+			writeValue(value, out, indentation);
+			out.flush();
+		} catch (IOException ex) {
+			throw new RuntimeException("Writing JSON failed", ex);
+		}
 		return stringWriter.toString();
 	}
 
@@ -90,47 +103,116 @@ public class Json {
 		return false;
 	}
 
-	static void indent(PrintWriter out, int indentation) {
-		for (int i = 0; i < indentation; i++) {
-			out.print('\t');
-		}
-	}
-
 	public static String escapeString(String s) {
 		if (s == null) return "";
-		s = s.replace("\\", "\\\\");
-		s = s.replace("\"", "\\\"");
-		// s = s.replace("/", "\\/"); seams not to be necessary
-		s = s.replace("\b", "\\b");
-		s = s.replace("\f", "\\f");
-		s = s.replace("\n", "\\n");
-		s = s.replace("\r", "\\r");
-		s = s.replace("\t", "\\t");
-		return s;
+		if (!JsonWriter.isEscapingRequired(s)) return s;
+		StringBuilder sb = new StringBuilder(s.length() + 16);
+		JsonWriter.appendEscaped(sb, s);
+		return sb.toString();
 	}
 
+	private static volatile boolean parseDecimalsAsDouble;
+
+	/**
+	 * Decodes escape sequences in a single pass.
+	 */
 	public static String parseString(String s) {
-		int idx = s.indexOf("\\u");
-		while (idx >= 0) {
-			String code = s.substring(idx + 2, idx + 6);
-			char ch = (char) Integer.parseInt(code, 16);
-			s = s.replace("\\u" + code, String.valueOf(ch));
-			idx = s.indexOf("\\u", idx);
-		}
-		s = s.replace("\\\"", "\"");
-		s = s.replace("\\\\", "\\");
-		s = s.replace("\\/", "/");
-		s = s.replace("\\b", "\b");
-		s = s.replace("\\f", "\f");
-		s = s.replace("\\n", "\n");
-		s = s.replace("\\r", "\r");
-		s = s.replace("\\t", "\t");
-		return s;
+		return parseString(s, 0, s.length());
+	}
+
+	/**
+	 * Decodes escape sequences of the given range in a single pass, without copying the range first.
+	 */
+	public static String parseString(String s, int start, int end) {
+		int backslash = s.indexOf('\\', start);
+		if (backslash < 0 || backslash >= end) return s.substring(start, end);
+
+		StringBuilder sb = new StringBuilder(end - start);
+		sb.append(s, start, backslash);
+		int i = backslash;
+		while (i < end) {
+			char c = s.charAt(i);
+			if (c != '\\' || i + 1 >= end) {
+				sb.append(c);
+				i++;
+				continue;
+			}
+			char escaped = s.charAt(i + 1);
+			switch (escaped) {
+				case '"':
+				case '\\':
+				case '/':
+					sb.append(escaped);
+					break;
+				case 'b':
+					sb.append('\b');
+					break;
+				case 'f':
+					sb.append('\f');
+					break;
+				case 'n':
+					sb.append('\n');
+					break;
+				case 'r':
+					sb.append('\r');
+					break;
+				case 't':
+					sb.append('\t');
+					break;
+				case 'u':
+					if (i + 6 <= end) {
+						sb.append((char) Integer.parseInt(s.substring(i + 2, i + 6), 16));
+						i += 6;
+						continue;
+					}
+					sb.append(c).append(escaped);
+					break;
+				default:
+					sb.append(c).append(escaped);
+			}
+			i += 2;
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Parse decimals as <code>Double</code> instead of <code>BigDecimal</code> when a double represents them
+	 * exactly enough (up to 15 significant digits).
+	 */
+	public static void setParseDecimalsAsDouble(boolean parseDecimalsAsDouble) {
+		Json.parseDecimalsAsDouble = parseDecimalsAsDouble;
+	}
+
+	public static boolean isParseDecimalsAsDouble() {
+		return parseDecimalsAsDouble;
 	}
 
 	public static Number parseNumber(String s) throws NumberFormatException {
-		if (s.contains(".")) return new BigDecimal(s);
-		return Long.parseLong(s);
+		int length = s.length();
+		int digits = 0;
+		boolean nonZero = false;
+		boolean decimal = false;
+		for (int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+			if (c >= '0' && c <= '9') {
+				digits++;
+				if (c != '0') nonZero = true;
+			} else if (c == '.') {
+				decimal = true;
+			} else if (c == 'e' || c == 'E') {
+				// exponent digits do not count as significant digits
+				decimal = true;
+				break;
+			}
+		}
+		if (!decimal) return Long.parseLong(s);
+		if (parseDecimalsAsDouble && digits <= 15) {
+			double d = Double.parseDouble(s);
+			// exponents out of the normal range overflow to infinity or lose precision
+			double abs = Math.abs(d);
+			if (!Double.isInfinite(d) && (abs >= Double.MIN_NORMAL || (abs == 0 && !nonZero))) return d;
+		}
+		return new BigDecimal(s);
 	}
 
 	public static boolean isWhitespace(char c) {
@@ -165,6 +247,42 @@ public class Json {
 		return -1;
 	}
 
+	/**
+	 * @return index after the value starting at <code>offset</code>, without decoding it
+	 */
+	static int skipValue(String s, int offset) {
+		int len = s.length();
+		char first = s.charAt(offset);
+		if (first == '"') {
+			int end = getFirstQuoting(s, offset + 1);
+			if (end < 0) throw new ParseException("Unclosed string value", s, offset);
+			return end + 1;
+		}
+		if (first == '{' || first == '[') {
+			int depth = 0;
+			for (int i = offset; i < len; i++) {
+				char ch = s.charAt(i);
+				if (ch == '"') {
+					i = getFirstQuoting(s, i + 1);
+					if (i < 0) break;
+				} else if (ch == '{' || ch == '[') {
+					depth++;
+				} else if (ch == '}' || ch == ']') {
+					depth--;
+					if (depth == 0) return i + 1;
+				}
+			}
+			throw new ParseException(first == '{' ? "Unclosed object" : "Unclosed array", s, offset);
+		}
+		int i = offset + 1;
+		while (i < len) {
+			char ch = s.charAt(i);
+			if (ch == ',' || ch == '}' || ch == ']' || isWhitespace(ch)) break;
+			i++;
+		}
+		return i;
+	}
+
 	static int getFirstQuoting(String s, int offset) {
 		int len = s.length();
 		for (int i = offset; i < len; i++) {
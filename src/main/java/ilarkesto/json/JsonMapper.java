@@ -27,7 +27,6 @@ import ilarkesto.json.JsonSaxParser.ContentHandler;
 import ilarkesto.json.JsonSaxParser.ParseException;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
@@ -35,12 +34,15 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class JsonMapper {
 
@@ -77,75 +79,98 @@ public class JsonMapper {
 		return handler.getObject();
 	}
 
+	/**
+	 * Maps the object which begins with the current token of the parser.
+	 */
+	public static <T> T deserialize(JsonPullParser parser, Class<T> type, TypeResolver typeResolver)
+			throws IOException, ParseException {
+		ObjectMappingContentHandler<T> handler = new ObjectMappingContentHandler<T>(type, typeResolver);
+		parser.readValue(handler);
+		return handler.getObject();
+	}
+
+	private static final Map<Class, FieldAccessor[]> fieldAccessorsByClass = new ConcurrentHashMap<Class, FieldAccessor[]>();
+
 	public static void serialize(Object object, PrintWriter out) {
 		serialize(object, out, 0);
 	}
 
 	public static void serialize(Object object, PrintWriter out, int indent) {
+		serialize(object, (Writer) out, indent);
+	}
+
+	public static void serialize(Object object, Writer out, int indent) {
+		JsonWriter writer = new JsonWriter(out);
+		try {
+			serialize(object, writer, indent);
+			writer.flush();
+		} catch (IOException ex) {
+			throw new RuntimeException("Writing JSON failed", ex);
+		}
+	}
+
+	public static void serialize(Object object, JsonWriter out, int indent) throws IOException {
 		if (object == null || object instanceof String || object instanceof Number || object instanceof Boolean) {
-			Json.printValue(object, out, 0);
+			Json.writeValue(object, out, 0);
 			return;
 		}
 
 		if (object instanceof Date || object instanceof Time || object instanceof DateAndTime
 				|| object instanceof DateRange || object instanceof DayAndMonth || object instanceof Money) {
-			Json.printValue(object.toString(), out, 0);
+			out.writeString(object.toString());
 			return;
 		}
 
 		// TODO array handling
 
 		if (object instanceof Iterable) {
-			out.print("[ ");
+			out.write("[ ");
 			boolean first = true;
 			for (Object item : ((Iterable) object)) {
 				if (first) {
 					first = false;
 				} else {
-					out.print(", ");
+					out.write(", ");
 				}
 				serialize(item, out, indent);
 			}
-			out.print(" ]");
+			out.write(" ]");
 			return;
 		}
 
-		out.print('{');
+		out.write('{');
 		indent++;
 		boolean first = true;
-		for (Field field : Reflect.getSerializableFields(object)) {
+		for (FieldAccessor accessor : getFieldAccessors(object.getClass())) {
 			if (first) {
 				first = false;
 			} else {
-				out.print(',');
-			}
-			nlindent(out, indent);
-			out.print('\"');
-			out.print(Json.escapeString(field.getName()));
-			out.print("\": ");
-			Object fieldValue;
-			if (!field.isAccessible()) field.setAccessible(true);
-			try {
-				fieldValue = field.get(object);
-			} catch (Exception ex) {
-				throw new RuntimeException("Reading field value from " + field.getClass() + "." + field.getName()
-						+ " failed.", ex);
+				out.write(',');
 			}
-			serialize(fieldValue, out, indent);
+			out.write('\n');
+			out.writeIndentation(' ', indent);
+			out.write(accessor.prefix);
+			serialize(accessor.get(object), out, indent);
 		}
 		indent--;
-		nlindent(out, indent);
-		out.print('}');
-	}
-
-	private static void nlindent(PrintWriter out, int indent) {
-		out.print('\n');
-		indent(out, indent);
+		out.write('\n');
+		out.writeIndentation(' ', indent);
+		out.write('}');
 	}
 
-	private static void indent(PrintWriter out, int indent) {
-		for (int i = 0; i < indent; i++)
-			out.print(' ');
+	/**
+	 * Serializable fields of a class, made accessible once and cached.
+	 */
+	private static FieldAccessor[] getFieldAccessors(Class type) {
+		FieldAccessor[] accessors = fieldAccessorsByClass.get(type);
+		if (accessors != null) return accessors;
+		List<Field> fields = Reflect.getFields(type, false, true, false);
+		accessors = new FieldAccessor[fields.size()];
+		for (int i = 0; i < accessors.length; i++) {
+			accessors[i] = new FieldAccessor(fields.get(i));
+		}
+		fieldAccessorsByClass.put(type, accessors);
+		return accessors;
 	}
 
 	public static void serialize(Object object, File file) throws IOException {
@@ -157,9 +182,12 @@ public class JsonMapper {
 		file.getParentFile().mkdirs();
 
 		File tempFile = new File(file.getPath() + ".tmp");
-		PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(tempFile)));
-		serialize(object, out);
-		out.close();
+		Writer out = new FileWriter(tempFile);
+		try {
+			serialize(object, out, 0);
+		} finally {
+			out.close();
+		}
 
 		try {
 			IO.delete(file);
@@ -171,9 +199,7 @@ public class JsonMapper {
 
 	public static String serialize(Object object) {
 		StringWriter stringWriter = new StringWriter();
-		PrintWriter out = new PrintWriter(stringWriter);
-		serialize(object, out);
-		out.close();
+		serialize(object, stringWriter, 0);
 		return stringWriter.toString();
 	}
 
@@ -213,6 +239,28 @@ public class JsonMapper {
 
 	}
 
+	private static class FieldAccessor {
+
+		private final Field field;
+		private final String prefix;
+
+		public FieldAccessor(Field field) {
+			this.field = field;
+			this.prefix = "\"" + Json.escapeString(field.getName()) + "\": ";
+			if (!field.isAccessible()) field.setAccessible(true);
+		}
+
+		public Object get(Object object) {
+			try {
+				return field.get(object);
+			} catch (Exception ex) {
+				throw new RuntimeException("Reading field value from " + field.getDeclaringClass() + "."
+						+ field.getName() + " failed.", ex);
+			}
+		}
+
+	}
+
 	private static class ObjectMappingContentHandler<T> implements ContentHandler {
 
 		private Class<T> objectType;
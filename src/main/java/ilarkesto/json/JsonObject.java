@@ -1,7 +1,6 @@
 package ilarkesto.json;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileWriter;
@@ -45,9 +44,21 @@ public class JsonObject {
 	private JsonObject parent;
 	private File file;
 
-	public JsonObject() {}
+	/**
+	 * Source of a lazily parsed object. Values are decoded from it when accessed. Lazy objects index and decode
+	 * while holding their own lock, so they stay safe for concurrent reading like eagerly parsed objects.
+	 */
+	private String source;
+	private int sourceOffset;
+	private final boolean lazy;
+	private boolean indexed;
+
+	public JsonObject() {
+		lazy = false;
+	}
 
 	private JsonObject(String json, int offset) {
+		lazy = false;
 		parse(json, offset);
 	}
 
@@ -55,7 +66,15 @@ public class JsonObject {
 		this(json, 0);
 	}
 
+	private JsonObject(String source, int offset, JsonObject parent) {
+		this.lazy = true;
+		this.source = source;
+		this.sourceOffset = offset;
+		this.parent = parent;
+	}
+
 	public JsonObject(Map<?, ?> map) {
+		lazy = false;
 		for (Map.Entry entry : map.entrySet()) {
 			String name = entry.getKey().toString();
 			put(name, entry.getValue());
@@ -63,6 +82,7 @@ public class JsonObject {
 	}
 
 	public Map<String, String> toMapOfStrings() {
+		materialize();
 		LinkedHashMap<String, String> ret = new LinkedHashMap<String, String>();
 		for (Entry<String, Object> entry : elements.entrySet()) {
 			Object value = entry.getValue();
@@ -76,6 +96,17 @@ public class JsonObject {
 		return new JsonObject(json, 0);
 	}
 
+	/**
+	 * Parses only the structure of the top level object. Values are decoded and nested objects are indexed when
+	 * they are accessed, so untouched parts of a large document cost no more than the source string.
+	 */
+	public static JsonObject parseLazy(String json) {
+		if (json == null || json.length() == 0) return new JsonObject();
+		JsonObject object = new JsonObject(json, 0, null);
+		object.ensureIndexed();
+		return object;
+	}
+
 	public File getFile() {
 		return file;
 	}
@@ -85,6 +116,15 @@ public class JsonObject {
 	}
 
 	public static JsonObject loadFile(File file, boolean createEmptyIfNoFile) {
+		return loadFile(file, createEmptyIfNoFile, false);
+	}
+
+	/**
+	 * @param lazy see <code>parseLazy()</code>. Only the structure of the top level object is checked while
+	 *            loading, errors in nested values are thrown when they are accessed. An empty object is created
+	 *            for a malformed file only if the top level structure is broken.
+	 */
+	public static JsonObject loadFile(File file, boolean createEmptyIfNoFile, boolean lazy) {
 		if (!file.exists()) {
 			if (createEmptyIfNoFile) {
 				JsonObject json = new JsonObject();
@@ -95,7 +135,8 @@ public class JsonObject {
 		}
 		JsonObject object;
 		try {
-			object = parse(load(file));
+			String json = load(file);
+			object = lazy ? parseLazy(json) : parse(json);
 		} catch (ParseException ex) {
 			if (!createEmptyIfNoFile) throw ex;
 			object = new JsonObject();
@@ -149,25 +190,32 @@ public class JsonObject {
 	@Override
 	public boolean equals(Object obj) {
 		if (!(obj instanceof JsonObject)) return false;
-		return elements.equals(((JsonObject) obj).elements);
+		JsonObject other = (JsonObject) obj;
+		materialize();
+		other.materialize();
+		return elements.equals(other.elements);
 	}
 
 	@Override
 	public int hashCode() {
+		materialize();
 		return elements.hashCode();
 	}
 
 	// --- inspecting ---
 
 	public Set<String> getProperties() {
+		ensureIndexed();
 		return elements.keySet();
 	}
 
 	public Object get(String name) {
+		if (lazy) return getLazy(name);
 		return elements.get(name);
 	}
 
 	public boolean contains(String name) {
+		ensureIndexed();
 		return elements.containsKey(name);
 	}
 
@@ -181,7 +229,7 @@ public class JsonObject {
 	}
 
 	public boolean isSet(String name) {
-		if (!elements.containsKey(name)) return false;
+		if (!contains(name)) return false;
 		return get(name) != null;
 	}
 
@@ -295,31 +343,76 @@ public class JsonObject {
 		return parent;
 	}
 
+	/**
+	 * Navigates along property names and array indexes. Only the values on the path are decoded.
+	 * 
+	 * @return the value or <code>null</code> if the path does not exist
+	 */
+	public Object getDeep(String... path) {
+		Object value = this;
+		for (String step : path) {
+			if (value instanceof JsonObject) {
+				value = ((JsonObject) value).get(step);
+			} else if (value instanceof List) {
+				List list = (List) value;
+				int index;
+				try {
+					index = Integer.parseInt(step);
+				} catch (NumberFormatException ex) {
+					return null;
+				}
+				value = index >= 0 && index < list.size() ? list.get(index) : null;
+			} else {
+				return null;
+			}
+			if (value == null) return null;
+		}
+		return value;
+	}
+
+	/**
+	 * Navigates along a path like <code>"payload.items[2].name"</code>.
+	 * 
+	 * @see #getDeep(String...)
+	 */
+	public Object getByPath(String path) {
+		List<String> steps = new ArrayList<String>();
+		int length = path.length();
+		int start = 0;
+		for (int i = 0; i <= length; i++) {
+			char c = i == length ? '.' : path.charAt(i);
+			if (c != '.' && c != '[' && c != ']') continue;
+			if (i > start) steps.add(path.substring(start, i));
+			start = i + 1;
+		}
+		return getDeep(steps.toArray(new String[steps.size()]));
+	}
+
 	public String getDeepString(String... path) {
-		JsonObject json = getDeepParent(path);
-		if (json == null) return null;
-		return json.getString(path[path.length - 1]);
+		return (String) getDeep(path);
 	}
 
-	public JsonObject getDeepObject(String... path) {
-		JsonObject json = getDeepParent(path);
-		if (json == null) return null;
-		return json.getObject(path[path.length - 1]);
+	public Number getDeepNumber(String... path) {
+		return (Number) getDeep(path);
 	}
 
-	public List<JsonObject> getDeepArrayOfObjects(String... path) {
-		JsonObject json = getDeepParent(path);
-		if (json == null) return null;
-		return json.getArrayOfObjects(path[path.length - 1]);
+	public Long getDeepLong(String... path) {
+		Number value = getDeepNumber(path);
+		if (value == null) return null;
+		if (value instanceof Long) return (Long) value;
+		return value.longValue();
 	}
 
-	private JsonObject getDeepParent(String... path) {
-		JsonObject json = this;
-		for (int i = 0; i < path.length - 1; i++) {
-			json = json.getObject(path[i]);
-			if (json == null) return null;
-		}
-		return json;
+	public Boolean getDeepBoolean(String... path) {
+		return (Boolean) getDeep(path);
+	}
+
+	public JsonObject getDeepObject(String... path) {
+		return (JsonObject) getDeep(path);
+	}
+
+	public List<JsonObject> getDeepArrayOfObjects(String... path) {
+		return (List<JsonObject>) getDeep(path);
 	}
 
 	// --- manipulating ---
@@ -337,6 +430,7 @@ public class JsonObject {
 
 	public <V> V put(String name, V value) {
 		if (name == null || name.length() == 0) throw new RuntimeException("name required");
+		ensureIndexed();
 		elements.put(name, adopt(value));
 		return value;
 	}
@@ -373,7 +467,10 @@ public class JsonObject {
 
 	public Object remove(String name) {
 		if (name == null || name.length() == 0) throw new RuntimeException("name required");
-		return elements.remove(name);
+		ensureIndexed();
+		Object value = elements.remove(name);
+		if (value instanceof LazyValue) value = decodeLazyValue((LazyValue) value);
+		return value;
 	}
 
 	public JsonObject putNewObject(String name) {
@@ -398,38 +495,36 @@ public class JsonObject {
 
 	// --- formating ---
 
-	void print(PrintWriter out, int indentation) {
+	public void write(JsonWriter out, int indentation) throws IOException {
+		materialize();
 		if (Json.isShort(elements.values())) indentation = -1;
-		out.print('{');
+		out.write('{');
 		if (indentation >= 0) indentation++;
 		boolean first = true;
 		for (Map.Entry<String, Object> element : elements.entrySet()) {
 			if (first) {
 				first = false;
 			} else {
-				out.print(',');
+				out.write(',');
 			}
-			if (indentation >= 0) out.print('\n');
-			Json.indent(out, indentation);
-			out.print('"');
-			out.print(Json.escapeString(element.getKey()));
-			out.print("\":");
-			if (indentation >= 0) out.print(' ');
-			Json.printValue(element.getValue(), out, indentation);
+			if (indentation >= 0) out.write('\n');
+			out.writeIndentation('\t', indentation);
+			out.writeString(element.getKey());
+			out.write(':');
+			if (indentation >= 0) out.write(' ');
+			Json.writeValue(element.getValue(), out, indentation);
 		}
 		if (indentation >= 0) {
 			indentation--;
-			out.print('\n');
-			Json.indent(out, indentation);
+			out.write('\n');
+			out.writeIndentation('\t', indentation);
 		}
-		out.print('}');
+		out.write('}');
 	}
 
 	public String toString(int indentation) {
 		StringWriter stringWriter = new StringWriter();
-		PrintWriter out = new PrintWriter(stringWriter);
-		print(out, indentation);
-		out.flush();
+		write(stringWriter, indentation);
 		return stringWriter.toString();
 	}
 
@@ -506,9 +601,9 @@ public class JsonObject {
 			idx++;
 			int valueEndIdx = Json.getFirstQuoting(json, idx);
 			if (valueEndIdx < 0) throw new ParseException("Unclosed element string value", json, idx);
-			String value = json.substring(idx, valueEndIdx);
+			String value = Json.parseString(json, idx, valueEndIdx);
 			idx = valueEndIdx + 1;
-			return Json.parseString(value);
+			return value;
 		} else if (json.charAt(idx) == '{') {
 			JsonObject value = new JsonObject(json, idx);
 			idx = value.idx;
@@ -550,41 +645,164 @@ public class JsonObject {
 		}
 	}
 
+	// --- lazy parsing ---
+
+	private synchronized Object getLazy(String name) {
+		ensureIndexed();
+		Object value = elements.get(name);
+		if (value instanceof LazyValue) {
+			value = decodeLazyValue((LazyValue) value);
+			elements.put(name, value);
+		}
+		return value;
+	}
+
+	private void ensureIndexed() {
+		if (lazy) index();
+	}
+
+	/**
+	 * Scans the structure of a lazy object: names are extracted, values only located.
+	 */
+	private synchronized void index() {
+		if (indexed) return;
+		elements.clear();
+		String json = source;
+		int i = skipWhitespace(json, sourceOffset, "'{'");
+		if (json.charAt(i) != '{') throw new ParseException("Expecting '{'", json, i);
+		i = skipWhitespace(json, i + 1, "elements or '}'");
+		while (json.charAt(i) != '}') {
+			if (json.charAt(i) != '"') throw new ParseException("Expecting '\"'", json, i);
+			int nameEndIdx = Json.getFirstQuoting(json, i + 1);
+			if (nameEndIdx < 0) throw new ParseException("Unclosed element name", json, i + 1);
+			String name = json.substring(i + 1, nameEndIdx);
+			i = skipWhitespace(json, nameEndIdx + 1, "':'");
+			if (json.charAt(i) != ':')
+				throw new ParseException("Expecting ':' after element name \"" + name + "\"", json, i);
+			int valueStart = skipWhitespace(json, i + 1, "element value");
+			int valueEnd = Json.skipValue(json, valueStart);
+			elements.put(name, new LazyValue(valueStart, valueEnd));
+			i = skipWhitespace(json, valueEnd, "',' or '}'");
+			if (json.charAt(i) == '}') break;
+			if (json.charAt(i) != ',') throw new ParseException("Expecting ','", json, i);
+			i = skipWhitespace(json, i + 1, "elements or '}'");
+		}
+		indexed = true;
+	}
+
+	/**
+	 * Decodes all values of this object. Nested objects stay lazy.
+	 */
+	private void materialize() {
+		if (lazy) materializeLazy();
+	}
+
+	private synchronized void materializeLazy() {
+		index();
+		if (source == null) return;
+		for (Map.Entry<String, Object> entry : elements.entrySet()) {
+			Object value = entry.getValue();
+			if (value instanceof LazyValue) entry.setValue(decodeLazyValue((LazyValue) value));
+		}
+		source = null;
+	}
+
+	private Object decodeLazyValue(LazyValue value) {
+		return decodeValue(source, value.start, value.end);
+	}
+
+	private Object decodeValue(String json, int start, int end) {
+		char c = json.charAt(start);
+		if (c == '"') return Json.parseString(json, start + 1, end - 1);
+		if (c == '{') return new JsonObject(json, start, this);
+		if (c == '[') return decodeArray(json, start);
+		if (json.startsWith("null", start)) return null;
+		if (json.startsWith("true", start)) return true;
+		if (json.startsWith("false", start)) return false;
+		String sNumber = json.substring(start, end);
+		try {
+			return Json.parseNumber(sNumber);
+		} catch (NumberFormatException ex) {
+			throw new ParseException("Expecting number in <" + sNumber + ">", json, start);
+		}
+	}
+
+	private List decodeArray(String json, int start) {
+		List list = new ArrayList();
+		int i = skipWhitespace(json, start + 1, "array");
+		while (json.charAt(i) != ']') {
+			int end = Json.skipValue(json, i);
+			list.add(decodeValue(json, i, end));
+			i = skipWhitespace(json, end, "array");
+			if (json.charAt(i) == ']') break;
+			if (json.charAt(i) != ',') throw new ParseException("Expecting array separator ','", json, i);
+			i = skipWhitespace(json, i + 1, "array");
+		}
+		return list;
+	}
+
+	private static int skipWhitespace(String json, int offset, String expectation) {
+		int i = Json.getFirstNonWhitespaceIndex(json, offset);
+		if (i < 0) throw new ParseException("Expecting " + expectation, json, offset);
+		return i;
+	}
+
+	private static class LazyValue {
+
+		private final int start;
+		private final int end;
+
+		public LazyValue(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+	}
+
 	// --- IO ---
 
 	public void write(OutputStream out, boolean formated) {
-		BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out));
-		write(writer, formated);
+		write(new OutputStreamWriter(out), formated);
+	}
+
+	public void write(Writer out, boolean formated) {
+		write(out, formated ? 0 : -1);
+	}
+
+	private void write(Writer out, int indentation) {
+		JsonWriter writer = new JsonWriter(out);
 		try {
+			write(writer, indentation);
 			writer.flush();
 		} catch (IOException ex) {
 			throw new RuntimeException("Writing failed", ex);
 		}
 	}
 
-	public void write(Writer out, boolean formated) {
-		write(new PrintWriter(out), formated);
-	}
-
 	public void write(File file, boolean formated) {
 		File dir = file.getParentFile();
 		if (!dir.exists()) {
 			if (!dir.mkdirs()) throw new RuntimeException("Creating directory failed: " + dir.getAbsolutePath());
 		}
-		PrintWriter out;
+		Writer out;
 		try {
-			out = new PrintWriter(new FileWriter(file));
+			out = new FileWriter(file);
 		} catch (IOException ex) {
 			throw new RuntimeException("Writing file failed: " + file.getAbsolutePath(), ex);
 		}
-		write(out, formated);
-		out.close();
+		try {
+			write(out, formated);
+		} finally {
+			try {
+				out.close();
+			} catch (IOException ex) {
+				throw new RuntimeException("Writing file failed: " + file.getAbsolutePath(), ex);
+			}
+		}
 	}
 
 	public void write(PrintWriter out, boolean formated) {
-		int indentation = formated ? 0 : -1;
-		print(out, indentation);
-		out.flush();
+		write((Writer) out, formated);
 	}
 
 	private static String load(File file) {
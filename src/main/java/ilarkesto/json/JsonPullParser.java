@@ -0,0 +1,288 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.json;
+
+import ilarkesto.json.JsonSaxParser.ContentHandler;
+import ilarkesto.json.JsonSaxParser.ParseException;
+import ilarkesto.json.JsonSaxParser.Yylex;
+import ilarkesto.json.JsonSaxParser.Yytoken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pull parser on top of the <code>JsonSaxParser</code> lexer. The caller decides when to read the next token,
+ * so huge documents, like a top level array of millions of objects, can be processed element by element:
+ * 
+ * <pre>
+ * JsonPullParser parser = new JsonPullParser(reader);
+ * parser.nextToken(); // BEGIN_ARRAY
+ * while (parser.nextToken() == Token.BEGIN_OBJECT) {
+ * 	JsonObject element = parser.readObject();
+ * }
+ * </pre>
+ * 
+ * Not thread safe.
+ */
+public class JsonPullParser {
+
+	public static enum Token {
+		BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, VALUE, END
+	}
+
+	private static final int TOP = 0;
+	private static final int TOP_DONE = 1;
+	private static final int OBJECT_FIRST_NAME = 2;
+	private static final int OBJECT_NAME = 3;
+	private static final int OBJECT_COLON = 4;
+	private static final int OBJECT_VALUE = 5;
+	private static final int OBJECT_COMMA = 6;
+	private static final int ARRAY_FIRST_VALUE = 7;
+	private static final int ARRAY_VALUE = 8;
+	private static final int ARRAY_COMMA = 9;
+
+	private final Yylex lexer;
+
+	private int[] states = new int[32];
+	private int depth;
+
+	private Token token;
+	private String name;
+	private Object value;
+
+	public JsonPullParser(Reader in) {
+		lexer = new Yylex(in);
+		states[0] = TOP;
+	}
+
+	public JsonPullParser(String json) {
+		this(new StringReader(json));
+	}
+
+	/**
+	 * Reads the next token. Commas and colons are consumed silently.
+	 */
+	public Token nextToken() throws IOException, ParseException {
+		while (true) {
+			Yytoken t = lexer.yylex();
+			int state = states[depth];
+			if (t == null) {
+				if (state != TOP_DONE && !(depth == 0 && state == TOP && token == null))
+					throw unexpected("end of input");
+				return setToken(Token.END);
+			}
+			switch (t.type) {
+				case Yytoken.TYPE_LEFT_BRACE:
+					beginValue(state, t);
+					push(OBJECT_FIRST_NAME);
+					return setToken(Token.BEGIN_OBJECT);
+				case Yytoken.TYPE_LEFT_SQUARE:
+					beginValue(state, t);
+					push(ARRAY_FIRST_VALUE);
+					return setToken(Token.BEGIN_ARRAY);
+				case Yytoken.TYPE_RIGHT_BRACE:
+					if (state != OBJECT_FIRST_NAME && state != OBJECT_COMMA) throw unexpected(t);
+					depth--;
+					return setToken(Token.END_OBJECT);
+				case Yytoken.TYPE_RIGHT_SQUARE:
+					if (state != ARRAY_FIRST_VALUE && state != ARRAY_COMMA) throw unexpected(t);
+					depth--;
+					return setToken(Token.END_ARRAY);
+				case Yytoken.TYPE_COMMA:
+					if (state == OBJECT_COMMA) {
+						states[depth] = OBJECT_NAME;
+					} else if (state == ARRAY_COMMA) {
+						states[depth] = ARRAY_VALUE;
+					} else {
+						throw unexpected(t);
+					}
+					continue;
+				case Yytoken.TYPE_COLON:
+					if (state != OBJECT_COLON) throw unexpected(t);
+					states[depth] = OBJECT_VALUE;
+					continue;
+				case Yytoken.TYPE_VALUE:
+					if (state == OBJECT_FIRST_NAME || state == OBJECT_NAME) {
+						if (!(t.value instanceof String)) throw unexpected(t);
+						states[depth] = OBJECT_COLON;
+						name = (String) t.value;
+						value = null;
+						return setToken(Token.NAME);
+					}
+					beginValue(state, t);
+					value = t.value;
+					return setToken(Token.VALUE);
+				default:
+					throw unexpected(t);
+			}
+		}
+	}
+
+	/**
+	 * Skips the current value: if the current token begins an object or array, everything up to its end.
+	 * If the current token is a name, its value.
+	 */
+	public void skipValue() throws IOException, ParseException {
+		if (token == Token.NAME) nextToken();
+		if (token != Token.BEGIN_OBJECT && token != Token.BEGIN_ARRAY) return;
+		int targetDepth = depth - 1;
+		while (depth > targetDepth) {
+			if (nextToken() == Token.END) throw unexpected("end of input");
+		}
+	}
+
+	/**
+	 * Reads the object which begins with the current token.
+	 */
+	public JsonObject readObject() throws IOException, ParseException {
+		if (token == Token.NAME) nextToken();
+		if (token != Token.BEGIN_OBJECT) throw unexpected(String.valueOf(token));
+		return (JsonObject) readValue();
+	}
+
+	/**
+	 * Reads the value which begins with the current token into a <code>JsonObject</code>, a <code>List</code> or
+	 * a primitive.
+	 */
+	public Object readValue() throws IOException, ParseException {
+		if (token == Token.NAME) nextToken();
+		switch (token) {
+			case VALUE:
+				return value;
+			case BEGIN_OBJECT:
+				JsonObject object = new JsonObject();
+				while (nextToken() == Token.NAME) {
+					String elementName = name;
+					nextToken();
+					object.put(elementName, readValue());
+				}
+				return object;
+			case BEGIN_ARRAY:
+				List list = new ArrayList();
+				while (nextToken() != Token.END_ARRAY) {
+					list.add(readValue());
+				}
+				return list;
+			default:
+				throw unexpected(String.valueOf(token));
+		}
+	}
+
+	/**
+	 * Feeds the value which begins with the current token to a handler of the push parser.
+	 */
+	public void readValue(ContentHandler handler) throws IOException, ParseException {
+		if (token == Token.NAME) nextToken();
+		switch (token) {
+			case VALUE:
+				handler.onPrimitiveValue(value);
+				return;
+			case BEGIN_OBJECT:
+				handler.onBeginObject();
+				while (nextToken() == Token.NAME) {
+					handler.onBeginAttribute(name);
+					nextToken();
+					readValue(handler);
+					handler.onEndAttribute();
+				}
+				handler.onEndObject();
+				return;
+			case BEGIN_ARRAY:
+				handler.onBeginArray();
+				while (nextToken() != Token.END_ARRAY) {
+					readValue(handler);
+				}
+				handler.onEndArray();
+				return;
+			default:
+				throw unexpected(String.valueOf(token));
+		}
+	}
+
+	public Token getToken() {
+		return token;
+	}
+
+	/**
+	 * @return name of the current <code>NAME</code> token
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return value of the current <code>VALUE</code> token: <code>String</code>, <code>Long</code>,
+	 *         <code>BigDecimal</code>, <code>Boolean</code> or <code>null</code>
+	 */
+	public Object getValue() {
+		return value;
+	}
+
+	/**
+	 * @return number of objects and arrays the parser is in
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	public int getPosition() {
+		return lexer.getPosition();
+	}
+
+	public void close() throws IOException {
+		lexer.yyclose();
+	}
+
+	private Token setToken(Token token) {
+		this.token = token;
+		return token;
+	}
+
+	private void beginValue(int state, Yytoken t) throws ParseException {
+		switch (state) {
+			case TOP:
+				states[depth] = TOP_DONE;
+				break;
+			case OBJECT_VALUE:
+				states[depth] = OBJECT_COMMA;
+				break;
+			case ARRAY_FIRST_VALUE:
+			case ARRAY_VALUE:
+				states[depth] = ARRAY_COMMA;
+				break;
+			default:
+				throw unexpected(t);
+		}
+	}
+
+	private void push(int state) {
+		depth++;
+		if (depth == states.length) {
+			int[] newStates = new int[states.length * 2];
+			System.arraycopy(states, 0, newStates, 0, states.length);
+			states = newStates;
+		}
+		states[depth] = state;
+	}
+
+	private ParseException unexpected(Object unexpected) {
+		return new ParseException(lexer.getPosition(), ParseException.ERROR_UNEXPECTED_TOKEN,
+				String.valueOf(unexpected));
+	}
+
+}
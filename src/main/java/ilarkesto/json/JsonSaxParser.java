@@ -31,6 +31,8 @@ public class JsonSaxParser {
 	public static final int S_END = 6;
 	public static final int S_IN_ERROR = -1;
 
+	private static final Yytoken EOF = new Yytoken(Yytoken.TYPE_EOF, null);
+
 	private LinkedList handlerStatusStack;
 	private Yylex lexer = new Yylex((Reader) null);
 	private Yytoken token = null;
@@ -73,7 +75,7 @@ public class JsonSaxParser {
 
 	private void nextToken() throws ParseException, IOException {
 		token = lexer.yylex();
-		if (token == null) token = new Yytoken(Yytoken.TYPE_EOF, null);
+		if (token == null) token = EOF;
 	}
 
 	public void parse(String s, ContentHandler contentHandler) throws ParseException {
@@ -657,7 +659,18 @@ public class JsonSaxParser {
 		private boolean zzAtEOF;
 
 		/* user code: */
-		private StringBuffer sb = new StringBuffer();
+		private StringBuilder sb = new StringBuilder();
+
+		/**
+		 * The only token instance of this lexer. It is valid until the next call of <code>yylex()</code>.
+		 */
+		private final Yytoken token = new Yytoken(Yytoken.TYPE_EOF, null);
+
+		private Yytoken token(int type, Object value) {
+			token.type = type;
+			token.value = value;
+			return token;
+		}
 
 		int getPosition() {
 			return yychar;
@@ -935,13 +948,12 @@ public class JsonSaxParser {
 
 				switch (zzAction < 0 ? zzAction : ZZ_ACTION[zzAction]) {
 					case 11: {
-						sb.append(yytext());
+						sb.append(zzBuffer, zzStartRead, zzMarkedPos - zzStartRead);
 					}
 					case 25:
 						break;
 					case 4: {
-						sb = null;
-						sb = new StringBuffer();
+						sb.setLength(0);
 						yybegin(STRING_BEGIN);
 					}
 					case 26:
@@ -952,24 +964,24 @@ public class JsonSaxParser {
 					case 27:
 						break;
 					case 6: {
-						return new Yytoken(Yytoken.TYPE_RIGHT_BRACE, null);
+						return token(Yytoken.TYPE_RIGHT_BRACE, null);
 					}
 					case 28:
 						break;
 					case 23: {
 						Boolean val = Boolean.valueOf(yytext());
-						return new Yytoken(Yytoken.TYPE_VALUE, val);
+						return token(Yytoken.TYPE_VALUE, val);
 					}
 					case 29:
 						break;
 					case 22: {
-						return new Yytoken(Yytoken.TYPE_VALUE, null);
+						return token(Yytoken.TYPE_VALUE, null);
 					}
 					case 30:
 						break;
 					case 13: {
 						yybegin(YYINITIAL);
-						return new Yytoken(Yytoken.TYPE_VALUE, sb.toString());
+						return token(Yytoken.TYPE_VALUE, sb.toString());
 					}
 					case 31:
 						break;
@@ -980,7 +992,7 @@ public class JsonSaxParser {
 						break;
 					case 21: {
 						BigDecimal val = new BigDecimal(yytext());
-						return new Yytoken(Yytoken.TYPE_VALUE, val);
+						return token(Yytoken.TYPE_VALUE, val);
 					}
 					case 33:
 						break;
@@ -991,7 +1003,7 @@ public class JsonSaxParser {
 					case 34:
 						break;
 					case 8: {
-						return new Yytoken(Yytoken.TYPE_RIGHT_SQUARE, null);
+						return token(Yytoken.TYPE_RIGHT_SQUARE, null);
 					}
 					case 35:
 						break;
@@ -1006,7 +1018,7 @@ public class JsonSaxParser {
 					case 37:
 						break;
 					case 10: {
-						return new Yytoken(Yytoken.TYPE_COLON, null);
+						return token(Yytoken.TYPE_COLON, null);
 					}
 					case 38:
 						break;
@@ -1016,7 +1028,7 @@ public class JsonSaxParser {
 					case 39:
 						break;
 					case 5: {
-						return new Yytoken(Yytoken.TYPE_LEFT_BRACE, null);
+						return token(Yytoken.TYPE_LEFT_BRACE, null);
 					}
 					case 40:
 						break;
@@ -1026,12 +1038,15 @@ public class JsonSaxParser {
 					case 41:
 						break;
 					case 24: {
-						try {
-							int ch = Integer.parseInt(yytext().substring(2), 16);
-							sb.append((char) ch);
-						} catch (Exception e) {
-							throw new ParseException(yychar, ParseException.ERROR_UNEXPECTED_EXCEPTION, e);
+						int ch = 0;
+						for (int i = 2; i < yylength(); i++) {
+							int digit = Character.digit(yycharat(i), 16);
+							if (digit < 0)
+								throw new ParseException(yychar, ParseException.ERROR_UNEXPECTED_CHAR, new Character(
+										yycharat(i)));
+							ch = ch * 16 + digit;
 						}
+						sb.append((char) ch);
 					}
 					case 42:
 						break;
@@ -1041,13 +1056,13 @@ public class JsonSaxParser {
 					case 43:
 						break;
 					case 7: {
-						return new Yytoken(Yytoken.TYPE_LEFT_SQUARE, null);
+						return token(Yytoken.TYPE_LEFT_SQUARE, null);
 					}
 					case 44:
 						break;
 					case 2: {
 						Long val = Long.valueOf(yytext());
-						return new Yytoken(Yytoken.TYPE_VALUE, val);
+						return token(Yytoken.TYPE_VALUE, val);
 					}
 					case 45:
 						break;
@@ -1057,7 +1072,7 @@ public class JsonSaxParser {
 					case 46:
 						break;
 					case 9: {
-						return new Yytoken(Yytoken.TYPE_COMMA, null);
+						return token(Yytoken.TYPE_COMMA, null);
 					}
 					case 47:
 						break;
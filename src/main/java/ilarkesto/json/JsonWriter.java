@@ -0,0 +1,182 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.json;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Buffered, unsynchronized JSON output. Strings are escaped in a single pass directly into the buffer.
+ * Structure and formatting are left to the caller.
+ */
+public class JsonWriter {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final Writer out;
+	private final char[] buffer;
+	private int position;
+
+	public JsonWriter(Writer out) {
+		this(out, 4096);
+	}
+
+	public JsonWriter(Writer out, int bufferSize) {
+		this.out = out;
+		this.buffer = new char[bufferSize];
+	}
+
+	public JsonWriter write(char c) throws IOException {
+		if (position == buffer.length) flushBuffer();
+		buffer[position++] = c;
+		return this;
+	}
+
+	/**
+	 * Writes raw text, without quoting or escaping.
+	 */
+	public JsonWriter write(String s) throws IOException {
+		int length = s.length();
+		int offset = 0;
+		while (offset < length) {
+			if (position == buffer.length) flushBuffer();
+			int count = Math.min(length - offset, buffer.length - position);
+			s.getChars(offset, offset + count, buffer, position);
+			position += count;
+			offset += count;
+		}
+		return this;
+	}
+
+	/**
+	 * Writes a quoted and escaped string.
+	 */
+	public JsonWriter writeString(String s) throws IOException {
+		write('"');
+		writeEscaped(s);
+		write('"');
+		return this;
+	}
+
+	public JsonWriter writeEscaped(String s) throws IOException {
+		if (s == null) return this;
+		int length = s.length();
+		for (int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+			if (c >= 0x20 && c != '"' && c != '\\') {
+				if (position == buffer.length) flushBuffer();
+				buffer[position++] = c;
+				continue;
+			}
+			switch (c) {
+				case '"':
+					write('\\').write('"');
+					break;
+				case '\\':
+					write('\\').write('\\');
+					break;
+				case '\b':
+					write('\\').write('b');
+					break;
+				case '\f':
+					write('\\').write('f');
+					break;
+				case '\n':
+					write('\\').write('n');
+					break;
+				case '\r':
+					write('\\').write('r');
+					break;
+				case '\t':
+					write('\\').write('t');
+					break;
+				default:
+					write("\\u00").write(HEX[c >> 4]).write(HEX[c & 0xf]);
+			}
+		}
+		return this;
+	}
+
+	public JsonWriter writeNull() throws IOException {
+		return write("null");
+	}
+
+	public JsonWriter writeIndentation(char c, int count) throws IOException {
+		for (int i = 0; i < count; i++) {
+			write(c);
+		}
+		return this;
+	}
+
+	private void flushBuffer() throws IOException {
+		if (position == 0) return;
+		out.write(buffer, 0, position);
+		position = 0;
+	}
+
+	/**
+	 * Writes the buffer to the underlying writer and flushes it.
+	 */
+	public void flush() throws IOException {
+		flushBuffer();
+		out.flush();
+	}
+
+	public static boolean isEscapingRequired(String s) {
+		int length = s.length();
+		for (int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+			if (c < 0x20 || c == '"' || c == '\\') return true;
+		}
+		return false;
+	}
+
+	public static void appendEscaped(StringBuilder sb, String s) {
+		int length = s.length();
+		for (int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '"':
+					sb.append("\\\"");
+					break;
+				case '\\':
+					sb.append("\\\\");
+					break;
+				case '\b':
+					sb.append("\\b");
+					break;
+				case '\f':
+					sb.append("\\f");
+					break;
+				case '\n':
+					sb.append("\\n");
+					break;
+				case '\r':
+					sb.append("\\r");
+					break;
+				case '\t':
+					sb.append("\\t");
+					break;
+				default:
+					if (c < 0x20) {
+						sb.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xf]);
+					} else {
+						sb.append(c);
+					}
+			}
+		}
+	}
+
+}
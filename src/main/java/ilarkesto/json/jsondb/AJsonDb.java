@@ -30,12 +30,17 @@ public abstract class AJsonDb {
 
 	public abstract void deleteDocument(JsonObject document);
 
+	private static final int LOAD_BATCH_SIZE = 100;
+
 	public List<JsonObject> loadDocumentsByFilter(DocumentFilter filter) {
 		List<DocumentReference> references = listAllDocuments();
 		List<JsonObject> result = new ArrayList<JsonObject>();
-		for (DocumentReference reference : references) {
-			JsonObject document = loadDocumentByReference(reference);
-			if (filter.matches(document)) result.add(document);
+		for (int from = 0; from < references.size(); from += LOAD_BATCH_SIZE) {
+			List<DocumentReference> batch = references.subList(from,
+				Math.min(from + LOAD_BATCH_SIZE, references.size()));
+			for (JsonObject document : loadDocumentsByReferences(batch)) {
+				if (document != null && filter.matches(document)) result.add(document);
+			}
 		}
 		return result;
 	}
@@ -0,0 +1,370 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.json.jsondb;
+
+import ilarkesto.concurrent.DeamonThreadFactory;
+import ilarkesto.core.logging.Log;
+import ilarkesto.io.IO;
+import ilarkesto.json.JsonObject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Json database which stores each document as <code>&lt;id&gt;.json</code> in a directory. Parsed documents
+ * are kept in a bounded LRU cache and are shared with the caller, so modifications have to be saved through
+ * <code>saveDocument()</code>. Properties registered with <code>addIndex()</code> are indexed in memory and
+ * used to answer <code>PropertyFilter</code> queries.
+ */
+public class FileJsonDb extends AJsonDb {
+
+	private static final Log log = Log.get(FileJsonDb.class);
+
+	private static final String SUFFIX = ".json";
+	private static final String CHARSET = IO.UTF_8;
+
+	private File dir;
+	private String idProperty = "_id";
+	private int cacheSize = 1000;
+	private int loaderThreadCount = Runtime.getRuntime().availableProcessors();
+
+	private Map<String, JsonObject> cache = new LinkedHashMap<String, JsonObject>(16, 0.75f, true) {
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, JsonObject> eldest) {
+			return size() > cacheSize;
+		}
+	};
+	private long modificationCount;
+
+	private Map<String, Index> indexes = new HashMap<String, Index>();
+	private ExecutorService loader;
+
+	public FileJsonDb(File dir) {
+		super();
+		this.dir = dir;
+	}
+
+	@Override
+	public JsonObject loadDocumentById(String id) {
+		JsonObject document;
+		long count;
+		synchronized (cache) {
+			document = cache.get(id);
+			if (document != null) return document;
+			count = modificationCount;
+		}
+		document = readDocument(id);
+		if (document == null) return null;
+		synchronized (cache) {
+			// a concurrent save or delete wins over what was read before
+			if (count != modificationCount) {
+				JsonObject cached = cache.get(id);
+				return cached != null ? cached : document;
+			}
+			cache.put(id, document);
+		}
+		return document;
+	}
+
+	@Override
+	public List<JsonObject> loadDocumentsByIds(Collection<String> ids) {
+		List<String> idList = new ArrayList<String>(ids);
+		JsonObject[] documents = new JsonObject[idList.size()];
+		List<Integer> missing = new ArrayList<Integer>();
+		synchronized (cache) {
+			for (int i = 0; i < documents.length; i++) {
+				documents[i] = cache.get(idList.get(i));
+				if (documents[i] == null) missing.add(i);
+			}
+		}
+
+		if (missing.size() < 2 || loaderThreadCount < 2) {
+			for (Integer i : missing) {
+				documents[i] = loadDocumentById(idList.get(i));
+			}
+			return Arrays.asList(documents);
+		}
+
+		int chunkSize = (missing.size() + loaderThreadCount - 1) / loaderThreadCount;
+		List<Future<?>> futures = new ArrayList<Future<?>>(loaderThreadCount);
+		for (int from = 0; from < missing.size(); from += chunkSize) {
+			List<Integer> chunk = missing.subList(from, Math.min(from + chunkSize, missing.size()));
+			futures.add(getLoader().submit(new ChunkLoader(chunk, idList, documents)));
+		}
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new JsonDbException("Loading documents interrupted", ex);
+			} catch (ExecutionException ex) {
+				Throwable cause = ex.getCause();
+				if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+				throw new JsonDbException("Loading documents failed", cause);
+			}
+		}
+		return Arrays.asList(documents);
+	}
+
+	@Override
+	public List<JsonObject> loadDocumentsByFilter(DocumentFilter filter) {
+		if (filter instanceof PropertyFilter) {
+			PropertyFilter propertyFilter = (PropertyFilter) filter;
+			Index index;
+			synchronized (indexes) {
+				index = indexes.get(propertyFilter.getProperty());
+			}
+			if (index != null && propertyFilter.getValue() != null) {
+				List<JsonObject> result = new ArrayList<JsonObject>();
+				for (JsonObject document : loadDocumentsByIds(index.getIds(propertyFilter.getValue()))) {
+					if (filter.matches(document)) result.add(document);
+				}
+				return result;
+			}
+		}
+		return super.loadDocumentsByFilter(filter);
+	}
+
+	@Override
+	public List<DocumentReference> listAllDocuments() {
+		String[] names = dir.list();
+		if (names == null) return new ArrayList<DocumentReference>(0);
+		List<DocumentReference> references = new ArrayList<DocumentReference>(names.length);
+		for (String name : names) {
+			if (!name.endsWith(SUFFIX)) continue;
+			references.add(new DocumentReference(name.substring(0, name.length() - SUFFIX.length())));
+		}
+		return references;
+	}
+
+	@Override
+	public synchronized void saveDocument(JsonObject document) {
+		String id = getId(document);
+		File file = getFile(id);
+		File tmpFile = new File(dir, id + SUFFIX + ".tmp");
+		IO.writeFile(tmpFile, document.toFormatedString(), CHARSET);
+		IO.move(tmpFile, file, true);
+		synchronized (cache) {
+			modificationCount++;
+			cache.put(id, document);
+		}
+		for (Index index : getIndexes()) {
+			index.update(id, document);
+		}
+		log.debug("Document saved:", id);
+	}
+
+	@Override
+	public synchronized void deleteDocument(JsonObject document) {
+		String id = getId(document);
+		File file = getFile(id);
+		if (file.exists() && !file.delete()) throw new JsonDbException("Deleting document failed: " + id, null);
+		synchronized (cache) {
+			modificationCount++;
+			cache.remove(id);
+		}
+		for (Index index : getIndexes()) {
+			index.update(id, null);
+		}
+		log.debug("Document deleted:", id);
+	}
+
+	/**
+	 * Indexes the given property of all documents. Array properties are indexed per element.
+	 */
+	public synchronized FileJsonDb addIndex(String property) {
+		Index index = new Index(property);
+		for (DocumentReference reference : listAllDocuments()) {
+			String id = reference.getId();
+			index.update(id, loadDocumentById(id));
+		}
+		synchronized (indexes) {
+			indexes.put(property, index);
+		}
+		return this;
+	}
+
+	public void clearCache() {
+		synchronized (cache) {
+			modificationCount++;
+			cache.clear();
+		}
+	}
+
+	public int getCachedDocumentCount() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	public synchronized void shutdown() {
+		if (loader == null) return;
+		loader.shutdown();
+		loader = null;
+	}
+
+	private JsonObject readDocument(String id) {
+		File file = getFile(id);
+		if (!file.exists()) return null;
+		try {
+			return JsonObject.parse(IO.readFile(file, CHARSET));
+		} catch (Exception ex) {
+			throw new JsonDbException("Loading document failed: " + file.getAbsolutePath(), ex);
+		}
+	}
+
+	private String getId(JsonObject document) {
+		String id = document.getString(idProperty);
+		if (id == null) throw new IllegalArgumentException("Document has no " + idProperty + ": " + document);
+		return id;
+	}
+
+	private File getFile(String id) {
+		if (id.length() == 0 || id.startsWith(".") || id.indexOf('/') >= 0 || id.indexOf('\\') >= 0)
+			throw new IllegalArgumentException("Illegal document id: " + id);
+		return new File(dir, id + SUFFIX);
+	}
+
+	private Collection<Index> getIndexes() {
+		synchronized (indexes) {
+			return new ArrayList<Index>(indexes.values());
+		}
+	}
+
+	private synchronized ExecutorService getLoader() {
+		if (loader == null) loader = Executors.newFixedThreadPool(loaderThreadCount, new DeamonThreadFactory());
+		return loader;
+	}
+
+	public FileJsonDb setIdProperty(String idProperty) {
+		this.idProperty = idProperty;
+		return this;
+	}
+
+	public FileJsonDb setCacheSize(int cacheSize) {
+		this.cacheSize = cacheSize;
+		return this;
+	}
+
+	public FileJsonDb setLoaderThreadCount(int loaderThreadCount) {
+		this.loaderThreadCount = loaderThreadCount;
+		return this;
+	}
+
+	public File getDir() {
+		return dir;
+	}
+
+	@Override
+	public String toString() {
+		return dir.getPath();
+	}
+
+	private class ChunkLoader implements Callable<Object> {
+
+		private List<Integer> positions;
+		private List<String> ids;
+		private JsonObject[] documents;
+
+		public ChunkLoader(List<Integer> positions, List<String> ids, JsonObject[] documents) {
+			super();
+			this.positions = positions;
+			this.ids = ids;
+			this.documents = documents;
+		}
+
+		@Override
+		public Object call() {
+			for (Integer i : positions) {
+				documents[i] = loadDocumentById(ids.get(i));
+			}
+			return null;
+		}
+
+	}
+
+	private static class Index {
+
+		private String property;
+		private Map<String, Set<String>> idsByValue = new HashMap<String, Set<String>>();
+		private Map<String, Set<String>> valuesById = new HashMap<String, Set<String>>();
+
+		public Index(String property) {
+			super();
+			this.property = property;
+		}
+
+		public synchronized void update(String id, JsonObject document) {
+			Set<String> oldValues = valuesById.remove(id);
+			if (oldValues != null) {
+				for (String value : oldValues) {
+					Set<String> ids = idsByValue.get(value);
+					ids.remove(id);
+					if (ids.isEmpty()) idsByValue.remove(value);
+				}
+			}
+			if (document == null) return;
+
+			Set<String> values = getValues(document.get(property));
+			if (values.isEmpty()) return;
+			valuesById.put(id, values);
+			for (String value : values) {
+				Set<String> ids = idsByValue.get(value);
+				if (ids == null) {
+					ids = new HashSet<String>();
+					idsByValue.put(value, ids);
+				}
+				ids.add(id);
+			}
+		}
+
+		public synchronized List<String> getIds(String value) {
+			Set<String> ids = idsByValue.get(value);
+			if (ids == null) return Collections.emptyList();
+			return new ArrayList<String>(ids);
+		}
+
+		private static Set<String> getValues(Object value) {
+			Set<String> values = new HashSet<String>();
+			if (value instanceof Collection) {
+				for (Object element : (Collection) value) {
+					String normalized = PropertyFilter.normalize(element);
+					if (normalized != null) values.add(normalized);
+				}
+			} else {
+				String normalized = PropertyFilter.normalize(value);
+				if (normalized != null) values.add(normalized);
+			}
+			return values;
+		}
+
+	}
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.json.jsondb;
+
+import ilarkesto.json.JsonObject;
+
+import java.util.Collection;
+
+/**
+ * Matches documents whose property equals the given value. If the property is an array, any element may
+ * match. Databases with an index on the property can answer this filter without scanning all documents.
+ */
+public class PropertyFilter implements DocumentFilter {
+
+	private String property;
+	private String value;
+
+	public PropertyFilter(String property, Object value) {
+		super();
+		this.property = property;
+		this.value = normalize(value);
+	}
+
+	@Override
+	public boolean matches(JsonObject document) {
+		if (document == null) return false;
+		Object documentValue = document.get(property);
+		if (documentValue instanceof Collection) {
+			for (Object element : (Collection) documentValue) {
+				if (equals(normalize(element))) return true;
+			}
+			return false;
+		}
+		return equals(normalize(documentValue));
+	}
+
+	private boolean equals(String documentValue) {
+		if (value == null) return documentValue == null;
+		return value.equals(documentValue);
+	}
+
+	public String getProperty() {
+		return property;
+	}
+
+	public String getValue() {
+		return value;
+	}
+
+	static String normalize(Object value) {
+		if (value == null) return null;
+		if (value instanceof JsonObject || value instanceof Collection) return null;
+		return String.valueOf(value);
+	}
+
+	@Override
+	public String toString() {
+		return property + "=" + value;
+	}
+
+}
@@ -25,6 +25,7 @@ import ilarkesto.core.logging.Log;
 import ilarkesto.core.persistance.AEntityBackReferenceHelper;
 import ilarkesto.core.persistance.AEntityQuery;
 import ilarkesto.core.persistance.AEntitySetBackReferenceHelper;
+import ilarkesto.core.persistance.AllByFieldValueQuery;
 import ilarkesto.core.persistance.AllByTypeQuery;
 import ilarkesto.core.persistance.EditableKeytableValue;
 import ilarkesto.core.persistance.Entity;
@@ -263,8 +264,14 @@ public class EntityGenerator extends DatobGenerator<EntityModel> {
 		ln("        Object cachedValue = cache.get(\"" + cv.getName() + "\""
 				+ (params.length() == 0 ? "" : ", " + params) + ");");
 		ln("        if (cachedValue != null) return (" + cv.getReturnType() + ") cachedValue;");
-		ln("        return cache.put(compute" + Str.uppercaseFirstLetter(cv.getName()) + "(" + params + "), \""
-				+ cv.getName() + "\"" + (params.length() == 0 ? "" : ", " + params) + ");");
+		ln("        " + ValuesCache.Dependencies.class.getName().replace('$', '.'),
+			"dependencies = cache.startRecording();");
+		ln("        try {");
+		ln("            return cache.put(compute" + Str.uppercaseFirstLetter(cv.getName()) + "(" + params
+				+ "), dependencies, \"" + cv.getName() + "\"" + (params.length() == 0 ? "" : ", " + params) + ");");
+		ln("        } finally {");
+		ln("            cache.stopRecording(dependencies);");
+		ln("        }");
 		ln("    }");
 	}
 
@@ -542,7 +549,7 @@ public class EntityGenerator extends DatobGenerator<EntityModel> {
 						AEntityBackReferenceHelper.class.getName() + "<" + bean.getName() + ">() {");
 					annotationOverride();
 					ln("        protected " + bean.getName() + " loadById(final String id) {");
-					ln("        return new " + queryName + "() {");
+					ln("        return new " + getBackReferenceQuery(p) + " {");
 					ln("            @Override");
 					ln("            public boolean test(" + bean.getName() + " entity) {");
 
@@ -607,7 +614,7 @@ public class EntityGenerator extends DatobGenerator<EntityModel> {
 								+ bean.getName() + ">() {");
 					annotationOverride();
 					ln("        protected Set<" + bean.getName() + "> loadById(final String id) {");
-					ln("        return new " + queryName + "() {");
+					ln("        return new " + getBackReferenceQuery(p) + " {");
 					ln("            @Override");
 					ln("            public boolean test(" + bean.getName() + " entity) {");
 
@@ -678,6 +685,12 @@ public class EntityGenerator extends DatobGenerator<EntityModel> {
 		}
 	}
 
+	private String getBackReferenceQuery(PropertyModel p) {
+		String property = p.getName() + (p.isCollection() ? "Ids" : "Id");
+		return AllByFieldValueQuery.class.getName() + "<" + bean.getName() + ">(" + bean.getName() + ".class, \""
+				+ property + "\", id)";
+	}
+
 	private void writeBackReference(BackReferenceModel br) {
 		ln();
 		PropertyModel ref = br.getReference();
@@ -0,0 +1,402 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.persistence;
+
+import ilarkesto.core.persistance.ACachingEntitiesBackend;
+import ilarkesto.core.persistance.AEntity;
+import ilarkesto.core.persistance.AEntityQuery;
+import ilarkesto.core.persistance.EntityDoesNotExistException;
+import ilarkesto.core.persistance.EntityFieldIndex;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Caching backend for multi threaded servers. Readers share a read lock and see a consistent cache per query.
+ * The write lock is only held while the already persisted changes are applied to the cache, so slow
+ * <code>onUpdate()</code> implementations do not block readers.
+ * <p>
+ * In group commit mode changes are applied to the cache immediately and persisted by a background thread, which
+ * merges all changes queued in the meantime into one <code>onUpdate()</code> call. The commit callbacks run after
+ * that call. Since the cache is then ahead of the persisted state, <code>onUpdate()</code> implementations use
+ * <code>isStored()</code> and <code>getStoredEntity()</code> instead of querying the cache. If
+ * <code>onUpdate()</code> fails, the changes stay queued and are retried with increasing delay, so
+ * <code>onUpdate()</code> must be idempotent: a failed call may have persisted a part of the changes, the retry
+ * passes them again. <code>isStored()</code> and <code>getStoredEntity()</code> do not change until the retry
+ * succeeds.
+ */
+public abstract class AConcurrentCachingEntitiesBackend extends ACachingEntitiesBackend {
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Lock readLock = lock.readLock();
+	private final Lock writeLock = lock.writeLock();
+
+	private static final long MIN_RETRY_DELAY = 100;
+	private static final long MAX_RETRY_DELAY = 30000;
+
+	private volatile boolean groupCommit;
+	private Thread groupCommitThread;
+	private LinkedList<PendingUpdate> pendingUpdates = new LinkedList<PendingUpdate>();
+	private boolean pendingUpdatesSaving;
+	private Throwable saveError;
+	private long retryDelay = MIN_RETRY_DELAY;
+	private Set<String> unsavedCreatedIds = new HashSet<String>();
+	private Map<String, AEntity> unsavedDeletedEntitiesById = new HashMap<String, AEntity>();
+
+	@Override
+	public void update(Collection<AEntity> modified, Collection<String> deletedIds,
+			Map<String, Map<String, String>> modifiedPropertiesByEntityId, Runnable callback) {
+		if (!groupCommit) {
+			super.update(modified, deletedIds, modifiedPropertiesByEntityId, callback);
+			return;
+		}
+
+		synchronized (pendingUpdates) {
+			if (modified != null) {
+				for (AEntity entity : modified) {
+					String id = entity.getId();
+					if (!cache.containsWithId(id)) unsavedCreatedIds.add(id);
+				}
+			}
+			if (deletedIds != null) {
+				for (String id : deletedIds) {
+					AEntity entity = cache.getIfExists(id);
+					if (entity == null) continue;
+					unsavedCreatedIds.remove(id);
+					unsavedDeletedEntitiesById.put(id, entity);
+				}
+			}
+			updateCache(modified, deletedIds);
+			pendingUpdates.add(new PendingUpdate(modified, deletedIds, modifiedPropertiesByEntityId, callback));
+			pendingUpdates.notifyAll();
+		}
+	}
+
+	/**
+	 * Whether the entity is persisted. Entities created in group commit mode are not, until their changes are
+	 * saved.
+	 */
+	protected final boolean isStored(String id) {
+		synchronized (pendingUpdates) {
+			if (unsavedCreatedIds.contains(id)) return false;
+			if (unsavedDeletedEntitiesById.containsKey(id)) return true;
+			return cache.containsWithId(id);
+		}
+	}
+
+	/**
+	 * Provides the persisted entity with the given id or <code>null</code>. Includes entities which are already
+	 * removed from the cache in group commit mode, but not yet deleted from the storage.
+	 */
+	protected final AEntity getStoredEntity(String id) {
+		synchronized (pendingUpdates) {
+			AEntity entity = unsavedDeletedEntitiesById.get(id);
+			if (entity != null) return entity;
+			if (unsavedCreatedIds.contains(id)) return null;
+			return cache.getIfExists(id);
+		}
+	}
+
+	public final synchronized void setGroupCommit(boolean groupCommit) {
+		if (this.groupCommit == groupCommit) return;
+		if (!groupCommit) flush();
+		this.groupCommit = groupCommit;
+		if (groupCommit && groupCommitThread == null) {
+			groupCommitThread = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					while (true) {
+						try {
+							saveNextPendingUpdates();
+						} catch (InterruptedException ex) {
+							return;
+						} catch (Throwable ex) {
+							log.error("Saving entity changes failed:", ex);
+						}
+					}
+				}
+			});
+			groupCommitThread.setName(getClass().getSimpleName() + "-groupCommitThread");
+			groupCommitThread.setDaemon(true);
+			groupCommitThread.start();
+		}
+	}
+
+	public final boolean isGroupCommit() {
+		return groupCommit;
+	}
+
+	/**
+	 * Waits until all changes queued in group commit mode are saved. Throws if saving failed, the changes then
+	 * stay queued and are retried.
+	 */
+	public final void flush() {
+		synchronized (pendingUpdates) {
+			while (!pendingUpdates.isEmpty() || pendingUpdatesSaving) {
+				if (saveError != null && !pendingUpdatesSaving)
+					throw new RuntimeException("Saving entity changes failed, " + pendingUpdates.size()
+							+ " commits pending", saveError);
+				try {
+					pendingUpdates.wait(1000);
+				} catch (InterruptedException ex) {
+					throw new RuntimeException("Waiting for saving of entity changes interrupted", ex);
+				}
+			}
+		}
+	}
+
+	public final int getPendingUpdatesCount() {
+		synchronized (pendingUpdates) {
+			return pendingUpdates.size();
+		}
+	}
+
+	private void saveNextPendingUpdates() throws InterruptedException {
+		List<PendingUpdate> batch;
+		synchronized (pendingUpdates) {
+			while (pendingUpdates.isEmpty()) {
+				pendingUpdates.wait();
+			}
+			batch = new ArrayList<PendingUpdate>(pendingUpdates);
+			pendingUpdates.clear();
+			pendingUpdatesSaving = true;
+		}
+
+		Throwable error = null;
+		try {
+			Map<String, AEntity> modifiedById = new LinkedHashMap<String, AEntity>();
+			Set<String> deletedIds = new LinkedHashSet<String>();
+			Map<String, Map<String, String>> modifiedPropertiesByEntityId = new HashMap<String, Map<String, String>>();
+			final List<Runnable> callbacks = new ArrayList<Runnable>(batch.size());
+			for (PendingUpdate update : batch) {
+				update.mergeInto(modifiedById, deletedIds, modifiedPropertiesByEntityId);
+				if (update.callback != null) callbacks.add(update.callback);
+			}
+			if (batch.size() > 1)
+				log.debug("Saving", batch.size(), "commits:", modifiedById.size(), "modified,", deletedIds.size(),
+					"deleted");
+
+			onUpdate(modifiedById.values(), deletedIds, modifiedPropertiesByEntityId, new Runnable() {
+
+				@Override
+				public void run() {
+					for (Runnable callback : callbacks) {
+						try {
+							callback.run();
+						} catch (Throwable ex) {
+							log.error("Commit callback failed:", ex);
+						}
+					}
+				}
+			});
+
+			synchronized (pendingUpdates) {
+				unsavedCreatedIds.removeAll(modifiedById.keySet());
+				for (String id : deletedIds) {
+					unsavedDeletedEntitiesById.remove(id);
+				}
+			}
+		} catch (Throwable ex) {
+			error = ex;
+		}
+
+		synchronized (pendingUpdates) {
+			if (error != null) pendingUpdates.addAll(0, batch);
+			saveError = error;
+			pendingUpdatesSaving = false;
+			pendingUpdates.notifyAll();
+		}
+
+		if (error != null) {
+			log.error("Saving", batch.size(), "commits failed, retrying in", retryDelay, "ms:", error);
+			Thread.sleep(retryDelay);
+			retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+			return;
+		}
+		retryDelay = MIN_RETRY_DELAY;
+
+		onChangesApplied();
+	}
+
+	private static class PendingUpdate {
+
+		private Collection<AEntity> modified;
+		private Collection<String> deletedIds;
+		private Map<String, Map<String, String>> modifiedPropertiesByEntityId;
+		private Runnable callback;
+
+		public PendingUpdate(Collection<AEntity> modified, Collection<String> deletedIds,
+				Map<String, Map<String, String>> modifiedPropertiesByEntityId, Runnable callback) {
+			super();
+			this.modified = modified;
+			this.deletedIds = deletedIds;
+			this.modifiedPropertiesByEntityId = modifiedPropertiesByEntityId;
+			this.callback = callback;
+		}
+
+		private void mergeInto(Map<String, AEntity> modifiedById, Set<String> allDeletedIds,
+				Map<String, Map<String, String>> allModifiedPropertiesByEntityId) {
+			if (modified != null) {
+				for (AEntity entity : modified) {
+					String id = entity.getId();
+					allDeletedIds.remove(id);
+					modifiedById.put(id, entity);
+				}
+			}
+			if (modifiedPropertiesByEntityId != null) {
+				for (Map.Entry<String, Map<String, String>> entry : modifiedPropertiesByEntityId.entrySet()) {
+					Map<String, String> properties = allModifiedPropertiesByEntityId.get(entry.getKey());
+					if (properties == null) {
+						properties = new HashMap<String, String>();
+						allModifiedPropertiesByEntityId.put(entry.getKey(), properties);
+					}
+					properties.putAll(entry.getValue());
+				}
+			}
+			if (deletedIds != null) {
+				for (String id : deletedIds) {
+					modifiedById.remove(id);
+					allModifiedPropertiesByEntityId.remove(id);
+					allDeletedIds.add(id);
+				}
+			}
+		}
+
+	}
+
+	@Override
+	protected void updateCache(Collection<AEntity> modified, Collection<String> deletedIds) {
+		writeLock.lock();
+		try {
+			cache.addAll(modified);
+			cache.removeAll(deletedIds);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public void addIndex(EntityFieldIndex<AEntity> index) {
+		writeLock.lock();
+		try {
+			cache.addIndex(index);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public AEntity getById(String id) throws EntityDoesNotExistException {
+		readLock.lock();
+		try {
+			return cache.getById(id);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	@Override
+	public boolean containsWithId(String id) {
+		readLock.lock();
+		try {
+			return cache.containsWithId(id);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	@Override
+	public Set<AEntity> getByIdsAsSet(Collection<String> ids) throws EntityDoesNotExistException {
+		readLock.lock();
+		try {
+			return cache.getByIdsAsSet(ids);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	@Override
+	public List<AEntity> getByIdsAsList(Collection<String> ids) throws EntityDoesNotExistException {
+		readLock.lock();
+		try {
+			return cache.getByIdsAsList(ids);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	@Override
+	public <C extends Collection<AEntity>> C getByIds(Collection<String> ids, C resultContainer)
+			throws EntityDoesNotExistException {
+		readLock.lock();
+		try {
+			return cache.getByIds(ids, resultContainer);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	@Override
+	public AEntity findFirst(AEntityQuery query) {
+		readLock.lock();
+		try {
+			return cache.findFirst(query);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	@Override
+	public Set<AEntity> findAllAsSet(AEntityQuery query) {
+		readLock.lock();
+		try {
+			return cache.findAllAsSet(query);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	@Override
+	public <C extends Collection<AEntity>> C find(AEntityQuery<AEntity> query, C resultCollection) {
+		readLock.lock();
+		try {
+			return cache.find(query, resultCollection);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	@Override
+	public <C extends Collection<AEntity>> C getAll(C resultCollection) {
+		readLock.lock();
+		try {
+			return cache.getAll(resultCollection);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+}
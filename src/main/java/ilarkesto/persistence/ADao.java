@@ -30,6 +30,7 @@ import ilarkesto.core.search.SearchText;
 import ilarkesto.core.search.Searchable;
 import ilarkesto.di.Context;
 import ilarkesto.id.IdentifiableResolver;
+import ilarkesto.search.SearchIndex;
 import ilarkesto.search.SearchResultsConsumer;
 import ilarkesto.search.Searcher;
 
@@ -50,6 +51,12 @@ public abstract class ADao<E extends AEntity> implements IdentifiableResolver<E>
 	private Predicate<Class> entityTypeFilter;
 	private String icon;
 
+	private final SearchIndex searchIndex = new SearchIndex();
+	private final Set<String> searchIndexDirtyIds = new HashSet<String>();
+	private final Object searchIndexUpdateLock = new Object();
+	private boolean searchIndexBuilt;
+	private boolean searchIndexBuilding;
+
 	// --- ---
 
 	protected int getOrderIndex() {
@@ -222,6 +229,7 @@ public abstract class ADao<E extends AEntity> implements IdentifiableResolver<E>
 	@Override
 	public void entityDeleted(EntityEvent event) {
 		AEntity entity = event.getEntity();
+		if (getEntityClass().isInstance(entity)) markSearchIndexDirty(entity.getId());
 		for (AEntity e : getEntities()) {
 			try {
 				e.repairDeadReferences(entity.getId());
@@ -232,7 +240,91 @@ public abstract class ADao<E extends AEntity> implements IdentifiableResolver<E>
 	}
 
 	@Override
-	public void entityModified(EntityEvent event) {}
+	public void entityModified(EntityEvent event) {
+		AEntity entity = event.getEntity();
+		if (getEntityClass().isInstance(entity)) markSearchIndexDirty(entity.getId());
+	}
+
+	void entityPersisted(AEntity entity) {
+		markSearchIndexDirty(entity.getId());
+	}
+
+	/**
+	 * Modified entities are reindexed on the next search. They are marked again after the modifying
+	 * transaction is committed, since a search in between would index the old state.
+	 */
+	private void markSearchIndexDirty(final String entityId) {
+		synchronized (searchIndexDirtyIds) {
+			if (!searchIndexBuilt && !searchIndexBuilding) return;
+			searchIndexDirtyIds.add(entityId);
+		}
+		Transaction.get().runAfterCommited(new Runnable() {
+
+			@Override
+			public void run() {
+				synchronized (searchIndexDirtyIds) {
+					if (searchIndexBuilt || searchIndexBuilding) searchIndexDirtyIds.add(entityId);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Builds the index on the first call and reindexes dirty entities. Runs exclusively, so no search queries a
+	 * partially built index.
+	 */
+	private void updateSearchIndex() {
+		synchronized (searchIndexUpdateLock) {
+			if (!searchIndexBuilt) buildSearchIndex();
+
+			Set<String> dirtyIds;
+			synchronized (searchIndexDirtyIds) {
+				if (searchIndexDirtyIds.isEmpty()) return;
+				dirtyIds = new HashSet<String>(searchIndexDirtyIds);
+				searchIndexDirtyIds.clear();
+			}
+
+			Transaction transaction = Transaction.get();
+			for (String id : dirtyIds) {
+				AEntity entity = transaction.containsWithId(id) ? transaction.getById(id) : null;
+				if (getEntityClass().isInstance(entity)) {
+					searchIndex.update(id, entity);
+				} else {
+					searchIndex.remove(id);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Entities modified while the index is built are marked dirty and reindexed right after.
+	 */
+	private void buildSearchIndex() {
+		synchronized (searchIndexDirtyIds) {
+			searchIndexDirtyIds.clear();
+			searchIndexBuilding = true;
+		}
+		boolean built = false;
+		try {
+			RuntimeTracker rt = new RuntimeTracker();
+			searchIndex.clear();
+			for (E entity : getEntities()) {
+				searchIndex.update(entity.getId(), entity);
+			}
+			log.info("Search index built:", searchIndex, rt);
+			built = true;
+		} finally {
+			synchronized (searchIndexDirtyIds) {
+				searchIndexBuilding = false;
+				searchIndexBuilt = built;
+				if (!built) searchIndexDirtyIds.clear();
+			}
+		}
+	}
+
+	public SearchIndex getSearchIndex() {
+		return searchIndex;
+	}
 
 	@Override
 	public void feed(final SearchResultsConsumer searchBox) {
@@ -242,22 +334,27 @@ public abstract class ADao<E extends AEntity> implements IdentifiableResolver<E>
 		final AuthUser searcher = searchBox.getSearcher();
 
 		RuntimeTracker rt = new RuntimeTracker();
-		Predicate<E> filter = new Predicate<E>() {
-
-			@Override
-			public boolean test(E e) {
-				if (!e.matches(searchText)) return false;
-				if (!Auth.isVisible(e, searcher)) return false;
-				return true;
-			}
-
-		};
-		for (AEntity entity : getEntities(filter)) {
+		updateSearchIndex();
+		Set<String> candidateIds = searchIndex.getCandidateIds(searchText);
+		Collection<E> candidates = candidateIds == null ? getEntities() : getCandidates(candidateIds);
+		for (E entity : candidates) {
+			if (!entity.matches(searchText)) continue;
+			if (!Auth.isVisible(entity, searcher)) continue;
 			searchBox.addEntity(entity);
 		}
 		log.info("Search took", rt);
 	}
 
+	private List<E> getCandidates(Set<String> ids) {
+		Transaction transaction = Transaction.get();
+		List<E> ret = new ArrayList<E>(ids.size());
+		for (String id : ids) {
+			AEntity entity = transaction.containsWithId(id) ? transaction.getById(id) : null;
+			if (getEntityClass().isInstance(entity)) ret.add((E) entity);
+		}
+		return ret;
+	}
+
 	// ---
 
 	protected Set<Class> getValueObjectClasses() {
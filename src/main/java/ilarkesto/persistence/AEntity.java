@@ -63,6 +63,13 @@ public abstract class AEntity extends ABaseEntity implements Datob, Transferable
 		daoService.fireEntityModified(this);
 	}
 
+	@Override
+	protected void onAfterPersist() {
+		super.onAfterPersist();
+		ADao dao = getDao();
+		if (dao != null) dao.entityPersisted(this);
+	}
+
 	@Override
 	protected void onAfterDelete() {
 		getDaoService().fireEntityDeleted(this);
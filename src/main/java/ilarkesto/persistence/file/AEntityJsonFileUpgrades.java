@@ -144,8 +144,11 @@ public abstract class AEntityJsonFileUpgrades {
 			super(entityType, changeInsertionVersion);
 		}
 
+		/**
+		 * Synchronized, since entity files are loaded in parallel and <code>entityFile</code> is shared.
+		 */
 		@Override
-		public final void upgrade(File file, int fileVersion) {
+		public final synchronized void upgrade(File file, int fileVersion) {
 			this.entityFile = file;
 			JsonObject json = JsonObject.loadFile(file, false);
 			boolean changed;
@@ -15,14 +15,13 @@
 package ilarkesto.persistence.file;
 
 import ilarkesto.core.base.RuntimeTracker;
-import ilarkesto.core.persistance.ACachingEntitiesBackend;
 import ilarkesto.core.persistance.AEntity;
-import ilarkesto.core.persistance.EntityDoesNotExistException;
 import ilarkesto.core.persistance.Transient;
 import ilarkesto.io.AFileStorage;
 import ilarkesto.io.IO;
 import ilarkesto.json.JsonMapper;
 import ilarkesto.json.JsonMapper.TypeResolver;
+import ilarkesto.persistence.AConcurrentCachingEntitiesBackend;
 
 import java.io.File;
 import java.io.IOException;
@@ -31,7 +30,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
-public abstract class AJsonFilesEntitiesBackend extends ACachingEntitiesBackend {
+public abstract class AJsonFilesEntitiesBackend extends AConcurrentCachingEntitiesBackend {
 
 	protected AFileStorage storage;
 
@@ -59,28 +58,9 @@ public abstract class AJsonFilesEntitiesBackend extends ACachingEntitiesBackend
 		RuntimeTracker rt = new RuntimeTracker();
 		upgrader.upgradeEntitiesDir(storage.getFile(null), dataVersion);
 		TypeResolver typeResolver = createTypeResolver();
-		for (Class<? extends AEntity> type : getEntityTypes()) {
-			int count = 0;
-			File dir = storage.getFile(type.getSimpleName());
-			File[] files = dir.listFiles();
-			if (files != null) {
-				for (File file : files) {
-					if (!file.isFile()) continue;
-					if (!file.getName().endsWith(".json")) continue;
-					upgrader.upgradeEntity(file, type, dataVersion);
-					if (!file.exists()) continue;
-					AEntity entity;
-					try {
-						entity = JsonMapper.deserialize(file, type, typeResolver);
-					} catch (Exception ex) {
-						throw new RuntimeException("Loading entity failed: " + file, ex);
-					}
-					cache.add(entity);
-					count++;
-				}
-			}
-			log.info("   ", type.getSimpleName(), count);
-		}
+
+		new JsonEntityFilesLoader(storage, upgrader, dataVersion, typeResolver).load(getEntityTypes(),
+				getLoadThreadCount(), cache);
 
 		saveVersion(softwareVersion);
 
@@ -88,6 +68,13 @@ public abstract class AJsonFilesEntitiesBackend extends ACachingEntitiesBackend
 
 	}
 
+	/**
+	 * Number of threads reading and deserializing entity files on startup.
+	 */
+	protected int getLoadThreadCount() {
+		return Runtime.getRuntime().availableProcessors();
+	}
+
 	private void saveVersion(int version) {
 		IO.writeFile(getVersionFile(), String.valueOf(version), IO.UTF_8);
 	}
@@ -114,9 +101,8 @@ public abstract class AJsonFilesEntitiesBackend extends ACachingEntitiesBackend
 			for (AEntity entity : modified) {
 				if (entity instanceof Transient) continue;
 				File file = getFile(entity);
-				if (!file.exists()) {
-					created.add(entity);
-				}
+				// not file.exists(), the file may be left by a failed attempt of this batch
+				if (!isStored(entity.getId())) created.add(entity);
 				files.add(file);
 				log.debug("Saving entity:", entity.getClass().getSimpleName(), file.getName(), "in", file.getParent());
 				try {
@@ -130,12 +116,8 @@ public abstract class AJsonFilesEntitiesBackend extends ACachingEntitiesBackend
 		int deleteCount = 0;
 		if (deleted != null) {
 			for (String id : deleted) {
-				AEntity entity;
-				try {
-					entity = cache.getById(id);
-				} catch (EntityDoesNotExistException ex) {
-					continue;
-				}
+				AEntity entity = getStoredEntity(id);
+				if (entity == null) continue;
 				File file = getFile(entity);
 				files.add(file);
 				log.debug("Deleting entity", entity.getClass().getSimpleName(), file);
@@ -0,0 +1,499 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.persistence.file;
+
+import ilarkesto.core.base.RuntimeTracker;
+import ilarkesto.core.persistance.AEntity;
+import ilarkesto.core.persistance.Transient;
+import ilarkesto.io.AFileStorage;
+import ilarkesto.io.IO;
+import ilarkesto.json.JsonMapper;
+import ilarkesto.json.JsonMapper.TypeResolver;
+import ilarkesto.persistence.AConcurrentCachingEntitiesBackend;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores all entities in a snapshot file and appends changes to a journal file. On start the snapshot and the
+ * journal are replayed. When the journal contains more than <code>getCompactionThreshold()</code> records, the
+ * cache is written to a new snapshot and the journal is truncated.
+ * <p>
+ * Records contain the complete JSON of an entity, as written by <code>AJsonFilesEntitiesBackend</code>, so
+ * replaying them is idempotent. A journal which ends with an incomplete record, as left by a crash while appending,
+ * is cut back to its last complete record on start. If neither snapshot nor journal exist, the entities are imported from the
+ * <code>Type/id.json</code> directories of <code>AJsonFilesEntitiesBackend</code>.
+ * <p>
+ * The snapshot starts with the data version of its records. Journal records have the version of the snapshot, since
+ * the journal is always truncated when a snapshot is written. Records of an older version are passed through the
+ * upgrader while they are replayed and the snapshot is rewritten afterwards.
+ */
+public abstract class AJsonJournalEntitiesBackend extends AConcurrentCachingEntitiesBackend {
+
+	private static final String SNAPSHOT_FILENAME = "entities.snapshot";
+	private static final String JOURNAL_FILENAME = "entities.journal";
+	private static final String VERSION_PREFIX = "# version ";
+	private static final String UPGRADE_DIRNAME = "upgrade.tmp";
+
+	protected AFileStorage storage;
+
+	private Map<String, Class<? extends AEntity>> typesByName;
+	private TypeResolver typeResolver;
+	private AEntityJsonFileUpgrades upgrader;
+	private int softwareVersion;
+	private int dataVersion;
+	private FileOutputStream journalOut;
+	private Writer journal;
+	private int journalRecordCount;
+
+	protected abstract AEntityJsonFileUpgrades createUpgrader();
+
+	protected abstract List<Class<? extends AEntity>> getEntityTypes();
+
+	protected abstract TypeResolver createTypeResolver();
+
+	public AJsonJournalEntitiesBackend(AFileStorage storage) {
+		this.storage = storage;
+		load();
+	}
+
+	/**
+	 * Number of journal records after which the journal is compacted into the snapshot.
+	 */
+	protected int getCompactionThreshold() {
+		return 100000;
+	}
+
+	private void load() {
+		typesByName = new HashMap<String, Class<? extends AEntity>>();
+		for (Class<? extends AEntity> type : getEntityTypes()) {
+			typesByName.put(type.getSimpleName(), type);
+		}
+		typeResolver = createTypeResolver();
+		upgrader = createUpgrader();
+		softwareVersion = upgrader == null ? 0 : upgrader.getSoftwareVersion();
+
+		File snapshotFile = getSnapshotFile();
+		File journalFile = getJournalFile();
+		RuntimeTracker rt = new RuntimeTracker();
+		boolean upgraded = false;
+		if (!snapshotFile.exists() && !journalFile.exists()) {
+			importJsonFiles();
+		} else {
+			dataVersion = readDataVersion(snapshotFile);
+			checkDataVersion();
+			log.info("Loading entities from", storage, "| data-version", dataVersion);
+			replay(snapshotFile, false);
+			journalRecordCount = replay(journalFile, true);
+			upgraded = isUpgrading();
+			if (upgraded) IO.delete(storage.getFile(UPGRADE_DIRNAME));
+		}
+		log.info(cache.size(), "entities loaded in", rt.getRuntimeFormated());
+
+		openJournal();
+		if (upgraded || journalRecordCount > getCompactionThreshold()) compact();
+		dataVersion = softwareVersion;
+	}
+
+	private void importJsonFiles() {
+		File versionFile = storage.getFile("version.txt");
+		dataVersion = versionFile.exists() ? Integer.parseInt(IO.readFile(versionFile, IO.UTF_8).trim()) : 0;
+		checkDataVersion();
+		if (upgrader != null) upgrader.upgradeEntitiesDir(storage.getFile(null), dataVersion);
+
+		log.info("Importing entity JSON files from", storage, "| data-version", dataVersion);
+		new JsonEntityFilesLoader(storage, upgrader, dataVersion, typeResolver).load(getEntityTypes(), Runtime
+				.getRuntime().availableProcessors(), cache);
+		writeSnapshot();
+		if (!cache.isEmpty())
+			log.info("Entity JSON files imported into", getSnapshotFile(), "The type directories can be deleted.");
+	}
+
+	/**
+	 * Reads the data version from the first line of the snapshot. Snapshots without version have the version of the
+	 * JSON files they were imported from.
+	 */
+	private int readDataVersion(File snapshotFile) {
+		if (snapshotFile.exists()) {
+			Reader in = null;
+			try {
+				in = new BufferedReader(new InputStreamReader(new FileInputStream(snapshotFile), IO.UTF_8));
+				String line = readLine(in);
+				if (line != null && line.startsWith(VERSION_PREFIX)) {
+					int version = parseLength(line.substring(VERSION_PREFIX.length()));
+					if (version < 0) throw new IllegalStateException("Invalid data version in " + snapshotFile + ": " + line);
+					return version;
+				}
+			} catch (IOException ex) {
+				throw new RuntimeException("Reading " + snapshotFile + " failed", ex);
+			} finally {
+				IO.closeQuiet(in);
+			}
+		}
+		File versionFile = storage.getFile("version.txt");
+		return versionFile.exists() ? Integer.parseInt(IO.readFile(versionFile, IO.UTF_8).trim()) : 0;
+	}
+
+	private void checkDataVersion() {
+		if (upgrader != null && dataVersion > softwareVersion)
+			throw new IllegalStateException("Data version " + dataVersion + " is bigger then softwareVersion "
+					+ softwareVersion);
+	}
+
+	private boolean isUpgrading() {
+		return upgrader != null && dataVersion < softwareVersion;
+	}
+
+	/**
+	 * Passes a record through the file based upgrader by writing it to a temporary <code>Type/id.json</code> file.
+	 */
+	private String upgradeRecord(String json, Class<? extends AEntity> type) {
+		File file = storage.getFile(UPGRADE_DIRNAME + "/" + type.getSimpleName() + "/record.json");
+		IO.writeFile(file, json, IO.UTF_8);
+		upgrader.upgradeEntity(file, type, dataVersion);
+		return IO.readFile(file, IO.UTF_8);
+	}
+
+	/**
+	 * Applies the records of the given file to the cache and returns their count. Replay stops at the last
+	 * complete record. If <code>repairTail</code> is set, an incomplete or invalid tail, as left by a crash while
+	 * appending, is copied to a <code>.corrupt</code> file and cut off, otherwise it is an error.
+	 */
+	private int replay(File file, boolean repairTail) {
+		if (!file.exists()) return 0;
+		int count = 0;
+		long validLength = 0;
+		String invalidRecord = null;
+		Reader in = null;
+		try {
+			in = new BufferedReader(new InputStreamReader(new FileInputStream(file), IO.UTF_8));
+			while (true) {
+				String header = readLine(in);
+				if (header == null) break;
+				if (header.length() == 0) {
+					validLength++;
+					continue;
+				}
+				if (header.startsWith(VERSION_PREFIX)) {
+					validLength += getByteCount(header) + 1;
+					continue;
+				}
+				if (header.length() < 3 || header.charAt(1) != ' ') {
+					invalidRecord = header;
+					break;
+				}
+				char op = header.charAt(0);
+				if (op == '-') {
+					cache.remove(header.substring(2));
+					validLength += getByteCount(header) + 1;
+				} else if (op == '+') {
+					int idx = header.lastIndexOf(' ');
+					int length = idx > 2 ? parseLength(header.substring(idx + 1)) : -1;
+					if (length < 0) {
+						invalidRecord = header;
+						break;
+					}
+					String typeName = header.substring(2, idx);
+					String json = readChars(in, length);
+					if (json == null || in.read() != '\n') {
+						invalidRecord = header;
+						break;
+					}
+					Class<? extends AEntity> type = typesByName.get(typeName);
+					if (type == null) throw new IllegalStateException("Unknown entity type: " + typeName);
+					validLength += getByteCount(header) + 1 + getByteCount(json) + 1;
+					if (isUpgrading()) json = upgradeRecord(json, type);
+					try {
+						cache.add(JsonMapper.deserialize(json, type, typeResolver));
+					} catch (Exception ex) {
+						throw new RuntimeException("Loading entity from " + file + " failed: " + json, ex);
+					}
+				} else {
+					invalidRecord = header;
+					break;
+				}
+				count++;
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Reading " + file + " failed", ex);
+		} finally {
+			IO.closeQuiet(in);
+		}
+		log.info("   ", file.getName(), count, "records");
+
+		long length = file.length();
+		if (validLength < length) {
+			if (!repairTail)
+				throw new IllegalStateException("Invalid record in " + file + " at byte " + validLength + ": "
+						+ invalidRecord);
+			File corruptFile = new File(file.getPath() + "." + System.currentTimeMillis() + ".corrupt");
+			log.warn("Incomplete record at byte", validLength, "in", file, "->", (length - validLength),
+				"bytes moved to", corruptFile);
+			copyTail(file, validLength, corruptFile);
+			truncate(file, validLength);
+		}
+		return count;
+	}
+
+	/**
+	 * Reads a line terminated by <code>\n</code>. Returns <code>null</code> at the end of the stream, also if
+	 * the last line is not terminated.
+	 */
+	private static String readLine(Reader in) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		while (true) {
+			int c = in.read();
+			if (c < 0) return null;
+			if (c == '\n') return sb.toString();
+			sb.append((char) c);
+		}
+	}
+
+	private static String readChars(Reader in, int length) throws IOException {
+		char[] chars = new char[length];
+		int read = 0;
+		while (read < length) {
+			int r = in.read(chars, read, length - read);
+			if (r < 0) return null;
+			read += r;
+		}
+		return new String(chars);
+	}
+
+	private static int parseLength(String s) {
+		if (s.length() == 0 || s.length() > 9) return -1;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c < '0' || c > '9') return -1;
+		}
+		return Integer.parseInt(s);
+	}
+
+	private static int getByteCount(String s) {
+		try {
+			return s.getBytes(IO.UTF_8).length;
+		} catch (UnsupportedEncodingException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	private static void copyTail(File file, long offset, File destination) {
+		RandomAccessFile in = null;
+		FileOutputStream out = null;
+		try {
+			in = new RandomAccessFile(file, "r");
+			in.seek(offset);
+			out = new FileOutputStream(destination);
+			byte[] buffer = new byte[8192];
+			int r;
+			while ((r = in.read(buffer)) > 0) {
+				out.write(buffer, 0, r);
+			}
+			out.close();
+		} catch (IOException ex) {
+			throw new RuntimeException("Copying " + file + " to " + destination + " failed", ex);
+		} finally {
+			IO.closeQuiet(out);
+			IO.closeQuiet(in);
+		}
+	}
+
+	private static void truncate(File file, long length) {
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "rw");
+			raf.setLength(length);
+			raf.getFD().sync();
+			raf.close();
+		} catch (IOException ex) {
+			throw new RuntimeException("Truncating " + file + " to " + length + " bytes failed", ex);
+		} finally {
+			IO.closeQuiet(raf);
+		}
+	}
+
+	@Override
+	protected void onUpdate(Collection<AEntity> modified, Collection<String> deleted,
+			Map<String, Map<String, String>> modifiedPropertiesByEntityIds, Runnable callback) {
+		if ((modified == null || modified.isEmpty()) && (deleted == null || deleted.isEmpty())) return;
+		RuntimeTracker rt = new RuntimeTracker();
+		Collection<AEntity> created = new ArrayList<AEntity>();
+		int saveCount = 0;
+		int deleteCount = 0;
+		StringWriter records = new StringWriter();
+		try {
+			if (modified != null) {
+				for (AEntity entity : modified) {
+					if (entity instanceof Transient) continue;
+					if (!isStored(entity.getId())) created.add(entity);
+					writeRecord(records, entity);
+					saveCount++;
+				}
+			}
+			if (deleted != null) {
+				for (String id : deleted) {
+					if (getStoredEntity(id) == null) continue;
+					records.write("- " + id + "\n");
+					deleteCount++;
+				}
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Serializing entity changes failed", ex);
+		}
+
+		// the batch is serialized before the journal is touched, so a failing entity leaves no partial records
+		long journalLength = getJournalFile().length();
+		boolean written = false;
+		try {
+			journal.write(records.toString());
+			journal.flush();
+			journalOut.getFD().sync();
+			written = true;
+		} catch (IOException ex) {
+			throw new RuntimeException("Writing entity changes to " + getJournalFile() + " failed", ex);
+		} finally {
+			if (!written) discardJournalTail(journalLength);
+		}
+		journalRecordCount += saveCount + deleteCount;
+		log.info("Entity changes saved:", rt.getRuntimeFormated(), "(" + saveCount, "saved,", deleteCount, "deleted)");
+
+		onEntityChangesSaved(modified, deleted, created);
+
+		if (callback != null) callback.run();
+	}
+
+	@Override
+	protected void onChangesApplied() {
+		if (journalRecordCount > getCompactionThreshold()) compact();
+	}
+
+	protected void onEntityChangesSaved(Collection<AEntity> modified, Collection<String> deleted,
+			Collection<AEntity> created) {}
+
+	/**
+	 * Writes the cache to a new snapshot and truncates the journal. Must not run concurrently with
+	 * <code>onUpdate()</code>.
+	 */
+	private void compact() {
+		RuntimeTracker rt = new RuntimeTracker();
+		writeSnapshot();
+		IO.closeQuiet(journal);
+		IO.delete(getJournalFile());
+		journalRecordCount = 0;
+		openJournal();
+		log.info("Entity journal compacted into snapshot in", rt.getRuntimeFormated());
+	}
+
+	private void writeSnapshot() {
+		File snapshotFile = getSnapshotFile();
+		File tempFile = new File(snapshotFile.getPath() + ".tmp");
+		IO.createDirectory(tempFile.getParentFile());
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(tempFile);
+			Writer writer = new BufferedWriter(new OutputStreamWriter(out, IO.UTF_8));
+			writer.write(VERSION_PREFIX + softwareVersion + "\n");
+			for (AEntity entity : getAllAsList()) {
+				if (entity instanceof Transient) continue;
+				writeRecord(writer, entity);
+			}
+			writer.flush();
+			out.getFD().sync();
+			writer.close();
+		} catch (IOException ex) {
+			IO.closeQuiet(out);
+			throw new RuntimeException("Writing entity snapshot " + tempFile + " failed", ex);
+		}
+		IO.move(tempFile, snapshotFile, true);
+	}
+
+	private static void writeRecord(Writer out, AEntity entity) throws IOException {
+		String json = JsonMapper.serialize(entity);
+		out.write("+ ");
+		out.write(entity.getClass().getSimpleName());
+		out.write(' ');
+		out.write(String.valueOf(json.length()));
+		out.write('\n');
+		out.write(json);
+		out.write('\n');
+	}
+
+	/**
+	 * Cuts off the records of a failed batch, so the journal ends with a complete record again.
+	 */
+	private void discardJournalTail(long length) {
+		IO.closeQuiet(journal);
+		File journalFile = getJournalFile();
+		try {
+			truncate(journalFile, length);
+		} catch (Exception ex) {
+			log.error("Discarding incomplete records in", journalFile, "failed:", ex);
+		}
+		openJournal();
+	}
+
+	private void openJournal() {
+		File journalFile = getJournalFile();
+		try {
+			journalOut = new FileOutputStream(journalFile, true);
+		} catch (IOException ex) {
+			throw new RuntimeException("Opening entity journal " + journalFile + " failed", ex);
+		}
+		try {
+			journal = new BufferedWriter(new OutputStreamWriter(journalOut, IO.UTF_8));
+		} catch (IOException ex) {
+			IO.closeQuiet(journalOut);
+			throw new RuntimeException("Opening entity journal " + journalFile + " failed", ex);
+		}
+	}
+
+	private File getSnapshotFile() {
+		return storage.getFile(SNAPSHOT_FILENAME);
+	}
+
+	private File getJournalFile() {
+		return storage.getFile(JOURNAL_FILENAME);
+	}
+
+	@Override
+	public String createInfo() {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append("\nJournal records since last snapshot: ").append(journalRecordCount).append("\n");
+		sb.append("\nEntity counts:\n");
+		for (Map.Entry<Class, Integer> entry : cache.countEntities().entrySet()) {
+			sb.append("* ").append(entry.getKey().getSimpleName()).append(": ").append(entry.getValue()).append("\n");
+		}
+
+		return sb.toString();
+	}
+
+}
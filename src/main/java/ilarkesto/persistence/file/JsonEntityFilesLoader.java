@@ -0,0 +1,164 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.persistence.file;
+
+import ilarkesto.concurrent.DeamonThreadFactory;
+import ilarkesto.core.logging.Log;
+import ilarkesto.core.persistance.AEntity;
+import ilarkesto.core.persistance.EntitiesCache;
+import ilarkesto.io.AFileStorage;
+import ilarkesto.json.JsonMapper;
+import ilarkesto.json.JsonMapper.TypeResolver;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads entities from a directory per type containing one JSON file per entity (<code>Type/id.json</code>).
+ * Chunks of files are upgraded and deserialized in parallel.
+ */
+class JsonEntityFilesLoader {
+
+	private static final Log log = Log.get(JsonEntityFilesLoader.class);
+
+	private static final int CHUNK_SIZE = 1000;
+
+	private AFileStorage storage;
+	private AEntityJsonFileUpgrades upgrader;
+	private int dataVersion;
+	private TypeResolver typeResolver;
+
+	public JsonEntityFilesLoader(AFileStorage storage, AEntityJsonFileUpgrades upgrader, int dataVersion,
+			TypeResolver typeResolver) {
+		super();
+		this.storage = storage;
+		this.upgrader = upgrader;
+		this.dataVersion = dataVersion;
+		this.typeResolver = typeResolver;
+	}
+
+	public void load(List<Class<? extends AEntity>> types, int threadCount, EntitiesCache<AEntity> cache) {
+		List<TypeLoadInfo> typeLoadInfos = new ArrayList<TypeLoadInfo>();
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount, new DeamonThreadFactory());
+		try {
+			CompletionService<List<AEntity>> completionService = new ExecutorCompletionService<List<AEntity>>(
+					executor);
+			int chunkCount = 0;
+			for (Class<? extends AEntity> type : types) {
+				TypeLoadInfo typeLoadInfo = new TypeLoadInfo(type);
+				typeLoadInfos.add(typeLoadInfo);
+				File dir = storage.getFile(type.getSimpleName());
+				File[] files = dir.listFiles();
+				if (files == null) continue;
+				for (int from = 0; from < files.length; from += CHUNK_SIZE) {
+					int to = Math.min(from + CHUNK_SIZE, files.length);
+					completionService.submit(new LoadChunk(typeLoadInfo, files, from, to));
+					chunkCount++;
+				}
+			}
+
+			for (int i = 0; i < chunkCount; i++) {
+				List<AEntity> entities;
+				try {
+					entities = completionService.take().get();
+				} catch (InterruptedException ex) {
+					throw new RuntimeException("Loading entities interrupted", ex);
+				} catch (ExecutionException ex) {
+					Throwable cause = ex.getCause();
+					if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+					throw new RuntimeException("Loading entities failed", cause);
+				}
+				cache.addAll(entities);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		for (TypeLoadInfo typeLoadInfo : typeLoadInfos) {
+			log.info("   ", typeLoadInfo);
+		}
+	}
+
+	private class LoadChunk implements Callable<List<AEntity>> {
+
+		private TypeLoadInfo typeLoadInfo;
+		private File[] files;
+		private int from;
+		private int to;
+
+		public LoadChunk(TypeLoadInfo typeLoadInfo, File[] files, int from, int to) {
+			super();
+			this.typeLoadInfo = typeLoadInfo;
+			this.files = files;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public List<AEntity> call() {
+			long start = System.currentTimeMillis();
+			Class<? extends AEntity> type = typeLoadInfo.type;
+			List<AEntity> entities = new ArrayList<AEntity>(to - from);
+			for (int i = from; i < to; i++) {
+				File file = files[i];
+				if (!file.isFile()) continue;
+				if (!file.getName().endsWith(".json")) continue;
+				if (upgrader != null) upgrader.upgradeEntity(file, type, dataVersion);
+				if (!file.exists()) continue;
+				AEntity entity;
+				try {
+					entity = JsonMapper.deserialize(file, type, typeResolver);
+				} catch (Exception ex) {
+					throw new RuntimeException("Loading entity failed: " + file, ex);
+				}
+				entities.add(entity);
+			}
+			typeLoadInfo.chunkLoaded(entities.size(), System.currentTimeMillis() - start);
+			return entities;
+		}
+
+	}
+
+	private static class TypeLoadInfo {
+
+		private Class<? extends AEntity> type;
+		private int count;
+		private long time;
+
+		public TypeLoadInfo(Class<? extends AEntity> type) {
+			super();
+			this.type = type;
+		}
+
+		synchronized void chunkLoaded(int chunkCount, long chunkTime) {
+			count += chunkCount;
+			time += chunkTime;
+		}
+
+		@Override
+		public synchronized String toString() {
+			return type.getSimpleName() + " " + count + " (" + time + " msec)";
+		}
+
+	}
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.search;
+
+import ilarkesto.core.persistance.Entity;
+import ilarkesto.core.search.SearchText;
+import ilarkesto.core.search.Searchable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted n-gram index over the values a <code>Searchable</code> passes to <code>SearchText.matches()</code>.
+ * Provides candidates for a search text: a superset of the ids of all matching searchables. Candidates still
+ * need to be checked with <code>Searchable.matches()</code>.
+ */
+public class SearchIndex {
+
+	private static final int MIN_GRAM = 2;
+	private static final int MAX_GRAM = 3;
+
+	private Map<String, Posting> postings = new HashMap<String, Posting>();
+	private Map<String, Posting[]> postingsById = new HashMap<String, Posting[]>();
+
+	/**
+	 * Searchables which do not provide their values through <code>SearchText.matches()</code>, or which match
+	 * against other entities, whose text changes without the searchable being modified. They are always
+	 * candidates.
+	 */
+	private Set<String> opaqueIds = new HashSet<String>();
+
+	public synchronized void update(String id, Searchable searchable) {
+		ValuesCollector collector = new ValuesCollector();
+		searchable.matches(collector);
+		if (collector.values == null || containsEntity(collector.values)) {
+			remove(id);
+			opaqueIds.add(id);
+			return;
+		}
+		update(id, collector.values);
+	}
+
+	public synchronized void update(String id, Collection values) {
+		remove(id);
+		Set<String> grams = new HashSet<String>();
+		for (Object value : values) {
+			if (value == null) continue;
+			addGrams(grams, value.toString().toLowerCase());
+		}
+		Posting[] idPostings = new Posting[grams.size()];
+		int i = 0;
+		for (String gram : grams) {
+			Posting posting = postings.get(gram);
+			if (posting == null) {
+				posting = new Posting(gram);
+				postings.put(gram, posting);
+			}
+			posting.ids.add(id);
+			idPostings[i++] = posting;
+		}
+		postingsById.put(id, idPostings);
+	}
+
+	public synchronized void remove(String id) {
+		opaqueIds.remove(id);
+		Posting[] idPostings = postingsById.remove(id);
+		if (idPostings == null) return;
+		for (Posting posting : idPostings) {
+			posting.ids.remove(id);
+			if (posting.ids.isEmpty()) postings.remove(posting.gram);
+		}
+	}
+
+	public synchronized void clear() {
+		postings.clear();
+		postingsById.clear();
+		opaqueIds.clear();
+	}
+
+	/**
+	 * @return Ids of possibly matching searchables or <code>null</code> if the search text is too short to narrow
+	 *         down the candidates.
+	 */
+	public synchronized Set<String> getCandidateIds(SearchText searchText) {
+		Set<String> result = null;
+		for (String word : searchText.getWords()) {
+			List<String> grams = getQueryGrams(word);
+			for (String gram : grams) {
+				Posting posting = postings.get(gram);
+				if (posting == null) {
+					result = Collections.emptySet();
+					break;
+				}
+				if (result == null) {
+					result = new HashSet<String>(posting.ids);
+				} else {
+					result.retainAll(posting.ids);
+				}
+			}
+			if (result != null && result.isEmpty()) break;
+		}
+		if (result == null) return null;
+		if (result.isEmpty()) result = new HashSet<String>();
+		result.addAll(opaqueIds);
+		return result;
+	}
+
+	public synchronized boolean contains(String id) {
+		return postingsById.containsKey(id) || opaqueIds.contains(id);
+	}
+
+	public synchronized int size() {
+		return postingsById.size() + opaqueIds.size();
+	}
+
+	public synchronized int getGramCount() {
+		return postings.size();
+	}
+
+	private static boolean containsEntity(Iterable values) {
+		for (Object value : values) {
+			if (value instanceof Entity) return true;
+			if (value instanceof Iterable && containsEntity((Iterable) value)) return true;
+		}
+		return false;
+	}
+
+	private static void addGrams(Set<String> grams, String s) {
+		int length = s.length();
+		for (int n = MIN_GRAM; n <= MAX_GRAM; n++) {
+			for (int i = 0; i + n <= length; i++) {
+				String gram = s.substring(i, i + n);
+				if (gram.indexOf(' ') >= 0) continue;
+				grams.add(gram);
+			}
+		}
+	}
+
+	private static List<String> getQueryGrams(String word) {
+		int length = word.length();
+		if (length < MIN_GRAM) return Collections.emptyList();
+		if (length <= MAX_GRAM) return Collections.singletonList(word);
+		List<String> grams = new ArrayList<String>(length - MAX_GRAM + 1);
+		for (int i = 0; i + MAX_GRAM <= length; i++) {
+			grams.add(word.substring(i, i + MAX_GRAM));
+		}
+		return grams;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + ": " + size() + " searchables, " + getGramCount() + " grams";
+	}
+
+	private static class Posting {
+
+		private final String gram;
+		private final Set<String> ids = new HashSet<String>();
+
+		public Posting(String gram) {
+			this.gram = gram;
+		}
+
+	}
+
+	/**
+	 * Records the values a searchable wants to be matched against.
+	 */
+	private static class ValuesCollector extends SearchText {
+
+		private List<Object> values;
+
+		public ValuesCollector() {
+			super(Collections.<String> emptyList());
+		}
+
+		@Override
+		public boolean matches(Object... values) {
+			if (this.values == null) this.values = new ArrayList<Object>();
+			Collections.addAll(this.values, values);
+			return false;
+		}
+
+	}
+
+}
@@ -19,11 +19,13 @@ import ilarkesto.base.Sys;
 import ilarkesto.core.persistance.TransferableEntity;
 import ilarkesto.di.app.AApplication;
 import ilarkesto.gwt.server.AGwtConversation;
+import ilarkesto.gwt.server.GwtConversationBroadcaster;
 import ilarkesto.logging.DefaultLogRecordHandler;
 import ilarkesto.webapp.jsonapi.JsonApiFactory;
 import ilarkesto.webapp.jsonapi.ReflectionJsonApiFactory;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
@@ -44,6 +46,7 @@ public abstract class AWebApplication extends AApplication {
 	private String contextPath;
 
 	private JsonApiFactory restApiFactory;
+	private GwtConversationBroadcaster gwtConversationBroadcaster = new GwtConversationBroadcaster();
 	private GwtSuperDevMode gwtSuperDevMode;
 
 	@Override
@@ -68,6 +71,7 @@ public abstract class AWebApplication extends AApplication {
 	protected void onShutdown() {
 		if (gwtSuperDevMode != null) gwtSuperDevMode.stopCodeServer();
 		onShutdownWebApplication();
+		gwtConversationBroadcaster.shutdown();
 	}
 
 	// --- ---
@@ -105,6 +109,7 @@ public abstract class AWebApplication extends AApplication {
 		if (webSession != null && webSession.isSessionInvalidated()) webSession = null;
 		if (webSession == null) {
 			webSession = createWebSession(httpRequest);
+			webSession.setGwtConversationBroadcaster(gwtConversationBroadcaster);
 			httpSession.setAttribute(WEB_SESSION_SESSION_ATTRIBUTE, webSession);
 			synchronized (webSessions) {
 				webSessions.add(webSession);
@@ -163,6 +168,10 @@ public abstract class AWebApplication extends AApplication {
 		return ret;
 	}
 
+	public final GwtConversationBroadcaster getGwtConversationBroadcaster() {
+		return gwtConversationBroadcaster;
+	}
+
 	public JsonApiFactory getRestApiFactory() {
 		if (restApiFactory == null) restApiFactory = createRestApiFactory();
 		return restApiFactory;
@@ -178,30 +187,19 @@ public abstract class AWebApplication extends AApplication {
 	}
 
 	public void sendToAll(TransferableEntity... entities) {
-		for (AGwtConversation conversation : getGwtConversations()) {
-			conversation.sendToClient(entities);
-		}
+		gwtConversationBroadcaster.sendToAll(Arrays.asList(entities));
 	}
 
 	public void sendToAll(Collection<TransferableEntity> entities) {
-		for (AGwtConversation conversation : getGwtConversations()) {
-			conversation.sendToClient(entities);
-		}
+		gwtConversationBroadcaster.sendToAll(entities);
 	}
 
 	public void sendToAllIfTracking(Collection<TransferableEntity> entities) {
-		for (AGwtConversation conversation : getGwtConversations()) {
-			conversation.sendToClientIfTracking(entities);
-		}
+		gwtConversationBroadcaster.sendToAllIfTracking(entities);
 	}
 
 	public void deleteFromClients(Collection<String> entityIds) {
-		if (entityIds == null || entityIds.isEmpty()) return;
-		for (AGwtConversation conversation : getGwtConversations()) {
-			for (String id : entityIds) {
-				conversation.deleteFromClient(id);
-			}
-		}
+		gwtConversationBroadcaster.deleteFromAll(entityIds);
 	}
 
 	public static AWebApplication get() {
@@ -19,7 +19,9 @@ import ilarkesto.core.logging.Log;
 import ilarkesto.core.time.DateAndTime;
 import ilarkesto.core.time.TimePeriod;
 import ilarkesto.di.Context;
+import ilarkesto.di.app.AApplication;
 import ilarkesto.gwt.server.AGwtConversation;
+import ilarkesto.gwt.server.GwtConversationBroadcaster;
 
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -41,6 +43,7 @@ public abstract class AWebSession implements Comparable<AWebSession> {
 	private DateAndTime lastTouched;
 	private Set<AGwtConversation> gwtConversations = new HashSet<AGwtConversation>();
 	private int lastGwtConversationNumber = 0;
+	private GwtConversationBroadcaster gwtConversationBroadcaster;
 
 	public AWebSession(Context parentContext, HttpServletRequest initialRequest) {
 		this.initialRemoteHost = initialRequest == null ? "localhost" : initialRequest.getRemoteHost();
@@ -61,8 +64,11 @@ public abstract class AWebSession implements Comparable<AWebSession> {
 			AGwtConversation conversation = createGwtConversation();
 			if (conversation == null) throw new IllegalStateException("createGwtConversation() == null");
 			gwtConversations.add(conversation);
+			GwtConversationBroadcaster broadcaster = getGwtConversationBroadcaster();
+			if (broadcaster != null) broadcaster.register(conversation);
 			return conversation;
 		}
+		getGwtConversationBroadcaster(); // registers conversations created before the application was started
 		for (AGwtConversation conversation : gwtConversations) {
 			if (conversation.getNumber() == conversationNumber) {
 				conversation.touch();
@@ -79,6 +85,29 @@ public abstract class AWebSession implements Comparable<AWebSession> {
 	public synchronized void destroyGwtConversation(AGwtConversation conversation) {
 		conversation.invalidate();
 		gwtConversations.remove(conversation);
+		GwtConversationBroadcaster broadcaster = getGwtConversationBroadcaster();
+		if (broadcaster != null) broadcaster.unregister(conversation);
+	}
+
+	/**
+	 * The broadcaster is assigned by the web application creating the session. Other sessions look it up once the
+	 * application is started and then register the conversations created before.
+	 */
+	private GwtConversationBroadcaster getGwtConversationBroadcaster() {
+		if (gwtConversationBroadcaster == null) {
+			if (!AApplication.isStarted()) return null;
+			AApplication application = AApplication.get();
+			if (!(application instanceof AWebApplication)) return null;
+			setGwtConversationBroadcaster(((AWebApplication) application).getGwtConversationBroadcaster());
+		}
+		return gwtConversationBroadcaster;
+	}
+
+	final synchronized void setGwtConversationBroadcaster(GwtConversationBroadcaster broadcaster) {
+		this.gwtConversationBroadcaster = broadcaster;
+		for (AGwtConversation conversation : gwtConversations) {
+			broadcaster.register(conversation);
+		}
 	}
 
 	public Set<AGwtConversation> getGwtConversations() {
@@ -24,6 +24,8 @@ import ilarkesto.core.time.TimePeriod;
 import ilarkesto.gwt.server.AGwtConversation;
 import ilarkesto.logging.DefaultLogRecordHandler;
 import ilarkesto.ui.web.HtmlBuilder;
+import ilarkesto.webapp.jsonapi.JsonApiFactory;
+import ilarkesto.webapp.jsonapi.ReflectionJsonApiFactory;
 
 import java.text.DecimalFormat;
 import java.util.ArrayList;
@@ -38,6 +40,7 @@ public class ApplicationStatusInfoBuilder {
 	public void buildAll(HtmlBuilder html) {
 		sessions(html);
 		conversations(html);
+		jsonApi(html);
 		errors(html);
 		runtime(html);
 		processes(html);
@@ -96,6 +99,20 @@ public class ApplicationStatusInfoBuilder {
 		endTABLE(html);
 	}
 
+	private void jsonApi(HtmlBuilder html) {
+		JsonApiFactory factory = AWebApplication.get().getRestApiFactory();
+		if (!(factory instanceof ReflectionJsonApiFactory)) return;
+		sectionHeader(html, "JSON API");
+		startTABLE(html);
+		headersRow(html, "Path", "Api", "Requests", "Avg time", "Max time");
+		for (ReflectionJsonApiFactory.Route route : ((ReflectionJsonApiFactory) factory).getRoutes()) {
+			Class type = route.getApiType();
+			valuesRow(html, route.getPath(), type == null ? "<not found>" : type.getSimpleName(),
+				route.getRequestCount(), route.getAverageRuntime() + " ms", route.getMaxRuntime() + " ms");
+		}
+		endTABLE(html);
+	}
+
 	private void sessions(HtmlBuilder html) {
 		sectionHeader(html, "Active Sessions");
 		startTABLE(html);
@@ -71,10 +71,10 @@ public class RequestWrapper<S extends AWebSession> {
 	}
 
 	public void write(JsonObject json) {
-		if (Sys.isDevelopmentMode()) {
-			write(json.toFormatedString());
-		} else {
-			write(json.toString());
+		try {
+			json.write(response.getWriter(), Sys.isDevelopmentMode());
+		} catch (IOException ex) {
+			throw new RuntimeException("Writing response failed: " + this, ex);
 		}
 		responseServed = true;
 	}
@@ -14,6 +14,7 @@
  */
 package ilarkesto.webapp.jsonapi;
 
+import ilarkesto.core.base.RuntimeTracker;
 import ilarkesto.core.base.Str;
 import ilarkesto.core.logging.Log;
 import ilarkesto.json.JsonObject;
@@ -30,25 +31,36 @@ public class JsonApiServlet extends AServlet<AWebApplication, AWebSession> {
 
 	@Override
 	protected void onGet(RequestWrapper req) throws IOException {
-		AJsonApi api = createApi(req);
+		RuntimeTracker rt = new RuntimeTracker();
+		String apiPath = getApiPath(req);
+		AJsonApi api = createApi(req, apiPath);
 		if (api == null) {
 			req.sendErrorNotFound();
 			return;
 		}
 		boolean binary = api.doBinaryGet();
-		if (binary) return;
-		writeGet(req, api);
+		if (!binary) writeGet(req, api);
+		onRequestServed(apiPath, rt.getRuntime());
 	}
 
 	@Override
 	protected void onPost(RequestWrapper req) throws IOException {
-		AJsonApi api = createApi(req);
+		RuntimeTracker rt = new RuntimeTracker();
+		String apiPath = getApiPath(req);
+		AJsonApi api = createApi(req, apiPath);
 		if (api == null) {
 			req.sendErrorNotFound();
 			return;
 		}
 		update(req, api);
 		writeGet(req, api);
+		onRequestServed(apiPath, rt.getRuntime());
+	}
+
+	private void onRequestServed(String apiPath, long runtime) {
+		JsonApiFactory factory = webApplication.getRestApiFactory();
+		if (factory instanceof ReflectionJsonApiFactory)
+			((ReflectionJsonApiFactory) factory).onRequestServed(getPath(apiPath), runtime);
 	}
 
 	private void update(RequestWrapper req, AJsonApi api) {
@@ -62,20 +74,28 @@ public class JsonApiServlet extends AServlet<AWebApplication, AWebSession> {
 		req.write(result);
 	}
 
-	private AJsonApi createApi(RequestWrapper req) {
-		String path = Str.cutFrom(req.getUriWithoutContext(), "api/");
-		log.info(path);
+	private AJsonApi createApi(RequestWrapper req, String apiPath) {
+		log.info(apiPath);
 		String subpath = null;
-		int idx = path.indexOf('/');
+		int idx = apiPath.indexOf('/');
 		if (idx >= 0) {
-			subpath = path.substring(idx + 1);
+			subpath = apiPath.substring(idx + 1);
 			subpath = Str.removeSuffix(subpath, "/");
 			if (Str.isBlank(subpath)) subpath = null;
-			path = path.substring(0, idx);
 		}
-		AJsonApi api = webApplication.getRestApiFactory().createApi(req, path);
+		AJsonApi api = webApplication.getRestApiFactory().createApi(req, getPath(apiPath));
+		if (api == null) return null;
 		api.init(req, subpath);
 		return api;
 	}
 
+	private static String getApiPath(RequestWrapper req) {
+		return Str.cutFrom(req.getUriWithoutContext(), "api/");
+	}
+
+	private static String getPath(String apiPath) {
+		int idx = apiPath.indexOf('/');
+		return idx >= 0 ? apiPath.substring(0, idx) : apiPath;
+	}
+
 }
@@ -14,18 +14,27 @@
  */
 package ilarkesto.webapp.jsonapi;
 
-import ilarkesto.base.Reflect;
 import ilarkesto.base.Str;
 import ilarkesto.webapp.AWebApplication;
 import ilarkesto.webapp.AWebSession;
 import ilarkesto.webapp.RequestWrapper;
 
+import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ReflectionJsonApiFactory implements JsonApiFactory {
 
+	private static final int MAX_UNKNOWN_ROUTES = 1000;
+
 	private List<String> packages = new ArrayList<String>();
+	private ConcurrentMap<String, Route> routesByPath = new ConcurrentHashMap<String, Route>();
+	private AtomicInteger unknownRoutesCount = new AtomicInteger();
 
 	public ReflectionJsonApiFactory(AWebApplication webApplication) {
 		addPackage(webApplication.getClass().getPackage());
@@ -35,34 +44,144 @@ public class ReflectionJsonApiFactory implements JsonApiFactory {
 		addPackage(pkg.getName());
 	}
 
-	public void addPackage(String packageName) {
+	public synchronized void addPackage(String packageName) {
 		packages.add(packageName);
+		routesByPath.clear();
+		unknownRoutesCount.set(0);
 	}
 
 	@Override
 	public AJsonApi createApi(RequestWrapper req, String path) {
-		AJsonApi api = createApiInstance(path);
-		if (api == null) return null;
+		Route route = getRoute(path);
+		route.requestCount.incrementAndGet();
+		if (route.constructor == null) return null;
 
+		AJsonApi api = route.newInstance();
 		AWebSession session = req.getSession();
 		session.getContext().autowire(api);
 
 		return api;
 	}
 
-	private AJsonApi createApiInstance(String path) {
+	/**
+	 * @param runtime milliseconds
+	 */
+	public void onRequestServed(String path, long runtime) {
+		Route route = routesByPath.get(path);
+		if (route != null) route.addRuntime(runtime);
+	}
+
+	private Route getRoute(String path) {
+		Route route = routesByPath.get(path);
+		if (route != null) return route;
+
+		route = new Route(path, findConstructor(path));
+		if (route.constructor == null && unknownRoutesCount.incrementAndGet() > MAX_UNKNOWN_ROUTES) return route;
+		Route existing = routesByPath.putIfAbsent(path, route);
+		return existing == null ? route : existing;
+	}
+
+	private synchronized Constructor<? extends AJsonApi> findConstructor(String path) {
 		String classSimpleName = path.isEmpty() ? "RootApi" : Str.uppercaseFirstLetter(path) + "Api";
 		for (String pkg : packages) {
 			String className = pkg + "." + classSimpleName;
-			Class<? extends AJsonApi> type;
+			Class type;
 			try {
-				type = (Class<? extends AJsonApi>) Class.forName(className);
-				return Reflect.newInstance(type);
+				type = Class.forName(className);
 			} catch (ClassNotFoundException ex) {
 				continue;
 			}
+			if (!AJsonApi.class.isAssignableFrom(type)) continue;
+			try {
+				Constructor<? extends AJsonApi> constructor = type.getConstructor();
+				constructor.setAccessible(true);
+				return constructor;
+			} catch (NoSuchMethodException ex) {
+				throw new RuntimeException("Missing default constructor: " + className, ex);
+			}
 		}
 		return null;
 	}
 
+	/**
+	 * Routes resolved so far, including paths for which no api exists.
+	 */
+	public List<Route> getRoutes() {
+		List<Route> routes = new ArrayList<Route>(routesByPath.values());
+		Collections.sort(routes);
+		return routes;
+	}
+
+	public static class Route implements Comparable<Route> {
+
+		private String path;
+		private Constructor<? extends AJsonApi> constructor;
+		private AtomicLong requestCount = new AtomicLong();
+		private AtomicLong servedCount = new AtomicLong();
+		private AtomicLong totalRuntime = new AtomicLong();
+		private volatile long maxRuntime;
+
+		private Route(String path, Constructor<? extends AJsonApi> constructor) {
+			super();
+			this.path = path;
+			this.constructor = constructor;
+		}
+
+		private AJsonApi newInstance() {
+			try {
+				return constructor.newInstance();
+			} catch (Exception ex) {
+				throw new RuntimeException("Instantiating " + constructor.getDeclaringClass().getName() + " failed", ex);
+			}
+		}
+
+		private void addRuntime(long runtime) {
+			servedCount.incrementAndGet();
+			totalRuntime.addAndGet(runtime);
+			if (runtime > maxRuntime) maxRuntime = runtime;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public boolean isExisting() {
+			return constructor != null;
+		}
+
+		public Class<? extends AJsonApi> getApiType() {
+			return constructor == null ? null : constructor.getDeclaringClass();
+		}
+
+		public long getRequestCount() {
+			return requestCount.get();
+		}
+
+		/**
+		 * @return average runtime of served requests in milliseconds
+		 */
+		public long getAverageRuntime() {
+			long count = servedCount.get();
+			return count == 0 ? 0 : totalRuntime.get() / count;
+		}
+
+		/**
+		 * @return maximum runtime of served requests in milliseconds
+		 */
+		public long getMaxRuntime() {
+			return maxRuntime;
+		}
+
+		@Override
+		public int compareTo(Route o) {
+			return path.compareTo(o.path);
+		}
+
+		@Override
+		public String toString() {
+			return path;
+		}
+
+	}
+
 }
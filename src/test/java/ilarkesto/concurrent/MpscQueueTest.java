@@ -0,0 +1,80 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.concurrent;
+
+import ilarkesto.testng.ATest;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+public class MpscQueueTest extends ATest {
+
+	@Test
+	public void fifo() {
+		MpscQueue<String> queue = new MpscQueue<String>();
+		assertTrue(queue.isEmpty());
+		assertNull(queue.poll());
+		queue.offer("a");
+		queue.offer("b");
+		assertFalse(queue.isEmpty());
+		assertEquals(queue.poll(), "a");
+		assertEquals(queue.poll(), "b");
+		assertNull(queue.poll());
+	}
+
+	@Test
+	public void multipleProducers() throws InterruptedException {
+		final MpscQueue<Integer> queue = new MpscQueue<Integer>();
+		final int producerCount = 4;
+		final int count = 10000;
+		Thread[] producers = new Thread[producerCount];
+		for (int p = 0; p < producerCount; p++) {
+			final int offset = p * count;
+			producers[p] = new Thread() {
+
+				@Override
+				public void run() {
+					for (int i = 0; i < count; i++) {
+						queue.offer(offset + i);
+					}
+				}
+			};
+			producers[p].start();
+		}
+
+		Set<Integer> received = new HashSet<Integer>();
+		int[] lastByProducer = new int[producerCount];
+		for (int p = 0; p < producerCount; p++) {
+			lastByProducer[p] = -1;
+		}
+		long timeout = System.currentTimeMillis() + 10000;
+		while (received.size() < producerCount * count && System.currentTimeMillis() < timeout) {
+			Integer value = queue.poll();
+			if (value == null) continue;
+			int producer = value / count;
+			assertTrue(value % count > lastByProducer[producer], "order of producer " + producer);
+			lastByProducer[producer] = value % count;
+			received.add(value);
+		}
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		assertEquals(received.size(), producerCount * count);
+		assertTrue(queue.isEmpty());
+	}
+
+}
@@ -15,8 +15,11 @@
 package ilarkesto.core.persistance;
 
 import ilarkesto.base.Utl;
+import ilarkesto.core.persistance.meta.EntityFieldMetadata;
+import ilarkesto.core.persistance.meta.EntityMetadata;
 import ilarkesto.testng.ATest;
 
+import java.util.Map;
 import java.util.Set;
 
 import org.testng.annotations.Test;
@@ -33,6 +36,50 @@ public class EntityCacheTest extends ATest {
 		assertSize(cache.getAllAsList(), 3);
 	}
 
+	@Test
+	public void byId() {
+		EntitiesCache cache = new EntitiesCache();
+		Car car = new Car().setName("c1");
+		Car mercedes = new Mercedes().setName("m1");
+		cache.add(car);
+		cache.add(mercedes);
+
+		assertSame(cache.getById(car.getId()), car);
+		assertSame(cache.getById(mercedes.getId()), mercedes);
+		assertTrue(cache.containsWithId(mercedes.getId()));
+		assertEquals(cache.size(), 2);
+
+		assertSame(cache.remove(mercedes.getId()), mercedes);
+		assertFalse(cache.containsWithId(mercedes.getId()));
+		assertNull(cache.getIfExists(mercedes.getId()));
+		assertEquals(cache.size(), 1);
+		assertSize(cache.findAllAsSet(new AllByTypeQuery(Mercedes.class)), 0);
+
+		cache.remove(car.getId());
+		assertTrue(cache.isEmpty());
+	}
+
+	@Test
+	public void index() {
+		EntitiesCache cache = new EntitiesCache();
+		cache.add(new Car().setName("a"));
+		cache.add(new Mercedes().setName("a"));
+		Car b = new Car().setName("b");
+		cache.add(b);
+		cache.addIndex(new EntityFieldIndex(Car.class, "name"));
+
+		assertSize(cache.findAllAsSet(new AllByFieldValueQuery(Car.class, "name", "a")), 2);
+		assertSame(cache.findFirst(new AllByFieldValueQuery(Car.class, "name", "b")), b);
+
+		b.setName("a");
+		cache.add(b);
+		assertSize(cache.findAllAsSet(new AllByFieldValueQuery(Car.class, "name", "a")), 3);
+		assertNull(cache.findFirst(new AllByFieldValueQuery(Car.class, "name", "b")));
+
+		cache.remove(b.getId());
+		assertSize(cache.findAllAsSet(new AllByFieldValueQuery(Car.class, "name", "a")), 2);
+	}
+
 	// @Test
 	public void concurrency() {
 		final EntitiesCache cache = new EntitiesCache();
@@ -97,6 +144,17 @@ public class EntityCacheTest extends ATest {
 		assertSize(cars, 3);
 	}
 
+	@Test
+	public void queryAfterNewType() {
+		EntitiesCache cache = new EntitiesCache();
+		cache.add(new Car().setName("c1"));
+		assertSize(cache.findAllAsSet(new AllByTypeQuery(Car.class)), 1);
+
+		cache.add(new Mercedes().setName("m1"));
+		assertSize(cache.findAllAsSet(new AllByTypeQuery(Car.class)), 2);
+		assertSize(cache.findAllAsSet(new AllByTypeQuery(Mercedes.class)), 1);
+	}
+
 	@Test
 	public void isInstanceOf() {
 		EntitiesCache cache = new EntitiesCache();
@@ -106,17 +164,102 @@ public class EntityCacheTest extends ATest {
 		assertFalse(AEntityQuery.isInstanceOf(Car.class, Mercedes.class));
 	}
 
+	@Test
+	public void referenceIndexesFromMetadata() {
+		EntitiesCache cache = new EntitiesCache();
+		cache.setIndexReferences(true);
+		cache.add(new Wheel().setCarId("c1"));
+		cache.add(new Wheel().setCarId("c1"));
+		cache.add(new Wheel().setCarId("c2"));
+
+		final int[] tests = new int[1];
+		AllByFieldValueQuery<Wheel> query = new AllByFieldValueQuery<Wheel>(Wheel.class, "carId", "c1") {
+
+			@Override
+			public boolean test(Wheel entity) {
+				tests[0]++;
+				return super.test(entity);
+			}
+		};
+		assertSize(cache.findAllAsSet(query), 2);
+		assertEquals(tests[0], 2);
+		assertSize(cache.findAllAsSet(new AllByFieldValueQuery(Wheel.class, "carId", "c3")), 0);
+		cache.add(new Wheel().setCarId("c3"));
+		assertSize(cache.findAllAsSet(new AllByFieldValueQuery(Wheel.class, "carId", "c3")), 1);
+	}
+
 	public static class Mercedes extends Car {}
 
+	public static class Wheel extends AEntity {
+
+		private static final EntityFieldMetadata carField = new EntityFieldMetadata() {
+
+			@Override
+			public String getName() {
+				return "car";
+			}
+
+			@Override
+			public String getLabel() {
+				return "Car";
+			}
+
+			@Override
+			public Object getValue(Entity entity) {
+				return ((Wheel) entity).carId;
+			}
+		};
+
+		private static final EntityMetadata metadata = new EntityMetadata() {
+
+			@Override
+			public EntityFieldMetadata[] getFields() {
+				return new EntityFieldMetadata[] { carField };
+			}
+
+			@Override
+			public EntityFieldMetadata getField(String name) {
+				if ("car".equals(name) || "carId".equals(name)) return carField;
+				return null;
+			}
+		};
+
+		private String carId;
+
+		public Wheel setCarId(String carId) {
+			this.carId = carId;
+			updateLastModified();
+			return this;
+		}
+
+		@Override
+		public EntityMetadata getMetadata() {
+			return metadata;
+		}
+
+		@Override
+		protected void storeProperties(Map<String, String> properties) {
+			super.storeProperties(properties);
+			properties.put("carId", carId);
+		}
+	}
+
 	public static class Car extends AEntity {
 
 		private String name;
 
 		public Car setName(String name) {
 			this.name = name;
+			updateLastModified();
 			return this;
 		}
 
+		@Override
+		protected void storeProperties(Map<String, String> properties) {
+			super.storeProperties(properties);
+			properties.put("name", name);
+		}
+
 		@Override
 		protected String asString() {
 			return name;
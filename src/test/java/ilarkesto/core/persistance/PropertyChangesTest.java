@@ -0,0 +1,70 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.persistance;
+
+import ilarkesto.testng.ATest;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.testng.annotations.Test;
+
+public class PropertyChangesTest extends ATest {
+
+	@Test
+	public void chain() {
+		PropertyChanges changes = new PropertyChanges();
+		changes.timeChanged(null, 1l);
+		changes.timeChanged(1l, 2l);
+		changes.propertyModified(2l, "a");
+		changes.timeChanged(2l, 3l);
+		changes.propertyModified(3l, "b");
+		changes.propertyModified(3l, "c");
+
+		assertEquals(changes.getPropertiesModifiedSince(2l, 3l), new HashSet<String>(Arrays.asList("b", "c")));
+		assertEquals(changes.getPropertiesModifiedSince(1l, 3l), new HashSet<String>(Arrays.asList("a", "b", "c")));
+		assertEquals(changes.getPropertiesModifiedSince(1l, 2l), new HashSet<String>(Arrays.asList("a")));
+	}
+
+	@Test
+	public void unknown() {
+		PropertyChanges changes = new PropertyChanges();
+		changes.timeChanged(null, 1l);
+		changes.propertyModified(1l, "a");
+		changes.timeChanged(1l, 2l);
+		changes.timeChanged(2l, 3l);
+		changes.propertyModified(3l, "b");
+
+		// modification without property
+		assertNull(changes.getPropertiesModifiedSince(1l, 3l));
+		// start of chain
+		assertNull(changes.getPropertiesModifiedSince(0l, 1l));
+		// modification not tracked yet
+		assertNull(changes.getPropertiesModifiedSince(3l, 4l));
+	}
+
+	@Test
+	public void evicted() {
+		PropertyChanges changes = new PropertyChanges();
+		for (long time = 1; time <= PropertyChanges.MAX_CHANGES + 1; time++) {
+			changes.timeChanged(time - 1, time);
+			changes.propertyModified(time, "p" + time);
+		}
+		long last = PropertyChanges.MAX_CHANGES + 1;
+		assertNull(changes.getPropertiesModifiedSince(0l, last));
+		assertEquals(changes.getPropertiesModifiedSince(last - 1, last), new HashSet<String>(Arrays.asList("p" + last)));
+	}
+
+}
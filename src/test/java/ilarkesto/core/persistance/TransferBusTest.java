@@ -0,0 +1,121 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.persistance;
+
+import ilarkesto.testng.ATest;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class TransferBusTest extends ATest {
+
+	@BeforeClass
+	public void init() {
+		Persistence.initialize(new InMemoryEntitiesBackend(), new SingletonTransactionManager());
+	}
+
+	@Test
+	public void sharedPassengers() {
+		Node shared = new Node();
+		shared.persist();
+		Node a = new Node(shared);
+		a.persist();
+		Node b = new Node(shared);
+		b.persist();
+		Node c = new Node(a, b);
+		c.persist();
+
+		TransferBus bus = new TransferBus(false);
+		bus.add(Arrays.asList(a, b, c));
+		assertEquals(bus.getEntities(), new HashSet<Entity>(Arrays.asList(shared, a, b, c)));
+		assertEquals(shared.collectCount, 1);
+		assertEquals(a.collectCount, 1);
+	}
+
+	@Test
+	public void cycle() {
+		Node a = new Node();
+		a.persist();
+		Node b = new Node(a);
+		b.persist();
+		a.setPassengers(b);
+
+		TransferBus bus = new TransferBus(false);
+		bus.add(a);
+		assertEquals(bus.getEntities(), new HashSet<Entity>(Arrays.asList(a, b)));
+	}
+
+	@Test
+	public void cachedPassengers() {
+		Node passenger = new Node();
+		passenger.persist();
+		Node a = new Node(passenger);
+		a.persist();
+
+		new TransferBus(true).add(a);
+		new TransferBus(true).add(a);
+		assertEquals(a.collectCount, 1);
+
+		Node other = new Node();
+		other.persist();
+		a.setPassengers(other);
+		TransferBus bus = new TransferBus(true);
+		bus.add(a);
+		assertEquals(a.collectCount, 2);
+		assertEquals(bus.getEntities(), new HashSet<Entity>(Arrays.asList(a, other)));
+
+		// modification of a passenger read while collecting
+		other.fireModified("x", "1");
+		new TransferBus(true).add(a);
+		assertEquals(a.collectCount, 3);
+	}
+
+	static class Node extends AEntity {
+
+		private String[] passengerIds;
+		private int collectCount;
+
+		public Node(Node... passengers) {
+			super();
+			passengerIds = getIds(passengers);
+		}
+
+		void setPassengers(Node... passengers) {
+			passengerIds = getIds(passengers);
+			fireModified("passengers", null);
+		}
+
+		@Override
+		public void collectPassengers(TransferBus bus) {
+			collectCount++;
+			for (String id : passengerIds) {
+				bus.add(AEntity.getById(id));
+			}
+		}
+
+		private static String[] getIds(Node... nodes) {
+			String[] ids = new String[nodes.length];
+			for (int i = 0; i < nodes.length; i++) {
+				ids[i] = nodes[i].getId();
+			}
+			return ids;
+		}
+
+	}
+
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.persistance;
+
+import ilarkesto.testng.ATest;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class ValuesCacheTest extends ATest {
+
+	@BeforeClass
+	public void init() {
+		Persistence.initialize(new InMemoryEntitiesBackend(), new SingletonTransactionManager());
+	}
+
+	@Test
+	public void dependentOnEntity() {
+		Item a = new Item("a");
+		a.persist();
+		Item b = new Item("b");
+		b.persist();
+		Other other = new Other();
+		other.persist();
+
+		ValuesCache cache = a.getValuesCache();
+		ValuesCache.Dependencies dependencies = cache.startRecording();
+		try {
+			cache.put(AEntity.getById(b.getId()).toString(), dependencies, "b");
+		} finally {
+			cache.stopRecording(dependencies);
+		}
+		cache.put("legacy", "legacy");
+		assertEquals(cache.get("b"), "b");
+		assertEquals(cache.get("legacy"), "legacy");
+
+		other.fireModified("x", "1");
+		assertEquals(cache.get("b"), "b");
+		assertNull(cache.get("legacy"));
+
+		b.fireModified("name", "b");
+		assertNull(cache.get("b"));
+	}
+
+	@Test
+	public void modifiedWhileComputing() {
+		Item a = new Item("a");
+		a.persist();
+		Item b = new Item("b");
+		b.persist();
+		Other other = new Other();
+		other.persist();
+
+		ValuesCache cache = a.getValuesCache();
+		ValuesCache.Dependencies dependencies = cache.startRecording();
+		try {
+			String value = AEntity.getById(b.getId()).toString();
+			// commits of other threads invalidate while the value is computed
+			Persistence.entityModified(other.getId(), Other.class);
+			cache.put(value, dependencies, "b");
+		} finally {
+			cache.stopRecording(dependencies);
+		}
+		assertEquals(cache.get("b"), "b");
+
+		dependencies = cache.startRecording();
+		try {
+			String value = AEntity.getById(b.getId()).toString();
+			Persistence.entityModified(b.getId(), Item.class);
+			cache.put(value, dependencies, "b");
+		} finally {
+			cache.stopRecording(dependencies);
+		}
+		assertNull(cache.get("b"));
+	}
+
+	@Test
+	public void dependentOnType() {
+		Item a = new Item("a");
+		a.persist();
+		Other other = new Other();
+		other.persist();
+
+		ValuesCache cache = a.getValuesCache();
+		ValuesCache.Dependencies dependencies = cache.startRecording();
+		try {
+			cache.put(new AllByTypeQuery(Item.class).list().size(), dependencies, "count");
+		} finally {
+			cache.stopRecording(dependencies);
+		}
+		assertNotNull(cache.get("count"));
+
+		other.fireModified("x", "1");
+		assertNotNull(cache.get("count"));
+
+		new Item("c").persist();
+		assertNull(cache.get("count"));
+	}
+
+	@Test
+	public void nested() {
+		Item a = new Item("a");
+		a.persist();
+		Item b = new Item("b");
+		b.persist();
+
+		ValuesCache cacheB = b.getValuesCache();
+		ValuesCache.Dependencies dependenciesB = cacheB.startRecording();
+		cacheB.put("inner", dependenciesB, "inner");
+		cacheB.stopRecording(dependenciesB);
+
+		ValuesCache cacheA = a.getValuesCache();
+		ValuesCache.Dependencies dependenciesA = cacheA.startRecording();
+		try {
+			cacheA.put(cacheB.get("inner") + "outer", dependenciesA, "outer");
+		} finally {
+			cacheA.stopRecording(dependenciesA);
+		}
+		assertEquals(cacheA.get("outer"), "innerouter");
+
+		b.fireModified("name", "b");
+		assertNull(cacheA.get("outer"));
+	}
+
+	@Test
+	public void deleted() {
+		Item a = new Item("a");
+		a.persist();
+		Item b = new Item("b");
+		b.persist();
+
+		ValuesCache cache = a.getValuesCache();
+		ValuesCache.Dependencies dependencies = cache.startRecording();
+		try {
+			cache.put(AEntity.exists(b.getId()), dependencies, "exists");
+		} finally {
+			cache.stopRecording(dependencies);
+		}
+		assertEquals(cache.get("exists"), Boolean.TRUE);
+
+		b.delete();
+		assertNull(cache.get("exists"));
+	}
+
+	@Test
+	public void invalidatedOnCommit() {
+		Item a = new Item("a");
+		a.persist();
+		Item b = new Item("b");
+		b.persist();
+		b.fireModified("name", "b");
+
+		ValuesCache cache = a.getValuesCache();
+		ValuesCache.Dependencies dependencies = cache.startRecording();
+		try {
+			cache.put(AEntity.getById(b.getId()).toString(), dependencies, "b");
+		} finally {
+			cache.stopRecording(dependencies);
+		}
+		assertEquals(cache.get("b"), "b");
+
+		Persistence.transactionManager.getCurrentTransaction().commit();
+		assertNull(cache.get("b"));
+	}
+
+	@Test
+	public void invalidatedOnRollback() {
+		Item a = new Item("a");
+		a.persist();
+		Item b = new Item("b");
+		b.persist();
+		Persistence.transactionManager.getCurrentTransaction().commit();
+
+		b.delete();
+		ValuesCache cache = a.getValuesCache();
+		ValuesCache.Dependencies dependencies = cache.startRecording();
+		try {
+			cache.put(AEntity.exists(b.getId()), dependencies, "exists");
+		} finally {
+			cache.stopRecording(dependencies);
+		}
+		assertEquals(cache.get("exists"), Boolean.FALSE);
+
+		Persistence.transactionManager.getCurrentTransaction().rollback();
+		assertNull(cache.get("exists"));
+		assertTrue(AEntity.exists(b.getId()));
+	}
+
+	@Test
+	public void keys() {
+		ValuesCache cache = new ValuesCache(null);
+		Item item = new Item("a");
+		cache.put("1", "value", "a", 1);
+		cache.put("2", "value", "a1");
+		cache.put("3", "value", item);
+		assertEquals(cache.get("value", "a", 1), "1");
+		assertEquals(cache.get("value", "a1"), "2");
+		assertEquals(cache.get("value", item.getId()), "3");
+	}
+
+	@Test
+	public void lru() {
+		ValuesCache cache = new ValuesCache(null);
+		cache.setMaxSize(2);
+		cache.put("a", "a");
+		cache.put("b", "b");
+		cache.get("a");
+		cache.put("c", "c");
+		assertEquals(cache.size(), 2);
+		assertEquals(cache.get("a"), "a");
+		assertNull(cache.get("b"));
+		assertEquals(cache.getEvictions(), 1);
+	}
+
+	@Test
+	public void lfu() {
+		ValuesCache cache = new ValuesCache(null);
+		cache.setMaxSize(2);
+		cache.setEviction(ValuesCache.Eviction.LFU);
+		cache.put("a", "a");
+		cache.put("b", "b");
+		cache.get("a");
+		cache.get("a");
+		cache.get("b");
+		cache.put("c", "c");
+		assertEquals(cache.get("a"), "a");
+		assertNull(cache.get("b"));
+		assertEquals(cache.get("c"), "c");
+	}
+
+	@Test
+	public void lfuEvictsAmongLeastRecentlyUsed() {
+		ValuesCache cache = new ValuesCache(null);
+		cache.setMaxSize(100);
+		cache.setEviction(ValuesCache.Eviction.LFU);
+		for (int i = 0; i < 100; i++) {
+			cache.put("v" + i, "v" + i);
+			cache.get("v" + i);
+		}
+		cache.put("v0", "v0");
+		cache.put("new", "new");
+		assertEquals(cache.get("v0"), "v0");
+		assertNull(cache.get("v1"));
+		assertEquals(cache.get("new"), "new");
+	}
+
+	@Test
+	public void timeToLive() throws InterruptedException {
+		ValuesCache cache = new ValuesCache(null);
+		cache.setTimeToLive(10);
+		cache.put("a", "a");
+		assertEquals(cache.get("a"), "a");
+		Thread.sleep(20);
+		assertNull(cache.get("a"));
+		assertEquals(cache.getHits(), 1);
+		assertEquals(cache.getMisses(), 1);
+		assertEquals(cache.getEvictions(), 1);
+	}
+
+	@Test
+	public void timeToLiveUnregistersDependencies() throws InterruptedException {
+		Persistence.clearCaches();
+		Item a = new Item("a");
+		a.persist();
+		Item b = new Item("b");
+		b.persist();
+
+		ValuesCache cache = a.getValuesCache();
+		cache.setTimeToLive(10);
+		ValuesCache.Dependencies dependencies = cache.startRecording();
+		try {
+			cache.put(AEntity.getById(b.getId()).toString(), dependencies, "b");
+		} finally {
+			cache.stopRecording(dependencies);
+		}
+		assertEquals(Persistence.getDependentCacheEntriesCount(), 1);
+
+		Thread.sleep(20);
+		assertNull(cache.get("b"));
+		assertEquals(cache.size(), 0);
+		assertEquals(Persistence.getDependentCacheEntriesCount(), 0);
+	}
+
+	static class Item extends AEntity {
+
+		private String name;
+
+		public Item(String name) {
+			super();
+			this.name = name;
+		}
+
+		ValuesCache getValuesCache() {
+			return getCache();
+		}
+
+		@Override
+		protected String asString() {
+			return name;
+		}
+
+	}
+
+	static class Other extends AEntity {}
+
+}
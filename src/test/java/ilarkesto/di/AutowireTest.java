@@ -35,6 +35,57 @@ public class AutowireTest extends ATest {
 		assertEquals(Flower.d, "x");
 	}
 
+	@Test
+	public void autowire() {
+		BeanContainer beans = new BeanContainer();
+		beans.put("name", "rose");
+		beans.put("count", "3");
+		beans.put("size", 5);
+		beans.put("hostile", "x");
+		beans.put("color", "red");
+
+		for (int i = 0; i < 2; i++) {
+			Bouquet bouquet = Autowire.autowire(new Bouquet(), beans, null);
+			assertEquals(bouquet.name, "rose");
+			assertEquals(bouquet.count, 3);
+			assertEquals(bouquet.size, 5);
+			assertNull(bouquet.hostile);
+			assertEquals(bouquet.color, "red");
+			assertSame(bouquet.beanProvider, beans);
+		}
+	}
+
+	public static class Bouquet {
+
+		private String name;
+		private int count;
+		private String hostile;
+		private BeanProvider beanProvider;
+
+		@In
+		private int size;
+
+		@In
+		private String color;
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public void setCount(int count) {
+			this.count = count;
+		}
+
+		@AutowireHostile
+		public void setHostile(String hostile) {
+			this.hostile = hostile;
+		}
+
+		public void setBeanProvider(BeanProvider beanProvider) {
+			this.beanProvider = beanProvider;
+		}
+	}
+
 	public static class Rose extends Flower {
 
 		@In
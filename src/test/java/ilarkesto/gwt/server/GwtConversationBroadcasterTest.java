@@ -0,0 +1,234 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.gwt.server;
+
+import ilarkesto.core.base.Str;
+import ilarkesto.core.persistance.AEntity;
+import ilarkesto.core.persistance.ATransactionManager;
+import ilarkesto.core.persistance.Entity;
+import ilarkesto.core.persistance.InMemoryEntitiesBackend;
+import ilarkesto.core.persistance.Persistence;
+import ilarkesto.core.persistance.SingletonTransactionManager;
+import ilarkesto.core.persistance.Transaction;
+import ilarkesto.di.Context;
+import ilarkesto.gwt.client.ADataTransferObject;
+import ilarkesto.persistence.AThreadlocalTransactionManager;
+import ilarkesto.testng.ATest;
+import ilarkesto.webapp.AWebSession;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class GwtConversationBroadcasterTest extends ATest {
+
+	private AWebSession session;
+
+	@BeforeClass
+	public void init() {
+		Persistence.initialize(new InMemoryEntitiesBackend(), new SingletonTransactionManager());
+		Context context;
+		try {
+			context = Context.getRootContext();
+		} catch (RuntimeException ex) {
+			context = Context.createRootContext("test");
+		}
+		session = new AWebSession(context, null) {};
+	}
+
+	@Test
+	public void sendToAllIfTracking() throws InterruptedException {
+		GwtConversationBroadcaster broadcaster = new GwtConversationBroadcaster();
+		Conversation tracking = new Conversation(session, 1);
+		Conversation other = new Conversation(session, 2);
+		broadcaster.register(tracking);
+		broadcaster.register(other);
+
+		Item item = new Item("a");
+		item.persist();
+		tracking.sendToClient(item);
+		assertEquals(tracking.popNextData().getEntities().size(), 1);
+		assertEquals(broadcaster.getTrackingConversations(item.getId()), Arrays.asList(tracking));
+
+		Thread.sleep(2);
+		item.setName("b");
+		broadcaster.sendToAllIfTracking(Arrays.asList(item));
+
+		Collection<Map<String, String>> entities = tracking.popNextData().getEntities();
+		assertEquals(entities.size(), 1);
+		assertEquals(entities.iterator().next().get("name"), "b");
+		assertFalse(other.popNextData().containsEntities());
+
+		broadcaster.unregister(tracking);
+		assertTrue(broadcaster.getTrackingConversations(item.getId()).isEmpty());
+		broadcaster.shutdown();
+	}
+
+	@Test
+	public void sendToAllAndDelete() {
+		GwtConversationBroadcaster broadcaster = new GwtConversationBroadcaster();
+		Conversation first = new Conversation(session, 1);
+		Conversation second = new Conversation(session, 2);
+		broadcaster.register(first);
+		broadcaster.register(second);
+
+		Item item = new Item("a");
+		item.persist();
+		broadcaster.sendToAll(Arrays.asList(item));
+		assertTrue(first.popNextData().containsEntity(item.getId()));
+		assertTrue(second.popNextData().containsEntity(item.getId()));
+		assertEquals(broadcaster.getTrackingConversations(item.getId()).size(), 2);
+
+		broadcaster.deleteFromAll(Arrays.asList(item.getId()));
+		assertTrue(first.popNextData().getDeletedEntities().contains(item.getId()));
+		assertTrue(broadcaster.getTrackingConversations(item.getId()).isEmpty());
+		broadcaster.shutdown();
+	}
+
+	@Test
+	public void awaitOnlyOwnBroadcasts() throws InterruptedException {
+		GwtConversationBroadcaster broadcaster = new GwtConversationBroadcaster();
+		final CountDownLatch receiving = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicBoolean blocking = new AtomicBoolean();
+		Conversation slow = new Conversation(session, 1) {
+
+			@Override
+			protected boolean isEntityVisible(Entity entity) {
+				if (!blocking.get()) return true;
+				receiving.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException ex) {
+					throw new RuntimeException(ex);
+				}
+				return true;
+			}
+		};
+		Conversation other = new Conversation(session, 2);
+		broadcaster.register(slow);
+		broadcaster.register(other);
+
+		Item item = new Item("a");
+		item.persist();
+		slow.sendToClient(item);
+		slow.popNextData();
+		Thread.sleep(2);
+		item.setName("b");
+		blocking.set(true);
+		broadcaster.sendToAllIfTracking(Arrays.asList(item));
+		receiving.await();
+
+		long start = System.currentTimeMillis();
+		assertFalse(other.popNextData().containsEntities());
+		assertTrue(System.currentTimeMillis() - start < 5000);
+
+		release.countDown();
+		assertTrue(slow.popNextData().containsEntity(item.getId()));
+		broadcaster.shutdown();
+	}
+
+	@Test
+	public void deliverInExplicitTransactions() {
+		final Item item = new Item("a");
+		Persistence.runInTransaction("persist", new Runnable() {
+
+			@Override
+			public void run() {
+				item.persist();
+			}
+		});
+
+		ATransactionManager previousTransactionManager = Persistence.transactionManager;
+		final List<String> transactionNames = Collections.synchronizedList(new ArrayList<String>());
+		Persistence.transactionManager = new AThreadlocalTransactionManager<Transaction>() {
+
+			@Override
+			protected Transaction newInstance(String name, boolean writable) {
+				transactionNames.add(name);
+				return new Transaction(name, writable, false, false);
+			}
+		};
+		try {
+			GwtConversationBroadcaster broadcaster = new GwtConversationBroadcaster();
+			Conversation conversation = new Conversation(session, 1) {
+
+				@Override
+				protected boolean isEntityVisible(Entity entity) {
+					return Transaction.get().containsWithId(entity.getId());
+				}
+			};
+			broadcaster.register(conversation);
+
+			broadcaster.sendToAll(Arrays.asList(item));
+			assertTrue(conversation.popNextData().containsEntity(item.getId()));
+			broadcaster.shutdown();
+		} finally {
+			Persistence.transactionManager = previousTransactionManager;
+		}
+
+		String mainThread = Str.format(Thread.currentThread());
+		for (String name : transactionNames) {
+			if (name.endsWith(mainThread)) continue;
+			assertTrue(name.startsWith(GwtConversationBroadcaster.class.getSimpleName()), name);
+		}
+		assertEquals(transactionNames.size(), 2);
+	}
+
+	static class Conversation extends AGwtConversation<AWebSession> {
+
+		public Conversation(AWebSession session, int number) {
+			super(session, number);
+		}
+
+		@Override
+		protected ADataTransferObject createDataTransferObject() {
+			return new ADataTransferObject() {};
+		}
+
+	}
+
+	static class Item extends AEntity {
+
+		private String name;
+
+		public Item(String name) {
+			super();
+			this.name = name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+			updateLastModified();
+			fireModified("name", name);
+		}
+
+		@Override
+		protected void storeProperties(Map<String, String> properties) {
+			super.storeProperties(properties);
+			properties.put("name", name);
+		}
+
+	}
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io.nio.httpserver;
+
+import ilarkesto.concurrent.TaskManager;
+import ilarkesto.di.Context;
+import ilarkesto.io.IO;
+import ilarkesto.testng.ATest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class HttpServerTest extends ATest {
+
+	private HttpServer<String> server;
+	private int port;
+
+	@BeforeClass
+	public void init() throws IOException {
+		try {
+			Context.getRootContext();
+		} catch (RuntimeException ex) {
+			Context.createRootContext("test");
+		}
+
+		ServerSocket freePort = new ServerSocket(0);
+		port = freePort.getLocalPort();
+		freePort.close();
+
+		File dir = new File(getTestOutputFile("static"), "files");
+		IO.writeFile(new File(dir, "hello.txt"), "Hello file", IO.UTF_8);
+
+		server = new HttpServer<String>(port, "test", 2, 2) {
+
+			@Override
+			protected String createSessionBean(HttpSession<String> session) {
+				return "bean-" + session.getId();
+			}
+		};
+		server.addHandler(HttpMethod.GET, "/hello", new HttpRequestHandler() {
+
+			@Override
+			public boolean onHttpRequest(HttpRequest request) {
+				request.sendText(HttpStatusCode.OK, "Hello " + request.getParameter("name"));
+				return true;
+			}
+		});
+		server.addHandler(HttpMethod.POST, "/echo", new HttpRequestHandler() {
+
+			@Override
+			public boolean onHttpRequest(HttpRequest request) {
+				request.sendText(HttpStatusCode.OK, request.getBodyAsString());
+				return true;
+			}
+		});
+		server.addHandler("/session", new HttpRequestHandler() {
+
+			@Override
+			public boolean onHttpRequest(HttpRequest request) {
+				request.sendText(HttpStatusCode.OK, String.valueOf(request.getSession().getBean()));
+				return true;
+			}
+		});
+		server.addHandler("/static/*", new StaticFilesHandler(dir, "/static/"));
+		server.start(new TaskManager());
+	}
+
+	@AfterClass
+	public void shutdown() {
+		server.stop();
+	}
+
+	@Test
+	public void pipelining() throws IOException, InterruptedException {
+		String response = request("GET /hello?name=a HTTP/1.1\r\nHost: x\r\n\r\n"
+				+ "GET /hello?name=b HTTP/1.1\r\nHost: x\r\n\r\n"
+				+ "GET /hello?name=c HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n");
+		assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n"), response);
+		int a = response.indexOf("Hello a");
+		int b = response.indexOf("Hello b");
+		int c = response.indexOf("Hello c");
+		assertTrue(a > 0 && b > a && c > b, response);
+	}
+
+	@Test
+	public void fixedBody() throws IOException, InterruptedException {
+		String response = request("POST /echo HTTP/1.1\r\nContent-Length: 5\r\nConnection: close\r\n\r\nabcde");
+		assertTrue(response.endsWith("\r\n\r\nabcde"), response);
+	}
+
+	@Test
+	public void chunkedBody() throws IOException, InterruptedException {
+		String response = request("POST /echo HTTP/1.1\r\nTransfer-Encoding: chunked\r\nConnection: close\r\n\r\n"
+				+ "3\r\nabc\r\n2;ext=1\r\nde\r\n0\r\n\r\n");
+		assertTrue(response.endsWith("\r\n\r\nabcde"), response);
+	}
+
+	@Test
+	public void notFoundAndMethodNotAllowed() throws IOException, InterruptedException {
+		assertTrue(request("GET /unknown HTTP/1.0\r\n\r\n").startsWith("HTTP/1.1 404"));
+		assertTrue(request("DELETE /hello HTTP/1.0\r\n\r\n").startsWith("HTTP/1.1 405"));
+	}
+
+	@Test
+	public void session() throws IOException, InterruptedException {
+		String response = request("GET /session HTTP/1.0\r\n\r\n");
+		int idx = response.indexOf("set-cookie: ilarkesto-session=");
+		assertTrue(idx > 0, response);
+		String id = response.substring(idx + 30, response.indexOf(';', idx));
+		assertTrue(response.endsWith("bean-" + id), response);
+
+		response = request("GET /session HTTP/1.0\r\nCookie: ilarkesto-session=" + id + "\r\n\r\n");
+		assertFalse(response.contains("set-cookie"), response);
+		assertTrue(response.endsWith("bean-" + id), response);
+	}
+
+	@Test
+	public void staticFile() throws IOException, InterruptedException {
+		String response = request("GET /static/hello.txt HTTP/1.0\r\n\r\n");
+		assertTrue(response.startsWith("HTTP/1.1 200"), response);
+		assertTrue(response.contains("content-length: 10"), response);
+		assertTrue(response.endsWith("\r\n\r\nHello file"), response);
+
+		assertTrue(request("GET /static/../secret HTTP/1.0\r\n\r\n").startsWith("HTTP/1.1 403"));
+	}
+
+	private String request(String request) throws IOException, InterruptedException {
+		Socket socket = connect();
+		try {
+			socket.getOutputStream().write(request.getBytes("ISO-8859-1"));
+			socket.getOutputStream().flush();
+			InputStream in = socket.getInputStream();
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[1024];
+			int count;
+			while ((count = in.read(buffer)) >= 0) {
+				out.write(buffer, 0, count);
+			}
+			return new String(out.toByteArray(), "ISO-8859-1");
+		} finally {
+			socket.close();
+		}
+	}
+
+	private Socket connect() throws IOException, InterruptedException {
+		for (int i = 0; i < 50; i++) {
+			try {
+				Socket socket = new Socket("localhost", port);
+				socket.setSoTimeout(5000);
+				return socket;
+			} catch (IOException ex) {
+				Thread.sleep(100);
+			}
+		}
+		throw new IOException("Connecting to localhost:" + port + " failed");
+	}
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io.nio.tcpserver;
+
+import ilarkesto.concurrent.TaskManager;
+import ilarkesto.di.Context;
+import ilarkesto.testng.ATest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class TcpServerTest extends ATest {
+
+	@BeforeClass
+	public void init() {
+		try {
+			Context.getRootContext();
+		} catch (RuntimeException ex) {
+			Context.createRootContext("test");
+		}
+	}
+
+	@Test
+	public void echoWithMultipleSelectorsAndWorkers() throws IOException, InterruptedException {
+		ServerSocket freePort = new ServerSocket(0);
+		int port = freePort.getLocalPort();
+		freePort.close();
+
+		TcpServer server = new TcpServer(port, new EchoDataHandler(), 2, 3);
+		TaskManager taskManager = new TaskManager();
+		server.start(taskManager);
+		try {
+			Socket[] sockets = new Socket[5];
+			for (int i = 0; i < sockets.length; i++) {
+				sockets[i] = connect(port);
+			}
+			for (int i = 0; i < sockets.length; i++) {
+				Socket socket = sockets[i];
+				BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+				OutputStream out = socket.getOutputStream();
+				for (int j = 0; j < 20; j++) {
+					String line = "connection " + i + " line " + j;
+					out.write((line + "\n").getBytes("UTF-8"));
+					out.flush();
+					assertEquals(in.readLine(), line);
+				}
+				socket.close();
+			}
+
+			TcpServerStatistics statistics = server.getStatistics();
+			assertEquals(statistics.getAcceptedConnections(), sockets.length);
+			assertTrue(statistics.getBytesRead() > 0);
+			for (int i = 0; i < 50 && statistics.getBytesWritten() < statistics.getBytesRead(); i++) {
+				Thread.sleep(10);
+			}
+			assertEquals(statistics.getBytesWritten(), statistics.getBytesRead());
+			log.info(statistics);
+		} finally {
+			server.stop();
+		}
+	}
+
+	@Test
+	public void echoLargeData() throws IOException, InterruptedException {
+		ServerSocket freePort = new ServerSocket(0);
+		int port = freePort.getLocalPort();
+		freePort.close();
+
+		TcpServer server = new TcpServer(port, new EchoDataHandler());
+		TaskManager taskManager = new TaskManager();
+		server.start(taskManager);
+		try {
+			final Socket socket = connect(port);
+			final byte[] data = new byte[200000];
+			for (int i = 0; i < data.length; i++) {
+				data[i] = (byte) i;
+			}
+			Thread writer = new Thread() {
+
+				@Override
+				public void run() {
+					try {
+						socket.getOutputStream().write(data);
+						socket.getOutputStream().flush();
+					} catch (IOException ex) {
+						throw new RuntimeException(ex);
+					}
+				}
+			};
+			writer.start();
+			InputStream in = socket.getInputStream();
+			byte[] received = new byte[data.length];
+			int offset = 0;
+			while (offset < received.length) {
+				int count = in.read(received, offset, received.length - offset);
+				if (count < 0) break;
+				offset += count;
+			}
+			writer.join();
+			socket.close();
+			assertEquals(received, data);
+			assertTrue(server.getBufferPool().getPooledBuffers() > 0);
+		} finally {
+			server.stop();
+		}
+	}
+
+	private Socket connect(int port) throws IOException, InterruptedException {
+		for (int i = 0; i < 50; i++) {
+			try {
+				return new Socket("localhost", port);
+			} catch (IOException ex) {
+				Thread.sleep(100);
+			}
+		}
+		throw new IOException("Connecting to localhost:" + port + " failed");
+	}
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.json;
+
+import ilarkesto.json.JsonMapper.TypeResolver;
+import ilarkesto.json.JsonPullParser.Token;
+import ilarkesto.json.JsonSaxParser.ParseException;
+import ilarkesto.testng.ATest;
+
+import java.io.IOException;
+
+import org.testng.annotations.Test;
+
+public class JsonPullParserTest extends ATest {
+
+	@Test
+	public void tokens() throws IOException, ParseException {
+		JsonPullParser parser = new JsonPullParser("{\"a\": [1, \"x\", true, null], \"b\": {}}");
+		assertSame(parser.nextToken(), Token.BEGIN_OBJECT);
+		assertSame(parser.nextToken(), Token.NAME);
+		assertEquals(parser.getName(), "a");
+		assertSame(parser.nextToken(), Token.BEGIN_ARRAY);
+		assertEquals(parser.getDepth(), 2);
+		assertSame(parser.nextToken(), Token.VALUE);
+		assertEquals(parser.getValue(), 1l);
+		assertSame(parser.nextToken(), Token.VALUE);
+		assertEquals(parser.getValue(), "x");
+		assertSame(parser.nextToken(), Token.VALUE);
+		assertEquals(parser.getValue(), Boolean.TRUE);
+		assertSame(parser.nextToken(), Token.VALUE);
+		assertNull(parser.getValue());
+		assertSame(parser.nextToken(), Token.END_ARRAY);
+		assertSame(parser.nextToken(), Token.NAME);
+		assertSame(parser.nextToken(), Token.BEGIN_OBJECT);
+		assertSame(parser.nextToken(), Token.END_OBJECT);
+		assertSame(parser.nextToken(), Token.END_OBJECT);
+		assertSame(parser.nextToken(), Token.END);
+	}
+
+	@Test
+	public void iterateArray() throws IOException, ParseException {
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < 1000; i++) {
+			if (i > 0) sb.append(',');
+			sb.append("{\"i\":").append(i).append(",\"skip\":{\"deep\":[[],{}]},\"s\":\"v\\\"").append(i).append("\"}");
+		}
+		sb.append(']');
+
+		JsonPullParser parser = new JsonPullParser(sb.toString());
+		assertSame(parser.nextToken(), Token.BEGIN_ARRAY);
+		int count = 0;
+		while (parser.nextToken() == Token.BEGIN_OBJECT) {
+			JsonObject element = parser.readObject();
+			assertEquals(element.getInteger("i"), Integer.valueOf(count));
+			assertEquals(element.getString("s"), "v\"" + count);
+			count++;
+		}
+		assertEquals(count, 1000);
+		assertSame(parser.getToken(), Token.END_ARRAY);
+		assertSame(parser.nextToken(), Token.END);
+	}
+
+	@Test
+	public void skipValue() throws IOException, ParseException {
+		JsonPullParser parser = new JsonPullParser("{\"skip\":{\"a\":[1,{\"b\":2}]},\"keep\":3}");
+		parser.nextToken();
+		assertSame(parser.nextToken(), Token.NAME);
+		parser.skipValue();
+		assertSame(parser.getToken(), Token.END_OBJECT);
+		assertSame(parser.nextToken(), Token.NAME);
+		assertEquals(parser.getName(), "keep");
+		assertEquals(parser.readValue(), 3l);
+	}
+
+	@Test
+	public void readTypedObjects() throws IOException, ParseException {
+		JsonPullParser parser = new JsonPullParser("[{\"a\":1,\"b\":[2,3],\"c\":{\"at\":\"x\"}},{\"a\":4}]");
+		parser.nextToken();
+		parser.nextToken();
+		JsonMapperTest.Dummy dummy = JsonMapper.deserialize(parser, JsonMapperTest.Dummy.class, TypeResolver.NONE);
+		String serialized = JsonMapper.serialize(dummy);
+		assertTrue(serialized.contains("\"a\": 1,"), serialized);
+		assertTrue(serialized.contains("\"b\": [ 2, 3 ]"), serialized);
+		assertTrue(serialized.contains("\"at\": \"x\""), serialized);
+
+		parser.nextToken();
+		dummy = JsonMapper.deserialize(parser, JsonMapperTest.Dummy.class, TypeResolver.NONE);
+		serialized = JsonMapper.serialize(dummy);
+		assertTrue(serialized.contains("\"a\": 4,"), serialized);
+		assertSame(parser.nextToken(), Token.END_ARRAY);
+	}
+
+	@Test(expectedExceptions = ParseException.class)
+	public void unexpectedToken() throws IOException, ParseException {
+		JsonPullParser parser = new JsonPullParser("{\"a\" 1}");
+		while (parser.nextToken() != Token.END) {}
+	}
+
+}
@@ -3,7 +3,13 @@ package ilarkesto.json;
 import ilarkesto.core.base.Utl;
 import ilarkesto.testng.ATest;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import org.testng.annotations.Test;
 
@@ -21,11 +27,52 @@ public class JsonTest extends ATest {
 		assertEquals(Json.parseString("\\u20ac"), "€");
 
 		assertEquals(Json.parseString("a \\n \\\\ \\/"), "a \n \\ /");
+
+		assertEquals(Json.parseString("\\\\n"), "\\n");
+		assertEquals(Json.parseString("\\u20ac\\u20ac x"), "\u20ac\u20ac x");
+		assertEquals(Json.parseString("[\\\"quoted\\\"]", 1, 11), "\"quoted\"");
+		assertEquals(Json.parseString("plain", 1, 4), "lai");
+	}
+
+	@Test
+	public void parseNumber() {
+		assertEquals(Json.parseNumber("23"), 23l);
+		assertEquals(Json.parseNumber("-1.5"), new BigDecimal("-1.5"));
+		assertEquals(Json.parseNumber("1e3"), new BigDecimal("1e3"));
+		Json.setParseDecimalsAsDouble(true);
+		try {
+			assertEquals(Json.parseNumber("-1.5"), -1.5d);
+			assertEquals(Json.parseNumber("0.12345678901234567"), new BigDecimal("0.12345678901234567"));
+			assertEquals(Json.parseNumber("1.23456789012345e100"), 1.23456789012345e100d);
+			assertEquals(Json.parseNumber("0.0e5"), 0d);
+			assertEquals(Json.parseNumber("1e400"), new BigDecimal("1e400"));
+			assertEquals(Json.parseNumber("-1e400"), new BigDecimal("-1e400"));
+			assertEquals(Json.parseNumber("1e-400"), new BigDecimal("1e-400"));
+			assertEquals(Json.parseNumber("1e-310"), new BigDecimal("1e-310"));
+		} finally {
+			Json.setParseDecimalsAsDouble(false);
+		}
 	}
 
 	@Test
 	public void escapeString() {
 		assertEquals(Json.escapeString("\t"), "\\t");
+		assertEquals(Json.escapeString("plain"), "plain");
+		assertEquals(Json.escapeString("a\"b\\c\n\u0001"), "a\\\"b\\\\c\\n\\u0001");
+	}
+
+	@Test
+	public void writeLargerThanBuffer() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			sb.append("line ").append(i).append("\n");
+		}
+		StringWriter stringWriter = new StringWriter();
+		JsonWriter out = new JsonWriter(stringWriter, 16);
+		out.writeString(sb.toString());
+		out.flush();
+		assertEquals(stringWriter.toString(), "\"" + Json.escapeString(sb.toString()) + "\"");
+		assertEquals(Json.parseString(Json.escapeString(sb.toString())), sb.toString());
 	}
 
 	@Test
@@ -141,6 +188,81 @@ public class JsonTest extends ATest {
 		assertNotEquals(JsonObject.parse("{\"list\":[[{}]]}"), JsonObject.parse("{\"list\":[[]]}"));
 	}
 
+	@Test
+	public void parseLazy() {
+		String json = "{\"name\":\"Witek \\\"W\\\"\", \"age\": 42, \"ok\":true, \"none\":null,"
+				+ " \"address\": {\"city\":\"B\\u00e4rlin\", \"zip\":[1,2,{\"x\":\"]}\"}]}, \"dec\":-1.5e2}";
+		JsonObject lazy = JsonObject.parseLazy(json);
+		assertEquals(lazy.getString("name"), "Witek \"W\"");
+		assertEquals(lazy.getInteger("age"), Integer.valueOf(42));
+		assertTrue(lazy.isTrue("ok"));
+		assertTrue(lazy.contains("none"));
+		assertFalse(lazy.isSet("none"));
+		assertEquals(lazy.getDeepString("address", "city"), "B\u00e4rlin");
+		assertSame(lazy.getObject("address").getParent(), lazy);
+		assertEquals(lazy.getDeepString("address", "zip", "2", "x"), "]}");
+		assertEquals(lazy.getByPath("address.zip[1]"), 2l);
+		assertNull(lazy.getByPath("address.zip[7]"));
+		assertNull(lazy.getDeep("age", "x"));
+
+		assertEquals(lazy, JsonObject.parse(json));
+		assertEquals(lazy.toString(), JsonObject.parse(json).toString());
+
+		lazy = JsonObject.parseLazy(json);
+		lazy.put("age", 43);
+		lazy.remove("none");
+		assertEquals(lazy.toString(),
+			"{\"name\":\"Witek \\\"W\\\"\",\"age\":43,\"ok\":true,\"address\":{\"city\":\"B\u00e4rlin\",\"zip\":[1,2,{\"x\":\"]}\"}]},\"dec\":-1.5E+2}");
+	}
+
+	@Test(expectedExceptions = ParseException.class)
+	public void parseLazyError() {
+		JsonObject.parseLazy("{\"a\":[1,2}");
+	}
+
+	@Test
+	public void parseLazyConcurrentReads() throws InterruptedException {
+		StringBuilder sb = new StringBuilder("{");
+		for (int i = 0; i < 100; i++) {
+			if (i > 0) sb.append(',');
+			sb.append("\"p").append(i).append("\":{");
+			for (int j = 0; j < 100; j++) {
+				if (j > 0) sb.append(',');
+				sb.append("\"v").append(j).append("\":").append(i);
+			}
+			sb.append('}');
+		}
+		final JsonObject lazy = JsonObject.parseLazy(sb.append('}').toString());
+		final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 8; t++) {
+			Thread thread = new Thread() {
+
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < 100; i++) {
+							Number value = lazy.getDeepNumber("p" + i, "v99");
+							if (value == null || value.intValue() != i) errors.add("p" + i + " -> " + value);
+						}
+					} catch (Throwable ex) {
+						errors.add(ex.toString());
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(errors, Collections.emptyList());
+		assertEquals(lazy.getProperties().size(), 100);
+	}
+
 	// --- helper ---
 
 }
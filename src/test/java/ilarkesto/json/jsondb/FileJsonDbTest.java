@@ -0,0 +1,123 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.json.jsondb;
+
+import ilarkesto.io.IO;
+import ilarkesto.json.JsonObject;
+import ilarkesto.testng.ATest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+public class FileJsonDbTest extends ATest {
+
+	@Test
+	public void saveLoadDelete() {
+		FileJsonDb db = createDb("saveLoadDelete");
+		db.saveDocument(document("a", "red"));
+		assertEquals(db.listAllDocumentIds(), Arrays.asList("a"));
+		assertEquals(db.loadDocumentById("a").getString("color"), "red");
+
+		db.clearCache();
+		assertEquals(db.loadDocumentById("a").getString("color"), "red");
+		assertSame(db.loadDocumentById("a"), db.loadDocumentById("a"));
+
+		db.deleteDocumentById("a");
+		assertNull(db.loadDocumentById("a"));
+		assertTrue(db.listAllDocuments().isEmpty());
+	}
+
+	@Test
+	public void cacheIsBounded() {
+		FileJsonDb db = createDb("cacheIsBounded").setCacheSize(3);
+		for (int i = 0; i < 10; i++) {
+			db.saveDocument(document("d" + i, "red"));
+		}
+		assertEquals(db.getCachedDocumentCount(), 3);
+		assertEquals(db.loadAllDocuments().size(), 10);
+		assertEquals(db.getCachedDocumentCount(), 3);
+	}
+
+	@Test
+	public void loadDocumentsByIdsInParallel() {
+		FileJsonDb db = createDb("loadDocumentsByIdsInParallel").setLoaderThreadCount(4);
+		List<String> ids = new ArrayList<String>();
+		for (int i = 0; i < 50; i++) {
+			db.saveDocument(document("d" + i, "red"));
+			ids.add("d" + i);
+		}
+		ids.add("missing");
+		db.clearCache();
+		List<JsonObject> documents = db.loadDocumentsByIds(ids);
+		assertEquals(documents.size(), 51);
+		for (int i = 0; i < 50; i++) {
+			assertEquals(documents.get(i).getString("_id"), "d" + i);
+		}
+		assertNull(documents.get(50));
+		db.shutdown();
+	}
+
+	@Test
+	public void indexedFilter() {
+		FileJsonDb db = createDb("indexedFilter");
+		db.saveDocument(document("a", "red"));
+		db.saveDocument(document("b", "green"));
+		db.saveDocument(document("c", "red", "green"));
+		db.addIndex("color");
+
+		assertEquals(ids(db.loadDocumentsByFilter(new PropertyFilter("color", "red"))), Arrays.asList("a", "c"));
+		assertEquals(ids(db.loadDocumentsByFilter(new PropertyFilter("color", "green"))), Arrays.asList("b", "c"));
+
+		db.saveDocument(document("a", "green"));
+		db.deleteDocumentById("c");
+		assertTrue(db.loadDocumentsByFilter(new PropertyFilter("color", "red")).isEmpty());
+		assertEquals(ids(db.loadDocumentsByFilter(new PropertyFilter("color", "green"))), Arrays.asList("a", "b"));
+
+		// not indexed, answered by scanning
+		assertEquals(ids(db.loadDocumentsByFilter(new PropertyFilter("_id", "b"))), Arrays.asList("b"));
+	}
+
+	private static List<String> ids(List<JsonObject> documents) {
+		List<String> ids = new ArrayList<String>();
+		for (JsonObject document : documents) {
+			ids.add(document.getString("_id"));
+		}
+		Collections.sort(ids);
+		return ids;
+	}
+
+	private static JsonObject document(String id, String... colors) {
+		JsonObject document = new JsonObject();
+		document.put("_id", id);
+		if (colors.length == 1) {
+			document.put("color", colors[0]);
+		} else {
+			document.put("color", Arrays.asList(colors));
+		}
+		return document;
+	}
+
+	private FileJsonDb createDb(String name) {
+		File dir = getTestOutputFile(name);
+		IO.delete(dir);
+		return new FileJsonDb(dir);
+	}
+
+}
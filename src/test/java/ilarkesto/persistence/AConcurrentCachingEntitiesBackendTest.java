@@ -0,0 +1,163 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.persistence;
+
+import ilarkesto.core.persistance.AEntity;
+import ilarkesto.core.persistance.EntityCacheTest.Car;
+import ilarkesto.testng.ATest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.testng.annotations.Test;
+
+public class AConcurrentCachingEntitiesBackendTest extends ATest {
+
+	@Test
+	public void mergeCommits() throws InterruptedException {
+		Backend backend = new Backend();
+		backend.setGroupCommit(true);
+		List<String> callbacks = Collections.synchronizedList(new ArrayList<String>());
+		Car a = new Car().setName("a");
+		Car b = new Car().setName("b");
+		Car c = new Car().setName("c");
+
+		backend.blocker = new CountDownLatch(1);
+		backend.update(Arrays.<AEntity> asList(a), null, null, new Callback(callbacks, "1"));
+		backend.blocked.await();
+		backend.update(Arrays.<AEntity> asList(b), null, null, new Callback(callbacks, "2"));
+		backend.update(Arrays.<AEntity> asList(c), Arrays.asList(a.getId()), null, new Callback(callbacks, "3"));
+		assertTrue(backend.containsWithId(c.getId()));
+		assertFalse(backend.containsWithId(a.getId()));
+		assertEquals(backend.getPendingUpdatesCount(), 2);
+		assertTrue(callbacks.isEmpty());
+
+		backend.blocker.countDown();
+		backend.flush();
+
+		assertEquals(backend.updates, Arrays.asList("saved [a]", "saved [b, c] deleted [" + a.getId() + "]"));
+		assertEquals(callbacks, Arrays.asList("1", "2", "3"));
+		assertTrue(backend.isStored(c.getId()));
+		assertFalse(backend.isStored(a.getId()));
+	}
+
+	@Test
+	public void flush() {
+		Backend backend = new Backend();
+		backend.setGroupCommit(true);
+		List<String> callbacks = Collections.synchronizedList(new ArrayList<String>());
+		for (int i = 0; i < 20; i++) {
+			backend.update(Arrays.<AEntity> asList(new Car().setName("c" + i)), null, null, new Callback(callbacks,
+					String.valueOf(i)));
+		}
+		backend.flush();
+		assertEquals(backend.getPendingUpdatesCount(), 0);
+		assertEquals(callbacks.size(), 20);
+		for (int i = 0; i < 20; i++) {
+			assertEquals(callbacks.get(i), String.valueOf(i));
+		}
+
+		backend.setGroupCommit(false);
+		backend.update(Arrays.<AEntity> asList(new Car().setName("x")), null, null, new Callback(callbacks, "x"));
+		assertEquals(callbacks.get(20), "x");
+	}
+
+	@Test
+	public void retryFailedCommits() throws InterruptedException {
+		Backend backend = new Backend();
+		backend.setGroupCommit(true);
+		List<String> callbacks = Collections.synchronizedList(new ArrayList<String>());
+		Car a = new Car().setName("a");
+
+		backend.failures = 1;
+		backend.attempts = new CountDownLatch(2);
+		backend.update(Arrays.<AEntity> asList(a), null, null, new Callback(callbacks, "1"));
+		try {
+			backend.flush();
+			failExceptionExpected(RuntimeException.class);
+		} catch (RuntimeException ex) {}
+		assertFalse(backend.isStored(a.getId()));
+		assertTrue(callbacks.isEmpty());
+
+		// the retry has started when onUpdate() is called the second time, flush() then waits for it
+		backend.attempts.await();
+		backend.flush();
+		assertEquals(backend.updates, Arrays.asList("saved [a]"));
+		assertEquals(callbacks, Arrays.asList("1"));
+		assertTrue(backend.isStored(a.getId()));
+	}
+
+	private static class Callback implements Runnable {
+
+		private List<String> callbacks;
+		private String name;
+
+		public Callback(List<String> callbacks, String name) {
+			super();
+			this.callbacks = callbacks;
+			this.name = name;
+		}
+
+		@Override
+		public void run() {
+			callbacks.add(name);
+		}
+
+	}
+
+	private static class Backend extends AConcurrentCachingEntitiesBackend {
+
+		private List<String> updates = Collections.synchronizedList(new ArrayList<String>());
+		private volatile CountDownLatch blocker;
+		private CountDownLatch blocked = new CountDownLatch(1);
+		private volatile int failures;
+		private volatile CountDownLatch attempts;
+
+		@Override
+		protected void onUpdate(Collection<AEntity> modified, Collection<String> deleted,
+				Map<String, Map<String, String>> modifiedPropertiesByEntityIds, Runnable callback) {
+			blocked.countDown();
+			if (attempts != null) attempts.countDown();
+			if (blocker != null) {
+				try {
+					blocker.await();
+				} catch (InterruptedException ex) {
+					throw new RuntimeException(ex);
+				}
+				blocker = null;
+			}
+			if (failures > 0) {
+				failures--;
+				throw new RuntimeException("Storage not available");
+			}
+			StringBuilder sb = new StringBuilder("saved ").append(modified);
+			if (deleted != null && !deleted.isEmpty()) sb.append(" deleted ").append(deleted);
+			updates.add(sb.toString());
+			if (callback != null) callback.run();
+		}
+
+		@Override
+		public String createInfo() {
+			return null;
+		}
+
+	}
+
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.persistence.file;
+
+import ilarkesto.core.persistance.AEntity;
+import ilarkesto.io.AFileStorage;
+import ilarkesto.io.IO;
+import ilarkesto.json.JsonMapper.TypeResolver;
+import ilarkesto.json.JsonObject;
+import ilarkesto.testng.ATest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+public class AJsonJournalEntitiesBackendTest extends ATest {
+
+	@Test
+	public void replay() {
+		AFileStorage storage = createStorage("replay");
+		Backend backend = new Backend(storage);
+		Item a = new Item().setName("a");
+		Item b = new Item().setName("b");
+		backend.update(Arrays.<AEntity> asList(a, b), null, null, null);
+		backend.update(Arrays.<AEntity> asList(b.setName("b2")), null, null, null);
+		backend.update(null, Arrays.asList(a.getId()), null, null);
+
+		backend = new Backend(storage);
+		assertFalse(backend.containsWithId(a.getId()));
+		assertEquals(((Item) backend.getById(b.getId())).name, "b2");
+		assertEquals(backend.getAllAsList().size(), 1);
+	}
+
+	@Test
+	public void tornTail() throws IOException {
+		AFileStorage storage = createStorage("tornTail");
+		Backend backend = new Backend(storage);
+		Item a = new Item().setName("a");
+		backend.update(Arrays.<AEntity> asList(a), null, null, null);
+		File journal = storage.getFile("entities.journal");
+		long length = journal.length();
+
+		append(journal, "+ Ite");
+		backend = new Backend(storage);
+		assertEquals(journal.length(), length);
+		assertEquals(backend.getAllAsList().size(), 1);
+
+		append(journal, "+ Item 40\n{\"name\":\"to");
+		backend = new Backend(storage);
+		assertEquals(journal.length(), length);
+
+		append(journal, "- " + a.getId());
+		backend = new Backend(storage);
+		assertEquals(journal.length(), length);
+		assertTrue(backend.containsWithId(a.getId()));
+
+		Item b = new Item().setName("b");
+		backend.update(Arrays.<AEntity> asList(b), null, null, null);
+		backend = new Backend(storage);
+		assertEquals(backend.getAllAsList().size(), 2);
+		assertEquals(((Item) backend.getById(b.getId())).name, "b");
+	}
+
+	@Test
+	public void failingSerializationLeavesJournalUnchanged() {
+		AFileStorage storage = createStorage("failingSerialization");
+		Backend backend = new Backend(storage);
+		backend.update(Arrays.<AEntity> asList(new Item().setName("a")), null, null, null);
+		File journal = storage.getFile("entities.journal");
+		long length = journal.length();
+
+		try {
+			backend.update(Arrays.<AEntity> asList(new Item().setName("b"), new Unserializable()), null, null, null);
+			fail("Exception expected");
+		} catch (RuntimeException ex) {}
+		assertEquals(journal.length(), length);
+
+		Item c = new Item().setName("c");
+		backend.update(Arrays.<AEntity> asList(c), null, null, null);
+		backend = new Backend(storage);
+		assertEquals(backend.getAllAsList().size(), 2);
+		assertEquals(((Item) backend.getById(c.getId())).name, "c");
+	}
+
+	@Test
+	public void compaction() {
+		AFileStorage storage = createStorage("compaction");
+		Backend backend = new Backend(storage);
+		backend.compactionThreshold = 2;
+		List<Item> items = new ArrayList<Item>();
+		for (int i = 0; i < 3; i++) {
+			Item item = new Item().setName("i" + i);
+			items.add(item);
+			backend.update(Arrays.<AEntity> asList(item), null, null, null);
+		}
+		assertEquals(storage.getFile("entities.journal").length(), 0);
+
+		backend.update(null, Collections.singleton(items.get(0).getId()), null, null);
+		assertTrue(storage.getFile("entities.journal").length() > 0);
+
+		backend = new Backend(storage);
+		assertEquals(backend.getAllAsList().size(), 2);
+		assertFalse(backend.containsWithId(items.get(0).getId()));
+		assertEquals(((Item) backend.getById(items.get(2).getId())).name, "i2");
+	}
+
+	@Test
+	public void upgradeRecords() {
+		AFileStorage storage = createStorage("upgradeRecords");
+		Backend backend = new Backend(storage);
+		backend.compactionThreshold = 1;
+		Item a = new Item().setName("a");
+		Item b = new Item().setName("b");
+		backend.update(Arrays.<AEntity> asList(a, b), null, null, null);
+		assertEquals(storage.getFile("entities.journal").length(), 0);
+		backend.compactionThreshold = 100;
+		Item c = new Item().setName("c");
+		backend.update(Arrays.<AEntity> asList(c), null, null, null);
+
+		backend = new UpgradingBackend(storage);
+		assertEquals(((Item) backend.getById(a.getId())).name, "a!");
+		assertEquals(((Item) backend.getById(c.getId())).name, "c!");
+		assertTrue(IO.readFile(storage.getFile("entities.snapshot"), IO.UTF_8).startsWith("# version 1\n"));
+		assertEquals(storage.getFile("entities.journal").length(), 0);
+
+		backend = new UpgradingBackend(storage);
+		assertEquals(((Item) backend.getById(a.getId())).name, "a!");
+	}
+
+	@Test
+	public void newerDataVersionIsRejected() {
+		AFileStorage storage = createStorage("newerDataVersion");
+		new Backend(storage);
+		IO.writeFile(storage.getFile("entities.snapshot"), "# version 2\n", IO.UTF_8);
+		try {
+			new UpgradingBackend(storage);
+			fail("IllegalStateException expected");
+		} catch (IllegalStateException ex) {}
+	}
+
+	private AFileStorage createStorage(String name) {
+		IO.delete(getTestOutputFile(name));
+		return getTestFileStorage(name);
+	}
+
+	private static void append(File file, String s) throws IOException {
+		FileOutputStream out = new FileOutputStream(file, true);
+		out.write(s.getBytes(IO.UTF_8));
+		out.close();
+	}
+
+	private static class Backend extends AJsonJournalEntitiesBackend {
+
+		private int compactionThreshold;
+
+		public Backend(AFileStorage storage) {
+			super(storage);
+		}
+
+		@Override
+		protected int getCompactionThreshold() {
+			// called by the super constructor, before fields are initialized
+			return compactionThreshold > 0 ? compactionThreshold : 100;
+		}
+
+		@Override
+		protected AEntityJsonFileUpgrades createUpgrader() {
+			return null;
+		}
+
+		@Override
+		protected List<Class<? extends AEntity>> getEntityTypes() {
+			List<Class<? extends AEntity>> types = new ArrayList<Class<? extends AEntity>>();
+			types.add(Item.class);
+			return types;
+		}
+
+		@Override
+		protected TypeResolver createTypeResolver() {
+			return TypeResolver.NONE;
+		}
+
+	}
+
+	private static class UpgradingBackend extends Backend {
+
+		public UpgradingBackend(AFileStorage storage) {
+			super(storage);
+		}
+
+		@Override
+		protected AEntityJsonFileUpgrades createUpgrader() {
+			return new AEntityJsonFileUpgrades() {
+
+				@Override
+				protected void initialize() {
+					new JsonUpgrader<Item>(Item.class, 1) {
+
+						@Override
+						protected boolean upgrade(JsonObject json) {
+							json.put("name", json.getString("name") + "!");
+							return true;
+						}
+					};
+				}
+			};
+		}
+
+	}
+
+	public static class Item extends AEntity {
+
+		private String name;
+
+		public Item setName(String name) {
+			this.name = name;
+			updateLastModified();
+			return this;
+		}
+
+		@Override
+		protected void storeProperties(Map<String, String> properties) {
+			super.storeProperties(properties);
+			properties.put("name", name);
+		}
+
+	}
+
+	public static class Unserializable extends AEntity {
+
+		private Object values = new Iterable<String>() {
+
+			@Override
+			public Iterator<String> iterator() {
+				throw new IllegalStateException("not serializable");
+			}
+		};
+
+		public Unserializable() {
+			updateLastModified();
+		}
+
+	}
+
+}
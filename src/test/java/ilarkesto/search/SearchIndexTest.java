@@ -0,0 +1,111 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.search;
+
+import ilarkesto.core.persistance.EntityCacheTest.Car;
+import ilarkesto.core.search.SearchText;
+import ilarkesto.core.search.Searchable;
+import ilarkesto.testng.ATest;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+public class SearchIndexTest extends ATest {
+
+	@Test
+	public void candidates() {
+		SearchIndex index = new SearchIndex();
+		index.update("1", new Item("Hello World", "greeting"));
+		index.update("2", new Item("Goodbye World", null));
+		index.update("3", new Item("Something else", 42));
+
+		assertCandidates(index, "world", "1", "2");
+		assertCandidates(index, "orl", "1", "2");
+		assertCandidates(index, "world hello", "1");
+		assertCandidates(index, "WORLD greet", "1");
+		assertCandidates(index, "42", "3");
+		assertCandidates(index, "xyz");
+		assertNull(index.getCandidateIds(new SearchText("w")));
+	}
+
+	@Test
+	public void updateAndRemove() {
+		SearchIndex index = new SearchIndex();
+		index.update("1", new Item("alpha"));
+		index.update("2", new Item("beta"));
+		assertCandidates(index, "alpha", "1");
+
+		index.update("1", new Item("gamma"));
+		assertCandidates(index, "alpha");
+		assertCandidates(index, "gamma", "1");
+
+		index.remove("1");
+		assertCandidates(index, "gamma");
+		assertEquals(index.size(), 1);
+
+		index.remove("2");
+		assertEquals(index.getGramCount(), 0);
+	}
+
+	@Test
+	public void opaqueSearchablesAreAlwaysCandidates() {
+		SearchIndex index = new SearchIndex();
+		index.update("1", new Item("alpha"));
+		index.update("2", new Searchable() {
+
+			@Override
+			public boolean matches(SearchText searchText) {
+				return searchText.getWords().contains("custom");
+			}
+		});
+		assertCandidates(index, "alpha", "1", "2");
+		assertCandidates(index, "custom", "2");
+	}
+
+	@Test
+	public void searchablesMatchingOtherEntitiesAreAlwaysCandidates() {
+		SearchIndex index = new SearchIndex();
+		index.update("1", new Item("alpha"));
+		index.update("2", new Item("beta", new Car().setName("alpha")));
+		index.update("3", new Item("gamma", Arrays.asList(new Car().setName("delta"))));
+		assertCandidates(index, "alpha", "1", "2", "3");
+		assertCandidates(index, "beta", "2", "3");
+	}
+
+	private static void assertCandidates(SearchIndex index, String text, String... expectedIds) {
+		Set<String> ids = index.getCandidateIds(new SearchText(text));
+		assertNotNull(ids);
+		assertEquals(ids.size(), expectedIds.length, ids.toString());
+		assertTrue(ids.containsAll(Arrays.asList(expectedIds)), ids.toString());
+	}
+
+	private static class Item implements Searchable {
+
+		private Object[] values;
+
+		public Item(Object... values) {
+			this.values = values;
+		}
+
+		@Override
+		public boolean matches(SearchText searchText) {
+			return searchText.matches(values);
+		}
+
+	}
+
+}